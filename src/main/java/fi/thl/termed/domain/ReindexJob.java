@@ -0,0 +1,155 @@
+package fi.thl.termed.domain;
+
+import static java.util.Objects.requireNonNull;
+
+import com.google.common.base.MoreObjects;
+import fi.thl.termed.util.collect.Identifiable;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * Reindexing of a set of nodes run in the background. Nodes not yet indexed are kept in indexing
+ * queue of the job. Rate (nodes per second) and estimated end date are derived from the progress.
+ * Rebuild job indexes all nodes to a new index that replaces the live index when job is done.
+ */
+public final class ReindexJob implements Identifiable<Long> {
+
+  public enum Status {
+    RUNNING, PAUSED, CANCELLED, DONE, FAILED
+  }
+
+  private final Long id;
+  private final Long queueId;
+  private final boolean rebuild;
+  private final Status status;
+  private final long total;
+  private final long done;
+  private final LocalDateTime createdDate;
+  private final LocalDateTime lastModifiedDate;
+
+  private final double rate;
+  private final LocalDateTime estimatedEndDate;
+
+  private ReindexJob(Long id, Long queueId, boolean rebuild, Status status, long total, long done,
+      LocalDateTime createdDate, LocalDateTime lastModifiedDate) {
+    this.id = requireNonNull(id);
+    this.queueId = requireNonNull(queueId);
+    this.rebuild = rebuild;
+    this.status = requireNonNull(status);
+    this.total = total;
+    this.done = done;
+    this.createdDate = requireNonNull(createdDate);
+    this.lastModifiedDate = requireNonNull(lastModifiedDate);
+
+    long elapsedMillis = Duration.between(createdDate, lastModifiedDate).toMillis();
+    this.rate = elapsedMillis > 0 ? done * 1000.0 / elapsedMillis : 0;
+    this.estimatedEndDate = status == Status.RUNNING && rate > 0
+        ? lastModifiedDate.plusSeconds((long) ((total - done) / rate))
+        : null;
+  }
+
+  public static ReindexJob of(Long id, Long queueId, Status status, long total, long done,
+      LocalDateTime createdDate, LocalDateTime lastModifiedDate) {
+    return of(id, queueId, false, status, total, done, createdDate, lastModifiedDate);
+  }
+
+  public static ReindexJob of(Long id, Long queueId, boolean rebuild, Status status, long total,
+      long done, LocalDateTime createdDate, LocalDateTime lastModifiedDate) {
+    return new ReindexJob(id, queueId, rebuild, status, total, done, createdDate,
+        lastModifiedDate);
+  }
+
+  public ReindexJob withStatus(Status status, LocalDateTime date) {
+    return new ReindexJob(id, queueId, rebuild, status, total, done, createdDate, date);
+  }
+
+  public ReindexJob withDone(long done, LocalDateTime date) {
+    return new ReindexJob(id, queueId, rebuild, status, total, done, createdDate, date);
+  }
+
+  @Override
+  public Long identifier() {
+    return id;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public Long getQueueId() {
+    return queueId;
+  }
+
+  public boolean isRebuild() {
+    return rebuild;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  public long getTotal() {
+    return total;
+  }
+
+  public long getDone() {
+    return done;
+  }
+
+  public LocalDateTime getCreatedDate() {
+    return createdDate;
+  }
+
+  public LocalDateTime getLastModifiedDate() {
+    return lastModifiedDate;
+  }
+
+  public double getRate() {
+    return rate;
+  }
+
+  public LocalDateTime getEstimatedEndDate() {
+    return estimatedEndDate;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    ReindexJob that = (ReindexJob) o;
+    return rebuild == that.rebuild &&
+        total == that.total &&
+        done == that.done &&
+        Objects.equals(id, that.id) &&
+        Objects.equals(queueId, that.queueId) &&
+        status == that.status &&
+        Objects.equals(createdDate, that.createdDate) &&
+        Objects.equals(lastModifiedDate, that.lastModifiedDate);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(id, queueId, rebuild, status, total, done, createdDate,
+        lastModifiedDate);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("id", id)
+        .add("queueId", queueId)
+        .add("rebuild", rebuild)
+        .add("status", status)
+        .add("total", total)
+        .add("done", done)
+        .add("createdDate", createdDate)
+        .add("lastModifiedDate", lastModifiedDate)
+        .toString();
+  }
+
+}
@@ -1,17 +1,32 @@
 package fi.thl.termed.domain.event;
 
 import java.io.Serializable;
+import java.util.Optional;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
+/**
+ * Requests reindexing of given keys. If event has a job id, keys are reindexed in the background
+ * as a reindex job with given id, otherwise before the event post returns.
+ */
 public class ReindexEvent<K extends Serializable> {
 
+  private final Long jobId;
   private final Supplier<Stream<K>> keyStreamSupplier;
 
   public ReindexEvent(Supplier<Stream<K>> keyStreamSupplier) {
+    this(null, keyStreamSupplier);
+  }
+
+  public ReindexEvent(Long jobId, Supplier<Stream<K>> keyStreamSupplier) {
+    this.jobId = jobId;
     this.keyStreamSupplier = keyStreamSupplier;
   }
 
+  public Optional<Long> getJobId() {
+    return Optional.ofNullable(jobId);
+  }
+
   public Supplier<Stream<K>> getKeyStreamSupplier() {
     return keyStreamSupplier;
   }
@@ -0,0 +1,28 @@
+package fi.thl.termed.domain.event;
+
+/**
+ * Requests pausing, resuming or cancelling a reindex job.
+ */
+public class ReindexJobEvent {
+
+  public enum Operation {
+    PAUSE, RESUME, CANCEL
+  }
+
+  private final Long jobId;
+  private final Operation operation;
+
+  public ReindexJobEvent(Long jobId, Operation operation) {
+    this.jobId = jobId;
+    this.operation = operation;
+  }
+
+  public Long getJobId() {
+    return jobId;
+  }
+
+  public Operation getOperation() {
+    return operation;
+  }
+
+}
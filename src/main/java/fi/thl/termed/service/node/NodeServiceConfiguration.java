@@ -5,6 +5,7 @@ import static fi.thl.termed.domain.Permission.READ;
 import static fi.thl.termed.util.Converter.newConverter;
 import static fi.thl.termed.util.spring.jdbc.SpringJdbcUtils.getDatabaseProductName;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import fi.thl.termed.domain.AppRole;
@@ -16,6 +17,7 @@ import fi.thl.termed.domain.Node;
 import fi.thl.termed.domain.NodeAttributeValueId;
 import fi.thl.termed.domain.NodeId;
 import fi.thl.termed.domain.ReferenceAttributeId;
+import fi.thl.termed.domain.ReindexJob;
 import fi.thl.termed.domain.Revision;
 import fi.thl.termed.domain.RevisionId;
 import fi.thl.termed.domain.RevisionType;
@@ -34,36 +36,49 @@ import fi.thl.termed.service.node.internal.JdbcNodeIndexingQueueItemDao;
 import fi.thl.termed.service.node.internal.JdbcNodeNamespaceSequenceDao;
 import fi.thl.termed.service.node.internal.JdbcNodeReferenceAttributeValueDao;
 import fi.thl.termed.service.node.internal.JdbcNodeReferenceAttributeValueRevisionDao;
+import fi.thl.termed.service.node.internal.JdbcNodeReindexJobDao;
 import fi.thl.termed.service.node.internal.JdbcNodeRevisionDao;
 import fi.thl.termed.service.node.internal.JdbcNodeSequenceDao;
 import fi.thl.termed.service.node.internal.JdbcNodeTextAttributeValueDao;
 import fi.thl.termed.service.node.internal.JdbcNodeTextAttributeValueRevisionDao;
 import fi.thl.termed.service.node.internal.JdbcPostgresNodeDao;
+import fi.thl.termed.service.node.internal.JdbcPostgresNodeIndexingQueueItemDao;
 import fi.thl.termed.service.node.internal.JdbcPostgresNodeReferenceAttributeValueDao;
 import fi.thl.termed.service.node.internal.JdbcPostgresNodeReferenceAttributeValueRevisionDao;
 import fi.thl.termed.service.node.internal.JdbcPostgresNodeRevisionDao;
 import fi.thl.termed.service.node.internal.JdbcPostgresNodeTextAttributeValueDao;
 import fi.thl.termed.service.node.internal.JdbcPostgresNodeTextAttributeValueRevisionDao;
+import fi.thl.termed.service.node.internal.NodeFacetService;
 import fi.thl.termed.service.node.internal.NodeMetadataInitializingService;
+import fi.thl.termed.service.node.internal.NodePageService;
+import fi.thl.termed.service.node.internal.NodeReferrerChanges;
 import fi.thl.termed.service.node.internal.NodeRepository;
 import fi.thl.termed.service.node.internal.NodeRevisionRepository;
 import fi.thl.termed.service.node.internal.NodeToDocument;
 import fi.thl.termed.service.node.internal.NodeWriteEventPostingService;
 import fi.thl.termed.service.node.internal.ReadAuthorizedNodeService;
 import fi.thl.termed.service.node.internal.RevisionInitializingNodeService;
+import fi.thl.termed.util.UUIDs;
 import fi.thl.termed.util.collect.Tuple2;
 import fi.thl.termed.util.dao.AuthorizedDao;
 import fi.thl.termed.util.dao.JdbcSystemSequenceDao;
 import fi.thl.termed.util.dao.SystemDao;
 import fi.thl.termed.util.dao.SystemSequenceDao;
 import fi.thl.termed.util.dao.TransactionalSystemDao;
-import fi.thl.termed.util.index.Index;
+import fi.thl.termed.util.index.lucene.FilterTermCachingPolicy;
+import fi.thl.termed.util.index.ParallelIndexer;
 import fi.thl.termed.util.index.lucene.LuceneIndex;
+import fi.thl.termed.util.index.lucene.ParallelSearcherFactory;
+import fi.thl.termed.util.index.lucene.SearchResultCache;
+import fi.thl.termed.util.index.lucene.TermQuerySharding;
 import fi.thl.termed.util.permission.DisjunctionPermissionEvaluator;
 import fi.thl.termed.util.permission.PermissionEvaluator;
+import fi.thl.termed.util.postgresql.CopyFormat;
 import fi.thl.termed.util.service.CachedNamedSequenceService;
+import fi.thl.termed.util.service.DaoForwardingRepository;
 import fi.thl.termed.util.service.DaoNamedSequenceService;
 import fi.thl.termed.util.service.ForwardingNamedSequenceService;
+import fi.thl.termed.util.service.JdbcSequenceService;
 import fi.thl.termed.util.service.NamedSequenceService;
 import fi.thl.termed.util.service.ProfilingService;
 import fi.thl.termed.util.service.SequenceService;
@@ -72,11 +87,21 @@ import fi.thl.termed.util.service.SynchronizedNamedSequenceService;
 import fi.thl.termed.util.service.TransactionalNamedSequenceService;
 import fi.thl.termed.util.service.TransactionalService;
 import fi.thl.termed.util.service.WriteLoggingService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import javax.sql.DataSource;
+import org.apache.lucene.search.LRUQueryCache;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.transaction.PlatformTransactionManager;
 
 @Configuration
@@ -109,23 +134,58 @@ public class NodeServiceConfiguration {
 
   @Value("${fi.thl.termed.index:}")
   private String indexPath;
+  @Value("${fi.thl.termed.indexMaxStaleSec:1.0}")
+  private double indexMaxStaleSec;
+  @Value("${fi.thl.termed.indexMinStaleSec:0.1}")
+  private double indexMinStaleSec;
+  @Value("${fi.thl.termed.indexWaitForAllWrites:false}")
+  private boolean indexWaitForAllWrites;
+  @Value("${fi.thl.termed.indexAsync:false}")
+  private boolean indexAsync;
+  @Value("${fi.thl.termed.indexMaxBacklog:100000}")
+  private long indexMaxBacklog;
+  @Value("${fi.thl.termed.reindexMaxNodesPerSec:0}")
+  private double reindexMaxNodesPerSec;
+  @Value("${fi.thl.termed.indexThreads:4}")
+  private int indexThreads;
+  @Value("${fi.thl.termed.indexBatchSize:200}")
+  private int indexBatchSize;
+  @Value("${fi.thl.termed.indexShardByGraph:false}")
+  private boolean indexShardByGraph;
+  @Value("${fi.thl.termed.indexSortByNumber:false}")
+  private boolean indexSortByNumber;
+  @Value("${fi.thl.termed.indexSearchThreads:0}")
+  private int indexSearchThreads;
+  @Value("${fi.thl.termed.indexSearchMaxDocsPerSlice:250000}")
+  private int indexSearchMaxDocsPerSlice;
+  @Value("${fi.thl.termed.indexSearchMaxSegmentsPerSlice:5}")
+  private int indexSearchMaxSegmentsPerSlice;
+  @Value("${fi.thl.termed.indexResultCacheMaxDocs:1000000}")
+  private long indexResultCacheMaxDocs;
+  @Value("${fi.thl.termed.indexQueryCacheSize:1000}")
+  private int indexQueryCacheSize;
+  @Value("${fi.thl.termed.indexQueryCacheMaxRamMb:64}")
+  private long indexQueryCacheMaxRamMb;
+  @Value("${fi.thl.termed.jdbcBatchSize:1000}")
+  private int jdbcBatchSize;
+  @Value("${fi.thl.termed.copyFormat:BINARY}")
+  private CopyFormat copyFormat;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
 
   @Autowired
   private EventBus eventBus;
 
   private String packageName = getClass().getPackage().getName();
 
+  // shared by node repository and indexed service to reindex nodes whose referrers change
+  private NodeReferrerChanges nodeReferrerChanges = new NodeReferrerChanges();
+
   @Bean
+  @Primary
   public Service<NodeId, Node> nodeService() {
-    Service<NodeId, Node> service = nodeRepository();
-    service = new TransactionalService<>(service, transactionManager);
-
-    service = new IndexedNodeService(service,
-        nodeIndex(),
-        nodeIndexingQueueSequenceDao(),
-        nodeIndexingQueueDao(),
-        nodeIndexingQueueItemDao());
-    eventBus.register(service);
+    Service<NodeId, Node> service = indexedNodeService();
 
     service = new ReadAuthorizedNodeService(service,
         typeEvaluator, textAttributeEvaluator, referenceAttributeEvaluator);
@@ -151,11 +211,103 @@ public class NodeServiceConfiguration {
     return service;
   }
 
-  private Index<NodeId, Node> nodeIndex() {
+  @Bean
+  public IndexedNodeService indexedNodeService() {
+    IndexedNodeService service = new IndexedNodeService(
+        new TransactionalService<>(nodeRepository(), transactionManager),
+        nodeIndex(),
+        nodeIndexingQueueSequenceDao(),
+        nodeIndexingQueueDao(),
+        nodeIndexingQueueItemDao(),
+        nodeRevSysDao(),
+        nodeReindexJobDao(),
+        new ParallelIndexer<>(IndexedNodeService.class.getSimpleName(), indexThreads,
+            indexBatchSize),
+        nodeReferrerChanges,
+        indexWaitForAllWrites,
+        indexAsync,
+        indexMaxBacklog,
+        reindexMaxNodesPerSec);
+    eventBus.register(service);
+    return service;
+  }
+
+  @Bean
+  public NodePageService nodePageService() {
+    return new NodePageService(indexedNodeService(),
+        typeEvaluator, textAttributeEvaluator, referenceAttributeEvaluator);
+  }
+
+  @Bean
+  public NodeFacetService nodeFacetService() {
+    return new NodeFacetService(nodeIndex(), typeService,
+        typeEvaluator, textAttributeEvaluator, referenceAttributeEvaluator);
+  }
+
+  // index is closed by IndexedNodeService on application shutdown
+  @Bean(destroyMethod = "")
+  public LuceneIndex<NodeId, Node> nodeIndex() {
     return new LuceneIndex<>(
         indexPath,
         newConverter(NodeId::toString, NodeId::fromString),
-        newConverter(new NodeToDocument(), new DocumentToNode()));
+        newConverter(new NodeToDocument(), new DocumentToNode()),
+        indexMaxStaleSec,
+        indexMinStaleSec,
+        nodeIndexSearcherFactory(),
+        indexShardByGraph
+            ? new TermQuerySharding<>("type.graph.id", id -> UUIDs.toString(id.getTypeGraphId()))
+            : null,
+        indexResultCacheMaxDocs > 0 ? nodeIndexResultCache() : null,
+        indexSortByNumber ? nodeIndexSort() : null);
+  }
+
+  // nodes of a type in number order, e.g. listing nodes of a type by number can stop early
+  private Sort nodeIndexSort() {
+    return new Sort(
+        new SortField("type.graph.id.sortable", SortField.Type.STRING),
+        new SortField("type.id.sortable", SortField.Type.STRING),
+        new SortField("number.long", SortField.Type.LONG));
+  }
+
+  @Bean
+  public ParallelSearcherFactory nodeIndexSearcherFactory() {
+    return new ParallelSearcherFactory(
+        indexSearchThreads,
+        indexSearchMaxDocsPerSlice,
+        indexSearchMaxSegmentsPerSlice,
+        Timer.builder("termed.index.search.slice")
+            .description("Time spent searching one slice of the node index")
+            .tag("index", "node")
+            .register(meterRegistry),
+        nodeIndexQueryCache(),
+        new FilterTermCachingPolicy(ImmutableSet.of("type.graph.id", "type.id")));
+  }
+
+  // caches matching docs of query clauses per segment, e.g. graph and type id filters
+  @Bean
+  public LRUQueryCache nodeIndexQueryCache() {
+    LRUQueryCache queryCache =
+        new LRUQueryCache(indexQueryCacheSize, indexQueryCacheMaxRamMb * 1024 * 1024);
+
+    Tags tags = Tags.of("cache", "nodeIndexQueries");
+    FunctionCounter.builder("cache.gets", queryCache, LRUQueryCache::getHitCount)
+        .tags(tags).tag("result", "hit").register(meterRegistry);
+    FunctionCounter.builder("cache.gets", queryCache, LRUQueryCache::getMissCount)
+        .tags(tags).tag("result", "miss").register(meterRegistry);
+    FunctionCounter.builder("cache.evictions", queryCache, LRUQueryCache::getEvictionCount)
+        .tags(tags).register(meterRegistry);
+    Gauge.builder("cache.size", queryCache, LRUQueryCache::getCacheSize)
+        .tags(tags).register(meterRegistry);
+
+    return queryCache;
+  }
+
+  // caches matching doc ids of whole searches until searcher is refreshed
+  @Bean
+  public SearchResultCache nodeIndexResultCache() {
+    SearchResultCache resultCache = new SearchResultCache(indexResultCacheMaxDocs);
+    GuavaCacheMetrics.monitor(meterRegistry, resultCache.getCache(), "nodeIndexResults");
+    return resultCache;
   }
 
   private Service<NodeId, Node> nodeRepository() {
@@ -167,6 +319,7 @@ public class NodeServiceConfiguration {
         new AuthorizedDao<>(nodeRevSysDao(), nodeRevEvaluator()),
         new AuthorizedDao<>(textAttributeValueRevSysDao(), textAttributeValueRevEvaluator()),
         new AuthorizedDao<>(referenceAttributeValueRevSysDao(), refAttributeValueRevEvaluator()),
+        nodeReferrerChanges,
         getDatabaseProductName(dataSource).equalsIgnoreCase("postgresql") ? 5000 : -1);
   }
 
@@ -275,38 +428,54 @@ public class NodeServiceConfiguration {
   }
 
   private SystemDao<NodeId, Node> nodeSystemDao() {
-    SystemDao<NodeId, Node> nodeDao = new JdbcNodeDao(dataSource);
-    return new JdbcPostgresNodeDao(nodeDao, dataSource);
+    SystemDao<NodeId, Node> nodeDao = new JdbcNodeDao(dataSource, jdbcBatchSize);
+    return new JdbcPostgresNodeDao(nodeDao, dataSource, copyFormat);
   }
 
   private SystemDao<NodeAttributeValueId, StrictLangValue> textAttributeValueSystemDao() {
     SystemDao<NodeAttributeValueId, StrictLangValue> textAttrValueDao =
-        new JdbcNodeTextAttributeValueDao(dataSource);
-    return new JdbcPostgresNodeTextAttributeValueDao(textAttrValueDao, dataSource);
+        new JdbcNodeTextAttributeValueDao(dataSource, jdbcBatchSize);
+    return new JdbcPostgresNodeTextAttributeValueDao(textAttrValueDao, dataSource, copyFormat);
   }
 
   private SystemDao<NodeAttributeValueId, NodeId> referenceAttributeValueSystemDao() {
     SystemDao<NodeAttributeValueId, NodeId> refAttrValueDao =
-        new JdbcNodeReferenceAttributeValueDao(dataSource);
-    return new JdbcPostgresNodeReferenceAttributeValueDao(refAttrValueDao, dataSource);
+        new JdbcNodeReferenceAttributeValueDao(dataSource, jdbcBatchSize);
+    return new JdbcPostgresNodeReferenceAttributeValueDao(refAttrValueDao, dataSource, copyFormat);
   }
 
   private SystemDao<RevisionId<NodeId>, Tuple2<RevisionType, Node>> nodeRevSysDao() {
     SystemDao<RevisionId<NodeId>, Tuple2<RevisionType, Node>> nodeRevDao =
-        new JdbcNodeRevisionDao(dataSource);
-    return new JdbcPostgresNodeRevisionDao(nodeRevDao, dataSource);
+        new JdbcNodeRevisionDao(dataSource, jdbcBatchSize);
+    return new JdbcPostgresNodeRevisionDao(nodeRevDao, dataSource, copyFormat);
   }
 
   private SystemDao<RevisionId<NodeAttributeValueId>, Tuple2<RevisionType, StrictLangValue>> textAttributeValueRevSysDao() {
     SystemDao<RevisionId<NodeAttributeValueId>, Tuple2<RevisionType, StrictLangValue>> dao =
-        new JdbcNodeTextAttributeValueRevisionDao(dataSource);
-    return new JdbcPostgresNodeTextAttributeValueRevisionDao(dao, dataSource);
+        new JdbcNodeTextAttributeValueRevisionDao(dataSource, jdbcBatchSize);
+    return new JdbcPostgresNodeTextAttributeValueRevisionDao(dao, dataSource, copyFormat);
   }
 
   private SystemDao<RevisionId<NodeAttributeValueId>, Tuple2<RevisionType, NodeId>> referenceAttributeValueRevSysDao() {
     SystemDao<RevisionId<NodeAttributeValueId>, Tuple2<RevisionType, NodeId>> dao =
-        new JdbcNodeReferenceAttributeValueRevisionDao(dataSource);
-    return new JdbcPostgresNodeReferenceAttributeValueRevisionDao(dao, dataSource);
+        new JdbcNodeReferenceAttributeValueRevisionDao(dataSource, jdbcBatchSize);
+    return new JdbcPostgresNodeReferenceAttributeValueRevisionDao(dao, dataSource, copyFormat);
+  }
+
+  @Bean
+  public Service<Long, ReindexJob> nodeReindexJobService() {
+    Service<Long, ReindexJob> service = new DaoForwardingRepository<>(
+        new AuthorizedDao<>(nodeReindexJobDao(), appAdminEvaluator()));
+    return new TransactionalService<>(service, transactionManager);
+  }
+
+  @Bean
+  public SequenceService nodeReindexJobSeqService() {
+    return new JdbcSequenceService(dataSource, "node_reindex_job_seq", appAdminEvaluator());
+  }
+
+  private SystemDao<Long, ReindexJob> nodeReindexJobDao() {
+    return new TransactionalSystemDao<>(new JdbcNodeReindexJobDao(dataSource), transactionManager);
   }
 
   private SystemSequenceDao nodeIndexingQueueSequenceDao() {
@@ -319,8 +488,11 @@ public class NodeServiceConfiguration {
   }
 
   private SystemDao<IndexingQueueItemId<NodeId>, Empty> nodeIndexingQueueItemDao() {
+    SystemDao<IndexingQueueItemId<NodeId>, Empty> queueItemDao =
+        new JdbcNodeIndexingQueueItemDao(dataSource);
     return new TransactionalSystemDao<>(
-        new JdbcNodeIndexingQueueItemDao(dataSource), transactionManager);
+        new JdbcPostgresNodeIndexingQueueItemDao(queueItemDao, dataSource, copyFormat),
+        transactionManager);
   }
 
   /**
@@ -3,23 +3,19 @@ package fi.thl.termed.service.node.internal;
 import static com.google.common.base.Strings.emptyToNull;
 
 import com.google.common.collect.ImmutableMultimap;
-import com.google.gson.Gson;
-import com.google.gson.TypeAdapter;
-import com.google.gson.reflect.TypeToken;
 import fi.thl.termed.domain.Node;
 import fi.thl.termed.domain.NodeId;
 import fi.thl.termed.domain.StrictLangValue;
 import fi.thl.termed.domain.TypeId;
 import fi.thl.termed.util.DateUtils;
 import fi.thl.termed.util.UUIDs;
-import java.io.IOException;
 import java.time.LocalDateTime;
-import java.util.List;
+import java.util.Arrays;
 import java.util.UUID;
 import java.util.function.Function;
-import java.util.regex.Pattern;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,11 +23,6 @@ public class DocumentToNode implements Function<Document, Node> {
 
   private static final Logger log = LoggerFactory.getLogger(DocumentToNode.class);
 
-  private static final TypeAdapter<List<StrictLangValue>> propertyValuesListParser = new Gson()
-      .getAdapter(new TypeToken<List<StrictLangValue>>() {
-      });
-  private static final Pattern commaPattern = Pattern.compile(",");
-
   @Override
   public Node apply(Document doc) {
     UUID id = null;
@@ -97,19 +88,13 @@ public class DocumentToNode implements Function<Document, Node> {
 
         switch (attrType) {
           case "properties":
-            try {
-              properties.putAll(attrName, propertyValuesListParser.fromJson(fieldValue));
-            } catch (IOException e) {
-              throw new RuntimeException(e);
-            }
+            NodeStoredFields.decodeProperties(attrName, bytes(field), properties);
             continue;
           case "references":
-            commaPattern.splitAsStream(fieldValue)
-                .forEach(s -> references.put(attrName, NodeId.fromString(s)));
+            NodeStoredFields.decodeNodeIds(attrName, bytes(field), references);
             continue;
           case "referrers":
-            commaPattern.splitAsStream(fieldValue)
-                .forEach(s -> referrers.put(attrName, NodeId.fromString(s)));
+            NodeStoredFields.decodeNodeIds(attrName, bytes(field), referrers);
             continue;
           default:
             log.warn("Unexpected attrType: {}", attrType);
@@ -131,6 +116,11 @@ public class DocumentToNode implements Function<Document, Node> {
         referrers.build());
   }
 
+  private byte[] bytes(IndexableField field) {
+    BytesRef bytesRef = field.binaryValue();
+    return Arrays.copyOfRange(bytesRef.bytes, bytesRef.offset, bytesRef.offset + bytesRef.length);
+  }
+
   private LocalDateTime stringToDate(String str) {
     return str != null ? DateUtils.parseLuceneDateString(str) : null;
   }
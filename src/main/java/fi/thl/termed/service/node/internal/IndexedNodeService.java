@@ -1,38 +1,58 @@
 package fi.thl.termed.service.node.internal;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static fi.thl.termed.domain.ReindexJob.Status.CANCELLED;
+import static fi.thl.termed.domain.ReindexJob.Status.DONE;
+import static fi.thl.termed.domain.ReindexJob.Status.FAILED;
+import static fi.thl.termed.domain.ReindexJob.Status.PAUSED;
+import static fi.thl.termed.domain.ReindexJob.Status.RUNNING;
+import static fi.thl.termed.service.node.internal.NodeStoredFields.DOCUMENT_FORMAT_VERSION;
+import static fi.thl.termed.service.node.internal.NodeStoredFields.DOCUMENT_FORMAT_VERSION_KEY;
+import static fi.thl.termed.service.node.internal.NodeStoredFields.INDEXED_REVISION_KEY;
+import static fi.thl.termed.service.node.internal.NodeStoredFields.isReadableDocumentFormat;
 
 import com.google.common.cache.Cache;
+import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Streams;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import fi.thl.termed.domain.AppRole;
 import fi.thl.termed.domain.Empty;
 import fi.thl.termed.domain.IndexingQueueItemId;
 import fi.thl.termed.domain.Node;
 import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.ReindexJob;
+import fi.thl.termed.domain.RevisionId;
+import fi.thl.termed.domain.RevisionType;
 import fi.thl.termed.domain.User;
 import fi.thl.termed.domain.event.ApplicationReadyEvent;
 import fi.thl.termed.domain.event.ApplicationShutdownEvent;
 import fi.thl.termed.domain.event.ReindexEvent;
+import fi.thl.termed.domain.event.ReindexJobEvent;
 import fi.thl.termed.service.node.specification.NodeIndexingQueueItemsByQueueId;
+import fi.thl.termed.service.node.specification.NodeRevisionsGreaterThanRevisionNumber;
+import fi.thl.termed.service.node.specification.NodeRevisionsOfLatestRevision;
 import fi.thl.termed.service.node.specification.NodesByGraphId;
 import fi.thl.termed.service.node.specification.NodesById;
 import fi.thl.termed.service.node.specification.NodesByTypeId;
 import fi.thl.termed.util.collect.StreamUtils;
 import fi.thl.termed.util.collect.Tuple;
+import fi.thl.termed.util.collect.Tuple2;
 import fi.thl.termed.util.dao.SystemDao;
 import fi.thl.termed.util.dao.SystemSequenceDao;
-import fi.thl.termed.util.index.Index;
+import fi.thl.termed.util.index.ParallelIndexer;
 import fi.thl.termed.util.index.lucene.LuceneIndex;
+import fi.thl.termed.util.index.lucene.LuceneIndex.Generation;
 import fi.thl.termed.util.query.AndSpecification;
-import fi.thl.termed.util.query.CompositeSpecification;
-import fi.thl.termed.util.query.DependentSpecification;
 import fi.thl.termed.util.query.LuceneSelectField;
 import fi.thl.termed.util.query.LuceneSpecification;
-import fi.thl.termed.util.query.NotSpecification;
 import fi.thl.termed.util.query.OrSpecification;
+import fi.thl.termed.util.query.Page;
 import fi.thl.termed.util.query.Queries;
 import fi.thl.termed.util.query.Query;
 import fi.thl.termed.util.query.Select;
@@ -43,50 +63,238 @@ import fi.thl.termed.util.service.ForwardingService;
 import fi.thl.termed.util.service.SaveMode;
 import fi.thl.termed.util.service.Service;
 import fi.thl.termed.util.service.WriteOptions;
+import fi.thl.termed.util.spring.exception.ServiceUnavailableException;
+import java.time.LocalDateTime;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 public class IndexedNodeService extends ForwardingService<NodeId, Node> {
 
+  private static final long NO_REVISION = -1;
+
+  // nodes loaded at once by id
+  private static final int LOAD_BATCH_SIZE = 200;
+
+  // queued node ids buffered by a write before inserting them at once
+  private static final int QUEUE_FLUSH_SIZE = 1000;
+
+  // nodes indexed by a reindex job between progress updates
+  private static final int REINDEX_JOB_BATCH_SIZE = 1000;
+
   private Logger log = LoggerFactory.getLogger(getClass());
 
-  private Index<NodeId, Node> index;
+  private LuceneIndex<NodeId, Node> index;
 
   private SystemSequenceDao nodeIndexingQueueSequenceDao;
   private SystemDao<Long, Empty> nodeIndexingQueueDao;
   private SystemDao<IndexingQueueItemId<NodeId>, Empty> nodeIndexingQueueItemDao;
+  private SystemDao<RevisionId<NodeId>, Tuple2<RevisionType, Node>> nodeRevisionDao;
+  private SystemDao<Long, ReindexJob> reindexJobDao;
+
+  private ParallelIndexer<NodeId, Node> parallelIndexer;
+
+  private NodeReferrerChanges referrerChanges;
+
+  // queues of writes waiting to be indexed by the drainer, backlog is their total node count
+  private Map<Long, QueueWriter> pendingQueues = new ConcurrentHashMap<>();
+  private AtomicLong backlog = new AtomicLong();
+  private ExecutorService queueDrainer = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setNameFormat("IndexedNodeService-queue-drainer")
+          .setDaemon(true).build());
+
+  // reindex jobs are run one at a time, job rows are updated holding the lock
+  private ExecutorService reindexJobRunner = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setNameFormat("IndexedNodeService-reindex-job")
+          .setDaemon(true).build());
+  private final Object reindexJobLock = new Object();
+  private RateLimiter reindexRateLimiter;
+  private volatile boolean closing;
+
+  // false while an index of a document format that can't be decoded is rebuilt, index queries
+  // then fail until the rebuilt index is swapped in
+  private volatile boolean indexReadable = true;
+
+  private boolean waitForAllWrites;
+  private boolean async;
+  private long maxBacklog;
+
+  // revisions of writes not yet indexed, these hold back the indexed revision mark
+  private NavigableSet<Long> unindexedRevisions = new ConcurrentSkipListSet<>();
+  private long maxIndexedRevision = NO_REVISION;
+  private long indexedRevision = NO_REVISION;
 
   private User indexer = new User("indexer", "", AppRole.ADMIN);
 
+  /**
+   * @param waitForAllWrites if true, all writes wait until changes are searchable, otherwise
+   * only writes with sync option wait
+   * @param async if true, writes without sync option return without waiting to be indexed
+   * @param maxBacklog max number of queued nodes waiting to be indexed, async writes wait to be
+   * indexed while there are more
+   * @param reindexMaxNodesPerSec max number of nodes indexed per second by reindex jobs, zero or
+   * negative value is unlimited
+   */
   public IndexedNodeService(
       Service<NodeId, Node> delegate,
-      Index<NodeId, Node> index,
+      LuceneIndex<NodeId, Node> index,
       SystemSequenceDao nodeIndexingQueueSequenceDao,
       SystemDao<Long, Empty> nodeIndexingQueueDao,
-      SystemDao<IndexingQueueItemId<NodeId>, Empty> nodeIndexingQueueItemDao) {
+      SystemDao<IndexingQueueItemId<NodeId>, Empty> nodeIndexingQueueItemDao,
+      SystemDao<RevisionId<NodeId>, Tuple2<RevisionType, Node>> nodeRevisionDao,
+      SystemDao<Long, ReindexJob> reindexJobDao,
+      ParallelIndexer<NodeId, Node> parallelIndexer,
+      NodeReferrerChanges referrerChanges,
+      boolean waitForAllWrites,
+      boolean async,
+      long maxBacklog,
+      double reindexMaxNodesPerSec) {
     super(delegate);
     this.index = index;
+    this.parallelIndexer = parallelIndexer;
+    this.referrerChanges = referrerChanges;
+    this.waitForAllWrites = waitForAllWrites;
+    this.async = async;
+    this.maxBacklog = maxBacklog;
+    this.reindexRateLimiter = reindexMaxNodesPerSec > 0
+        ? RateLimiter.create(reindexMaxNodesPerSec)
+        : null;
     this.nodeIndexingQueueSequenceDao = nodeIndexingQueueSequenceDao;
     this.nodeIndexingQueueDao = nodeIndexingQueueDao;
     this.nodeIndexingQueueItemDao = nodeIndexingQueueItemDao;
+    this.nodeRevisionDao = nodeRevisionDao;
+    this.reindexJobDao = reindexJobDao;
   }
 
   @Subscribe
   public void initIndexOn(ApplicationReadyEvent e) {
+    Optional<String> formatVersion = index.getCommitData(DOCUMENT_FORMAT_VERSION_KEY);
+    Optional<Long> revision = index.getCommitData(INDEXED_REVISION_KEY).map(Long::valueOf);
+
     if (index.isEmpty()) {
       log.info("No index found, adding all keys to indexing queue");
+      index.setCommitData(DOCUMENT_FORMAT_VERSION_KEY, DOCUMENT_FORMAT_VERSION);
+      revisionIndexed(latestRevision());
       enqueueAll();
+    } else if (!formatVersion.filter(DOCUMENT_FORMAT_VERSION::equals).isPresent()) {
+      // index of a readable format keeps serving searches until the rebuilt one is swapped in
+      indexReadable = isReadableDocumentFormat(formatVersion);
+      log.info("Index document format changed from {} to {}, rebuilding index{}",
+          formatVersion.orElse("1"), DOCUMENT_FORMAT_VERSION,
+          indexReadable ? "" : ", index queries are unavailable until done");
+      reindexJobRunner.execute(this::rebuildOutdatedIndex);
+    } else if (revision.isPresent()) {
+      catchUp(revision.get());
+    } else {
+      // index written before revisions were recorded, assume it is up to date
+      log.warn("No indexed revision found, assuming index is up to date");
+      revisionIndexed(latestRevision());
     }
 
     // there can be queues if index was empty or app was shut down mid indexing
     indexAllQueues();
+    resumeReindexJobs();
+  }
+
+  // index nodes changed after given revision, e.g. after restoring an index from a copy
+  private void catchUp(long revision) {
+    AtomicLong latestRevision = new AtomicLong(revision);
+    AtomicInteger nodeCount = new AtomicInteger();
+
+    Long queueId = initQueue();
+    try (Stream<RevisionId<NodeId>> revisions =
+        nodeRevisionDao.keys(NodeRevisionsGreaterThanRevisionNumber.of(revision))) {
+      enqueue(queueId, revisions
+          .peek(r -> latestRevision.accumulateAndGet(r.getRevision(), Math::max))
+          .map(RevisionId::getId)
+          .distinct()
+          .peek(id -> nodeCount.incrementAndGet()));
+    } finally {
+      // revisions don't tell whose referrers changed, index all neighbours too
+      indexWithNeighbours(queueId);
+    }
+
+    if (nodeCount.get() > 0) {
+      log.info("Indexed {} nodes changed after revision {}", nodeCount.get(), revision);
+    }
+
+    revisionIndexed(latestRevision.get());
+  }
+
+  // builds a new index beside the live one, live index serves searches and receives writes
+  // until the new one is swapped in its place
+  private void rebuild() {
+    index.startRebuild(
+        ImmutableMap.of(DOCUMENT_FORMAT_VERSION_KEY, DOCUMENT_FORMAT_VERSION));
+
+    try {
+      // writes after this are indexed to both indexes
+      revisionIndexed(latestRevision());
+
+      rebuild(super.keys(Queries.matchAll(), indexer),
+          super.count(Specifications.matchAll(), indexer));
+    } catch (RuntimeException e) {
+      cancelRebuild();
+      throw e;
+    }
+
+    finishRebuild();
+  }
+
+  // index nodes to the index being rebuilt, closes the stream
+  private void rebuild(Stream<NodeId> ids, long count) {
+    parallelIndexer.index(ids, count, this::load,
+        (id, node) -> node.ifPresent(n -> index.rebuild(id, n)), false);
+  }
+
+  private void finishRebuild() {
+    index.finishRebuild();
+    indexReadable = true;
+  }
+
+  private void cancelRebuild() {
+    index.cancelRebuild();
+  }
+
+  private void rebuildOutdatedIndex() {
+    try {
+      rebuild();
+      log.info("Rebuilt index");
+    } catch (RuntimeException | Error e) {
+      if (closing) {
+        log.info("Index rebuild interrupted by shutdown");
+        return;
+      }
+      log.error("Failed to rebuild index, index is rebuilt again on restart", e);
+    }
+  }
+
+  private long latestRevision() {
+    try (Stream<RevisionId<NodeId>> revisions =
+        nodeRevisionDao.keys(new NodeRevisionsOfLatestRevision())) {
+      return revisions.findFirst().map(RevisionId::getRevision).orElse(NO_REVISION);
+    }
   }
 
   private void enqueueAll() {
@@ -94,90 +302,365 @@ public class IndexedNodeService extends ForwardingService<NodeId, Node> {
     try (Stream<NodeId> ids = super.keys(Queries.matchAll(), indexer)) {
       enqueue(queueId, ids);
     } finally {
-      index(queueId);
+      index(queueId, true);
     }
   }
 
+  // queues of unfinished reindex jobs are left for the jobs
   private void indexAllQueues() {
+    Set<Long> jobQueues = unfinishedReindexJobs().stream()
+        .map(ReindexJob::getQueueId)
+        .collect(Collectors.toSet());
+
     List<Long> queues = StreamUtils.toImmutableListAndClose(
-        nodeIndexingQueueDao.keys(Specifications.matchAll()));
+        nodeIndexingQueueDao.keys(Specifications.matchAll()).filter(q -> !jobQueues.contains(q)));
 
     if (!queues.isEmpty()) {
       log.info("Found {} indexing queues, indexing", queues.size());
-      queues.forEach(this::index);
+      queues.forEach(this::indexWithNeighbours);
     }
   }
 
   @Subscribe
   public void closeIndexOn(ApplicationShutdownEvent e) {
+    // running reindex jobs are resumed on restart
+    closing = true;
+    reindexJobRunner.shutdownNow();
+
+    // let drainer finish with queued async writes, the rest are indexed on restart
+    queueDrainer.shutdown();
+    try {
+      if (!queueDrainer.awaitTermination(1, TimeUnit.MINUTES)) {
+        log.warn("Indexing queues not finished before shutdown");
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    parallelIndexer.close();
     index.close();
   }
 
+  /**
+   * Starts building a new index from all nodes beside the live index. New index is swapped in
+   * place of the live index when done. Rebuild is run in the background as a reindex job with
+   * given id.
+   *
+   * @return started job
+   * @throws IllegalStateException if index is already being rebuilt
+   */
+  public ReindexJob startRebuildJob(Long jobId) {
+    Long queueId = initQueue();
+    long total;
+
+    try {
+      total = startRebuild(queueId);
+    } catch (RuntimeException e) {
+      nodeIndexingQueueDao.delete(queueId);
+      throw e;
+    }
+
+    LocalDateTime now = LocalDateTime.now();
+    ReindexJob job = ReindexJob.of(jobId, queueId, true, RUNNING, total, 0, now, now);
+    reindexJobDao.insert(jobId, job);
+
+    log.info("Started index rebuild job {} of {} nodes", jobId, total);
+
+    reindexJobRunner.execute(() -> runReindexJob(jobId));
+
+    return job;
+  }
+
+  // Starts building a new index beside the live one and queues all nodes for the job to index
+  // there. Returns number of queued nodes. Job swaps the new index in place when queue is done.
+  private long startRebuild(Long queueId) {
+    index.startRebuild(
+        ImmutableMap.of(DOCUMENT_FORMAT_VERSION_KEY, DOCUMENT_FORMAT_VERSION));
+
+    try {
+      // writes after this are indexed to both indexes
+      revisionIndexed(latestRevision());
+
+      AtomicLong total = new AtomicLong();
+      try (Stream<NodeId> ids = super.keys(Queries.matchAll(), indexer)) {
+        enqueue(queueId, ids.peek(id -> total.incrementAndGet()));
+      }
+      return total.get();
+    } catch (RuntimeException e) {
+      cancelRebuild();
+      throw e;
+    }
+  }
+
+  // index being rebuilt is not kept over restarts, unfinished rebuild job starts over
+  private void restartRebuildJob(Long jobId) {
+    try {
+      ReindexJob job = reindexJobDao.get(jobId).orElseThrow(IllegalStateException::new);
+
+      nodeIndexingQueueDao.delete(job.getQueueId());
+      nodeIndexingQueueDao.insert(job.getQueueId(), Empty.INSTANCE);
+      long total = startRebuild(job.getQueueId());
+
+      updateReindexJob(jobId, j -> ReindexJob.of(j.getId(), j.getQueueId(), true,
+          j.getStatus(), total, 0, j.getCreatedDate(), LocalDateTime.now()));
+
+      log.info("Restarted index rebuild job {} of {} nodes", jobId, total);
+    } catch (RuntimeException | Error e) {
+      if (closing) {
+        log.info("Index rebuild job {} interrupted by shutdown", jobId);
+        return;
+      }
+      log.error("Index rebuild job {} failed", jobId, e);
+      updateReindexJob(jobId, j -> j.withStatus(FAILED, LocalDateTime.now()));
+      return;
+    }
+
+    runReindexJob(jobId);
+  }
+
   @Subscribe
   public void reindexOn(ReindexEvent<NodeId> e) {
+    if (e.getJobId().isPresent()) {
+      startReindexJob(e.getJobId().get(), e.getKeyStreamSupplier().get());
+      return;
+    }
+
     log.info("Indexing");
-    index(e.getKeyStreamSupplier().get());
+    index(e.getKeyStreamSupplier().get(),
+        StreamUtils.countAndClose(e.getKeyStreamSupplier().get()));
     log.info("Done");
   }
 
+  @Subscribe
+  public void controlReindexJobOn(ReindexJobEvent e) {
+    synchronized (reindexJobLock) {
+      Optional<ReindexJob> found = reindexJobDao.get(e.getJobId());
+      if (!found.isPresent()) {
+        log.warn("Reindex job {} not found", e.getJobId());
+        return;
+      }
+
+      ReindexJob job = found.get();
+      LocalDateTime now = LocalDateTime.now();
+
+      switch (e.getOperation()) {
+        case PAUSE:
+          if (job.getStatus() == RUNNING) {
+            reindexJobDao.update(job.getId(), job.withStatus(PAUSED, now));
+          }
+          break;
+        case RESUME:
+          if (job.getStatus() == PAUSED) {
+            reindexJobDao.update(job.getId(), job.withStatus(RUNNING, now));
+            reindexJobRunner.execute(() -> runReindexJob(job.getId()));
+          }
+          break;
+        case CANCEL:
+          if (job.getStatus() == RUNNING || job.getStatus() == PAUSED) {
+            // running job deletes its queue when it notices the cancellation
+            reindexJobDao.update(job.getId(), job.withStatus(CANCELLED, now));
+            if (job.getStatus() == PAUSED) {
+              nodeIndexingQueueDao.delete(job.getQueueId());
+              if (job.isRebuild()) {
+                cancelRebuild();
+              }
+            }
+          }
+          break;
+        default:
+          throw new IllegalStateException("Unknown operation: " + e.getOperation());
+      }
+    }
+  }
+
+  // persists nodes to index in a queue of the job, then indexes the queue in the background
+  private void startReindexJob(Long jobId, Stream<NodeId> ids) {
+    Long queueId = initQueue();
+    AtomicLong total = new AtomicLong();
+
+    enqueue(queueId, ids.distinct().peek(id -> total.incrementAndGet()));
+
+    LocalDateTime now = LocalDateTime.now();
+    reindexJobDao.insert(jobId,
+        ReindexJob.of(jobId, queueId, RUNNING, total.get(), 0, now, now));
+
+    log.info("Started reindex job {} of {} nodes", jobId, total.get());
+
+    reindexJobRunner.execute(() -> runReindexJob(jobId));
+  }
+
+  private void resumeReindexJobs() {
+    unfinishedReindexJobs().forEach(job -> {
+      if (job.isRebuild()) {
+        log.info("Restarting index rebuild job {}", job.getId());
+        reindexJobRunner.execute(() -> restartRebuildJob(job.getId()));
+      } else if (job.getStatus() == RUNNING) {
+        log.info("Resuming reindex job {} ({}/{} nodes indexed)",
+            job.getId(), job.getDone(), job.getTotal());
+        reindexJobRunner.execute(() -> runReindexJob(job.getId()));
+      }
+    });
+  }
+
+  private List<ReindexJob> unfinishedReindexJobs() {
+    try (Stream<ReindexJob> jobs = reindexJobDao.values(Specifications.matchAll())) {
+      return jobs
+          .filter(job -> job.getStatus() == RUNNING || job.getStatus() == PAUSED)
+          .collect(toImmutableList());
+    }
+  }
+
+  // Indexes queue of the job in batches until queue is empty or job is no longer running.
+  // Indexed nodes are removed from the queue so that an interrupted job continues where it was.
+  // Rebuild job indexes to the index being rebuilt and swaps it in place when queue is done.
+  private void runReindexJob(Long jobId) {
+    boolean rebuild = false;
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        ReindexJob job = reindexJobDao.get(jobId).orElseThrow(IllegalStateException::new);
+        rebuild = job.isRebuild();
+
+        if (job.getStatus() != RUNNING) {
+          if (job.getStatus() == CANCELLED) {
+            log.info("Cancelled reindex job {}", jobId);
+            nodeIndexingQueueDao.delete(job.getQueueId());
+            if (rebuild) {
+              cancelRebuild();
+            }
+          }
+          return;
+        }
+
+        List<IndexingQueueItemId<NodeId>> batch;
+        try (Stream<IndexingQueueItemId<NodeId>> items = nodeIndexingQueueItemDao.keys(
+            NodeIndexingQueueItemsByQueueId.of(job.getQueueId()))) {
+          batch = items.limit(REINDEX_JOB_BATCH_SIZE).collect(toImmutableList());
+        }
+
+        if (batch.isEmpty()) {
+          if (rebuild) {
+            finishRebuild();
+          }
+          updateReindexJob(jobId, j -> j.getStatus() == RUNNING
+              ? j.withStatus(DONE, LocalDateTime.now()) : j);
+          nodeIndexingQueueDao.delete(job.getQueueId());
+          log.info("Finished reindex job {}", jobId);
+          return;
+        }
+
+        if (reindexRateLimiter != null) {
+          reindexRateLimiter.acquire(batch.size());
+        }
+
+        if (rebuild) {
+          rebuild(batch.stream().map(IndexingQueueItemId::getId), batch.size());
+        } else {
+          index(batch.stream().map(IndexingQueueItemId::getId), batch.size());
+        }
+        nodeIndexingQueueItemDao.delete(batch.stream());
+
+        updateReindexJob(jobId, j -> j.withDone(j.getDone() + batch.size(), LocalDateTime.now()));
+      }
+    } catch (RuntimeException | Error e) {
+      if (closing) {
+        log.info("Reindex job {} interrupted by shutdown", jobId);
+        return;
+      }
+      log.error("Reindex job {} failed", jobId, e);
+      updateReindexJob(jobId, j -> j.withStatus(FAILED, LocalDateTime.now()));
+      if (rebuild) {
+        cancelRebuild();
+      }
+    }
+  }
+
+  private void updateReindexJob(Long jobId, UnaryOperator<ReindexJob> update) {
+    synchronized (reindexJobLock) {
+      reindexJobDao.get(jobId).ifPresent(job -> reindexJobDao.update(jobId, update.apply(job)));
+    }
+  }
+
   @Override
   public void save(Stream<Node> nodes, SaveMode mode, WriteOptions opts, User user) {
-    Long queueId = initQueue();
+    QueueWriter queue = new QueueWriter(initQueue());
+    opts.getRevision().ifPresent(unindexedRevisions::add);
 
     try {
-      super.save(nodes.peek(node -> enqueue(queueId, node.identifier())), mode, opts, user);
+      trackingReferrerChanges(queue, () -> super.save(
+          nodes.peek(node -> queue.add(node.identifier())), mode, opts, user));
     } finally {
-      index(queueId);
+      index(queue, opts);
     }
   }
 
   @Override
   public NodeId save(Node node, SaveMode mode, WriteOptions opts, User user) {
-    Long queueId = initQueue();
-    enqueue(queueId, node.identifier());
+    QueueWriter queue = new QueueWriter(initQueue());
+    queue.add(node.identifier());
+    opts.getRevision().ifPresent(unindexedRevisions::add);
 
     try {
-      return super.save(node, mode, opts, user);
+      return trackingReferrerChanges(queue, () -> super.save(node, mode, opts, user));
     } finally {
-      index(queueId);
+      index(queue, opts);
     }
   }
 
   @Override
   public void delete(Stream<NodeId> idStream, WriteOptions opts, User user) {
-    Long queueId = initQueue();
+    QueueWriter queue = new QueueWriter(initQueue());
+    opts.getRevision().ifPresent(unindexedRevisions::add);
 
     try {
-      super.delete(idStream.peek(id -> enqueue(queueId, id)), opts, user);
+      trackingReferrerChanges(queue, () -> super.delete(idStream.peek(queue::add), opts, user));
     } finally {
-      index(queueId);
+      index(queue, opts);
     }
   }
 
   @Override
   public void delete(NodeId id, WriteOptions opts, User user) {
-    Long queueId = initQueue();
-    enqueue(queueId, id);
+    QueueWriter queue = new QueueWriter(initQueue());
+    queue.add(id);
+    opts.getRevision().ifPresent(unindexedRevisions::add);
 
     try {
-      super.delete(id, opts, user);
+      trackingReferrerChanges(queue, () -> super.delete(id, opts, user));
     } finally {
-      index(queueId);
+      index(queue, opts);
     }
   }
 
   @Override
   public void saveAndDelete(Stream<Node> saves, Stream<NodeId> deletes, SaveMode mode,
       WriteOptions opts, User user) {
-    Long queueId = initQueue();
+    QueueWriter queue = new QueueWriter(initQueue());
+    opts.getRevision().ifPresent(unindexedRevisions::add);
 
     try {
-      super.saveAndDelete(
-          saves.peek(node -> enqueue(queueId, node.identifier())),
-          deletes.peek(id -> enqueue(queueId, id)),
-          mode, opts, user);
+      trackingReferrerChanges(queue, () -> super.saveAndDelete(
+          saves.peek(node -> queue.add(node.identifier())),
+          deletes.peek(queue::add),
+          mode, opts, user));
     } finally {
-      index(queueId);
+      index(queue, opts);
+    }
+  }
+
+  // Records that given revision is indexed. Index commit data is updated to greatest revision
+  // such that all revisions up to it are indexed. If indexing of a write fails, its revision is
+  // not marked indexed and holds the mark back, write is then indexed from its queue on restart.
+  private synchronized void revisionIndexed(long revision) {
+    maxIndexedRevision = Math.max(maxIndexedRevision, revision);
+    unindexedRevisions.remove(revision);
+
+    Long oldestUnindexed = unindexedRevisions.ceiling(Long.MIN_VALUE);
+    long mark = oldestUnindexed != null
+        ? Math.min(maxIndexedRevision, oldestUnindexed - 1)
+        : maxIndexedRevision;
+
+    if (mark > indexedRevision) {
+      indexedRevision = mark;
+      index.setCommitData(INDEXED_REVISION_KEY, Long.toString(mark));
     }
   }
 
@@ -187,30 +670,154 @@ public class IndexedNodeService extends ForwardingService<NodeId, Node> {
     return queueId;
   }
 
-  private void enqueue(Long queueId, NodeId nodeId) {
-    nodeIndexingQueueItemDao.insert(IndexingQueueItemId.of(nodeId, queueId), Empty.INSTANCE);
-  }
-
   private void enqueue(Long queueId, Stream<NodeId> nodeIds) {
     nodeIndexingQueueItemDao
         .insert(nodeIds.map(id -> Tuple.of(IndexingQueueItemId.of(id, queueId), Empty.INSTANCE)));
   }
 
-  private void index(Long queueId) {
+  // Runs write enqueuing nodes whose referrers it changes. Repository reports changes in the
+  // write transaction, queue is then flushed before the transaction commits.
+  private void trackingReferrerChanges(QueueWriter queue, Runnable write) {
+    trackingReferrerChanges(queue, () -> {
+      write.run();
+      return null;
+    });
+  }
+
+  private <E> E trackingReferrerChanges(QueueWriter queue, Supplier<E> write) {
+    return referrerChanges.tracking(changedIds -> {
+      queue.flushBeforeCommit();
+      changedIds.forEach(queue::add);
+    }, write);
+  }
+
+  // Index queue of a write. Outside of a transaction, queue is indexed by the queue drainer,
+  // otherwise in the calling thread as other threads would not see uncommitted queue items.
+  private void index(QueueWriter queue, WriteOptions opts) {
+    boolean sync = waitForAllWrites || opts.isSync();
+
+    queue.flushBuffer();
+
+    if (TransactionSynchronizationManager.isActualTransactionActive()) {
+      index(queue.queueId, sync);
+      opts.getRevision().ifPresent(this::revisionIndexed);
+    } else {
+      drain(queue, opts.getRevision(), sync);
+    }
+  }
+
+  // Passes queue to the drainer. Queues passed while drainer is busy are indexed together in its
+  // next run, nodes in many queues are indexed once. Waits until queue is indexed unless writes
+  // are async. Async writes wait too if backlog of earlier writes is full. If sync, waits until
+  // index writes of the drainer run that indexed the queue are searchable.
+  private void drain(QueueWriter queue, Optional<Long> revision, boolean sync) {
+    long backlogAhead = backlog.getAndAdd(queue.size());
+
+    CompletableFuture<Generation> indexed = queue.indexed.thenApply(written -> {
+      revision.ifPresent(this::revisionIndexed);
+      return written;
+    });
+
+    pendingQueues.put(queue.queueId, queue);
+    queueDrainer.execute(this::drainPendingQueues);
+
+    if (async && !sync && backlogAhead <= maxBacklog) {
+      return;
+    }
+
+    if (async && !sync) {
+      log.debug("Indexing backlog of {} nodes is full, waiting", backlogAhead);
+    }
+
+    Generation written;
+
+    try {
+      written = indexed.join();
+    } catch (CompletionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw e;
+    }
+
+    if (sync) {
+      waitLuceneIndexRefresh(written);
+    }
+  }
+
+  // If indexing fails, all queues of the run fail and are left to be indexed on restart
+  private void drainPendingQueues() {
+    List<QueueWriter> queues = ImmutableList.copyOf(pendingQueues.values());
+
+    if (queues.isEmpty()) {
+      // already drained by an earlier run
+      return;
+    }
+
+    List<Long> queueIds = queues.stream().map(q -> q.queueId).collect(toImmutableList());
+
+    log.trace("Indexing queues {}", queueIds);
+
+    try {
+      List<NodeId> ids = queueIds.stream()
+          .flatMap(queueId -> queuedIds(queueId).get())
+          .distinct()
+          .collect(toImmutableList());
+
+      Generation written = index(ids.stream(), ids.size());
+
+      log.trace("Deleting queues {}", queueIds);
+      queueIds.forEach(nodeIndexingQueueDao::delete);
+      queues.forEach(queue -> drained(queue).complete(written));
+    } catch (RuntimeException | Error e) {
+      log.error("Failed to index queues {}, queues are indexed again on restart", queueIds, e);
+      queues.forEach(queue -> drained(queue).completeExceptionally(e));
+    }
+  }
+
+  private CompletableFuture<Generation> drained(QueueWriter queue) {
+    pendingQueues.remove(queue.queueId);
+    backlog.addAndGet(-queue.size());
+    return queue.indexed;
+  }
+
+  // index queue in the calling thread, queue contains written nodes and nodes whose referrers
+  // changed
+  private void index(Long queueId, boolean sync) {
     log.trace("Indexing queue {}", queueId);
 
-    index(() -> nodeIndexingQueueItemDao
-        .keys(NodeIndexingQueueItemsByQueueId.of(queueId))
-        .map(IndexingQueueItemId::getId));
+    Generation written =
+        index(queuedIds(queueId).get(), StreamUtils.countAndClose(queuedIds(queueId).get()));
+
+    if (sync) {
+      waitLuceneIndexRefresh(written);
+    }
 
     log.trace("Deleting queue {}", queueId);
     nodeIndexingQueueDao.delete(queueId);
   }
 
-  // index nodes and its references and referrers
-  private void index(Supplier<Stream<NodeId>> idsSupplier) {
+  // index queue and all references and referrers of queued nodes
+  private void indexWithNeighbours(Long queueId) {
+    log.trace("Indexing queue {} with neighbours", queueId);
+
+    indexWithNeighbours(queuedIds(queueId), true);
+
+    log.trace("Deleting queue {}", queueId);
+    nodeIndexingQueueDao.delete(queueId);
+  }
+
+  private Supplier<Stream<NodeId>> queuedIds(Long queueId) {
+    return () -> nodeIndexingQueueItemDao
+        .keys(NodeIndexingQueueItemsByQueueId.of(queueId))
+        .map(IndexingQueueItemId::getId);
+  }
+
+  // index nodes and its references and referrers, if sync, waits until changes are searchable
+  private void indexWithNeighbours(Supplier<Stream<NodeId>> idsSupplier, boolean sync) {
     long nodeCount = StreamUtils.countAndClose(idsSupplier.get());
 
+    // writes done before this indexing run
+    Generation previousGeneration = indexGeneration();
+
     if (nodeCount > 1) {
       log.debug("Indexing {} nodes", nodeCount);
     }
@@ -221,11 +828,11 @@ public class IndexedNodeService extends ForwardingService<NodeId, Node> {
     AtomicInteger indexCounter = new AtomicInteger();
 
     // first pass: index nodes
-    index(idsSupplier.get()
+    AtomicReference<Generation> written = new AtomicReference<>(index(idsSupplier.get()
         .peek(id -> checkCounter.incrementAndGet())
         .filter(refId -> indexed.getIfPresent(refId) == null)
         .peek(id -> indexCounter.incrementAndGet())
-        .peek(id -> indexed.put(id, true)));
+        .peek(id -> indexed.put(id, true)), nodeCount));
 
     log.trace("Checked {} values", checkCounter.get());
     log.trace("Indexed {} values", indexCounter.get());
@@ -236,16 +843,9 @@ public class IndexedNodeService extends ForwardingService<NodeId, Node> {
     // second pass: index each reference and referrer of a db node
     try (Stream<NodeId> idStream = idsSupplier.get()) {
       // in batches for better performance
-      Iterators.partition(idStream.iterator(), 200).forEachRemaining(idBatch -> {
-        OrSpecification<NodeId, Node> nodeSpecs =
-            OrSpecification.or(idBatch.stream().map(id -> AndSpecification.and(
-                NodesByGraphId.of(id.getTypeGraphId()),
-                NodesByTypeId.of(id.getTypeId()),
-                NodesById.of(id.getId())))
-                .collect(toImmutableList()));
-
-        try (Stream<Node> nodes = values(Queries.sqlQuery(nodeSpecs), indexer)) {
-          index(nodes.flatMap(node ->
+      Iterators.partition(idStream.iterator(), LOAD_BATCH_SIZE).forEachRemaining(idBatch -> {
+        try (Stream<Node> nodes = values(Queries.sqlQuery(byIds(idBatch)), indexer)) {
+          written.accumulateAndGet(index(nodes.flatMap(node ->
               Stream.concat(
                   node.getReferences().values().stream(),
                   node.getReferrers().values().stream()))
@@ -253,7 +853,7 @@ public class IndexedNodeService extends ForwardingService<NodeId, Node> {
               .peek(id -> checkCounter.incrementAndGet())
               .filter(refId -> indexed.getIfPresent(refId) == null)
               .peek(id -> indexCounter.incrementAndGet())
-              .peek(id -> indexed.put(id, true)));
+              .peek(id -> indexed.put(id, true))), Generation::merge);
         }
       });
     }
@@ -264,28 +864,34 @@ public class IndexedNodeService extends ForwardingService<NodeId, Node> {
     indexCounter.set(0);
     checkCounter.set(0);
 
-    // final pass: index each reference and referrer of an index node
+    // final pass: index each reference and referrer of an index node,
+    // wait for earlier writes to be visible so that no referring node is missed.
+    // Index is queried for keys even if outdated, ids and references of old formats are readable.
+    waitLuceneIndexRefresh(previousGeneration);
+
     try (Stream<NodeId> idStream = idsSupplier.get()) {
       // in batches for better performance
-      Iterators.partition(idStream.iterator(), 200).forEachRemaining(idBatch -> {
+      Iterators.partition(idStream.iterator(), LOAD_BATCH_SIZE).forEachRemaining(idBatch -> {
         OrSpecification<NodeId, Node> refSpecs =
             OrSpecification.or(Streams.concat(
                 idBatch.stream().map(NodeAllReferences::of),
                 idBatch.stream().map(NodeAllReferrers::of))
                 .collect(toImmutableList()));
 
-        index(keys(Queries.query(refSpecs), indexer)
+        written.accumulateAndGet(index(index.getKeys(refSpecs, ImmutableList.of(), -1)
             .peek(id -> checkCounter.incrementAndGet())
             .filter(refId -> indexed.getIfPresent(refId) == null)
             .peek(id -> indexCounter.incrementAndGet())
-            .peek(id -> indexed.put(id, true)));
+            .peek(id -> indexed.put(id, true))), Generation::merge);
       });
     }
 
     log.trace("Checked {} index refs", checkCounter.get());
     log.trace("Indexed {} index refs", indexCounter.get());
 
-    waitLuceneIndexRefresh();
+    if (sync) {
+      waitLuceneIndexRefresh(written.get());
+    }
 
     if (nodeCount > 1) {
       log.debug("Done");
@@ -293,48 +899,92 @@ public class IndexedNodeService extends ForwardingService<NodeId, Node> {
   }
 
   // index all nodes identified by given ids, closes the stream
-  private void index(Stream<NodeId> ids) {
-    try (Stream<NodeId> closeable = ids) {
-      StreamUtils.zipIndex(closeable, 1, Tuple::of).forEach(t -> {
-        NodeId id = t._1;
-        int i = t._2;
+  private Generation index(Stream<NodeId> ids) {
+    return index(ids, -1);
+  }
 
-        Optional<Node> node = super.get(id, indexer);
+  // index all nodes identified by given ids in batches, closes the stream. Nodes are loaded in
+  // the calling thread if it has a transaction as other threads would not see its changes.
+  // Returns generation of the index writes.
+  private Generation index(Stream<NodeId> ids, long count) {
+    AtomicReference<Generation> written = new AtomicReference<>(Generation.NONE);
+    parallelIndexer.index(ids, count, this::load, (id, node) ->
+            written.accumulateAndGet(write(id, node), Generation::merge),
+        TransactionSynchronizationManager.isActualTransactionActive());
+    return written.get();
+  }
 
-        if (node.isPresent()) {
-          index.index(id, node.get());
-        } else {
-          index.delete(id);
-        }
+  private Generation write(NodeId id, Optional<Node> node) {
+    return node.isPresent()
+        ? index.indexAndGetGeneration(id, node.get())
+        : index.deleteAndGetGeneration(id);
+  }
 
-        if (i % 1000 == 0) {
-          log.debug("Indexed {} nodes", i);
-        }
-      });
+  // loads nodes with a single node query (and one query per attribute value table)
+  private Map<NodeId, Node> load(List<NodeId> ids) {
+    try (Stream<Node> nodes = super.values(Queries.sqlQuery(byIds(ids)), indexer)) {
+      return nodes.collect(Collectors.toMap(Node::identifier, node -> node));
     }
   }
 
-  // wait for searcher to reflect updates to make sure that all updates are done and visible
-  private void waitLuceneIndexRefresh() {
-    if (index instanceof LuceneIndex) {
-      ((LuceneIndex) index).refreshBlocking();
-    }
+  private OrSpecification<NodeId, Node> byIds(List<NodeId> ids) {
+    return OrSpecification.or(ids.stream().map(id -> AndSpecification.and(
+        NodesByGraphId.of(id.getTypeGraphId()),
+        NodesByTypeId.of(id.getTypeId()),
+        NodesById.of(id.getId())))
+        .collect(toImmutableList()));
+  }
+
+  // generation of index writes done so far
+  private Generation indexGeneration() {
+    return index.getGeneration();
+  }
+
+  // wait for searcher to reflect updates of given generation
+  private void waitLuceneIndexRefresh(Generation generation) {
+    index.waitForGeneration(generation);
   }
 
   @Override
   public Stream<Node> values(Query<NodeId, Node> query, User user) {
-    if (!(query.getWhere() instanceof LuceneSpecification) || !(index instanceof LuceneIndex)) {
+    if (!(query.getWhere() instanceof LuceneSpecification)) {
+      resolve(query.getWhere(), user);
       return super.values(query, user);
     }
 
-    resolve(query.getWhere(), user);
+    checkIndexReadable();
+
+    Set<String> fieldsToLoad = selectToFieldsToLoad(query.getSelect());
 
-    return ((LuceneIndex<NodeId, Node>) index).get(
+    return index.get(
         query.getWhere(),
         query.getSort(),
         query.getMax(),
-        selectToFieldsToLoad(query.getSelect()),
-        new DocumentToNode());
+        () -> new NodeDocumentVisitor(fieldsToLoad));
+  }
+
+  /**
+   * Searches a page of nodes after given position from the index. Values are not read
+   * authorized.
+   *
+   * @param after position returned with the previous page, null for the first page
+   * @throws IllegalArgumentException if query is not an index query or position is malformed
+   */
+  public Page<Node> page(Query<NodeId, Node> query, String after, User user) {
+    if (!(query.getWhere() instanceof LuceneSpecification)) {
+      throw new IllegalArgumentException("Cursor paging requires an index query");
+    }
+
+    checkIndexReadable();
+
+    Set<String> fieldsToLoad = selectToFieldsToLoad(query.getSelect());
+
+    return index.page(
+        query.getWhere(),
+        query.getSort(),
+        query.getMax(),
+        after,
+        () -> new NodeDocumentVisitor(fieldsToLoad));
   }
 
   private Set<String> selectToFieldsToLoad(List<Select> selects) {
@@ -358,11 +1008,12 @@ public class IndexedNodeService extends ForwardingService<NodeId, Node> {
 
   @Override
   public Stream<NodeId> keys(Query<NodeId, Node> query, User user) {
-    if (!(query.getWhere() instanceof LuceneSpecification) || !(index instanceof LuceneIndex)) {
+    if (!(query.getWhere() instanceof LuceneSpecification)) {
+      resolve(query.getWhere(), user);
       return super.keys(query, user);
     }
 
-    resolve(query.getWhere(), user);
+    checkIndexReadable();
 
     return index.getKeys(
         query.getWhere(),
@@ -372,28 +1023,81 @@ public class IndexedNodeService extends ForwardingService<NodeId, Node> {
 
   @Override
   public long count(Specification<NodeId, Node> spec, User user) {
-    if (!(spec instanceof LuceneSpecification) || !(index instanceof LuceneIndex)) {
+    if (!(spec instanceof LuceneSpecification)) {
+      resolve(spec, user);
       return super.count(spec, user);
     }
 
-    resolve(spec, user);
+    checkIndexReadable();
 
     return index.count(spec);
   }
 
+  /**
+   * Resolves dependent specifications for queries evaluated outside of the index, index queries
+   * evaluate them as joins.
+   */
   private void resolve(Specification<NodeId, Node> spec, User user) {
-    if (spec instanceof DependentSpecification) {
-      ((DependentSpecification<NodeId, Node>) spec).resolve(s -> keys(new Query<>(s), user));
+    Specifications.resolve(spec, s -> keys(new Query<>(s), user));
+  }
+
+  private void checkIndexReadable() {
+    if (!indexReadable) {
+      throw new ServiceUnavailableException("Index is being rebuilt, try again later");
+    }
+  }
+
+  // Buffers queue items of a write and inserts them in batches, each node once per batch. Node
+  // already queued by an earlier batch is skipped by the queue item insert. If write has a
+  // transaction, buffer is flushed before it commits so that queue of a committed write is
+  // complete if indexing is interrupted.
+  private class QueueWriter extends TransactionSynchronizationAdapter {
+
+    private final Long queueId;
+    // completed with generation of index writes of the drainer run that indexed the queue
+    private final CompletableFuture<Generation> indexed = new CompletableFuture<>();
+    private final Set<NodeId> buffer = new LinkedHashSet<>();
+    // buffered node count, a node in many batches is counted once per batch
+    private int size;
+    private boolean flushBeforeCommit;
+
+    QueueWriter(Long queueId) {
+      this.queueId = queueId;
     }
-    if (spec instanceof NotSpecification) {
-      resolve(((NotSpecification<NodeId, Node>) spec).getSpecification(), user);
+
+    synchronized void add(NodeId id) {
+      if (buffer.add(id)) {
+        size++;
+        if (buffer.size() >= QUEUE_FLUSH_SIZE) {
+          flushBuffer();
+        }
+        flushBeforeCommit();
+      }
     }
-    if (spec instanceof CompositeSpecification) {
-      for (Specification<NodeId, Node> s : ((CompositeSpecification<NodeId, Node>) spec)
-          .getSpecifications()) {
-        resolve(s, user);
+
+    synchronized void flushBeforeCommit() {
+      if (!flushBeforeCommit && TransactionSynchronizationManager.isSynchronizationActive()) {
+        TransactionSynchronizationManager.registerSynchronization(this);
+        flushBeforeCommit = true;
       }
     }
+
+    @Override
+    public void beforeCommit(boolean readOnly) {
+      flushBuffer();
+    }
+
+    synchronized int size() {
+      return size;
+    }
+
+    synchronized void flushBuffer() {
+      if (!buffer.isEmpty()) {
+        enqueue(queueId, ImmutableList.copyOf(buffer).stream());
+        buffer.clear();
+      }
+    }
+
   }
 
 }
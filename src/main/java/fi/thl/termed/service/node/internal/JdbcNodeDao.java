@@ -19,6 +19,10 @@ public class JdbcNodeDao extends AbstractJdbcDao<NodeId, Node> {
     super(dataSource);
   }
 
+  public JdbcNodeDao(DataSource dataSource, int batchSize) {
+    super(dataSource, batchSize);
+  }
+
   @Override
   public void insert(NodeId nodeId, Node node) {
     jdbcTemplate.update(
@@ -1,9 +1,14 @@
 package fi.thl.termed.service.node.internal;
 
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.ObjectArrays;
 import fi.thl.termed.domain.Empty;
 import fi.thl.termed.domain.IndexingQueueItemId;
 import fi.thl.termed.domain.NodeId;
 import fi.thl.termed.util.UUIDs;
+import fi.thl.termed.util.collect.Tuple2;
 import fi.thl.termed.util.dao.AbstractJdbcDao;
 import fi.thl.termed.util.query.SqlSpecification;
 import java.util.Optional;
@@ -14,23 +19,57 @@ import org.springframework.jdbc.core.RowMapper;
 public class JdbcNodeIndexingQueueItemDao extends
     AbstractJdbcDao<IndexingQueueItemId<NodeId>, Empty> {
 
+  // item already in the queue is skipped, e.g. a node queued again by a later batch of a write
+  private static final String INSERT_SQL = "insert into node_indexing_queue_item ("
+      + "node_graph_id,"
+      + "node_type_id,"
+      + "node_id,"
+      + "node_indexing_queue_id) select ?, ?, ?, ? where not exists ("
+      + "select 1 from node_indexing_queue_item where "
+      + "node_graph_id = ? and "
+      + "node_type_id = ? and "
+      + "node_id = ? and "
+      + "node_indexing_queue_id = ?)";
+
+  private static final String DELETE_SQL = "delete from node_indexing_queue_item where "
+      + "node_graph_id = ? and "
+      + "node_type_id = ? and "
+      + "node_id = ? and "
+      + "node_indexing_queue_id = ?";
+
+  private static final int BATCH_SIZE = 1000;
+
   public JdbcNodeIndexingQueueItemDao(DataSource dataSource) {
     super(dataSource);
   }
 
+  // queue items are inserted and deleted in JDBC batches, one round trip per batch
+  @Override
+  public void insert(Stream<Tuple2<IndexingQueueItemId<NodeId>, Empty>> entries) {
+    try (Stream<Tuple2<IndexingQueueItemId<NodeId>, Empty>> closeable = entries) {
+      Iterators.partition(closeable.iterator(), BATCH_SIZE).forEachRemaining(batch ->
+          jdbcTemplate.batchUpdate(INSERT_SQL, batch.stream()
+              .map(e -> toInsertArgs(e._1))
+              .collect(toList())));
+    }
+  }
+
   @Override
   public void insert(IndexingQueueItemId<NodeId> id, Empty empty) {
+    jdbcTemplate.update(INSERT_SQL, toInsertArgs(id));
+  }
+
+  private Object[] toInsertArgs(IndexingQueueItemId<NodeId> id) {
+    return ObjectArrays.concat(toArgs(id), toArgs(id), Object.class);
+  }
+
+  private Object[] toArgs(IndexingQueueItemId<NodeId> id) {
     NodeId nodeId = id.getId();
-    jdbcTemplate.update(
-        "insert into node_indexing_queue_item ("
-            + "node_graph_id,"
-            + "node_type_id,"
-            + "node_id,"
-            + "node_indexing_queue_id) values (?, ?, ?, ?)",
+    return new Object[]{
         nodeId.getTypeGraphId(),
         nodeId.getTypeId(),
         nodeId.getId(),
-        id.getIndexingQueueId());
+        id.getIndexingQueueId()};
   }
 
   @Override
@@ -38,19 +77,19 @@ public class JdbcNodeIndexingQueueItemDao extends
     // NOP
   }
 
+  @Override
+  public void delete(Stream<IndexingQueueItemId<NodeId>> ids) {
+    try (Stream<IndexingQueueItemId<NodeId>> closeable = ids) {
+      Iterators.partition(closeable.iterator(), BATCH_SIZE).forEachRemaining(batch ->
+          jdbcTemplate.batchUpdate(DELETE_SQL, batch.stream()
+              .map(this::toArgs)
+              .collect(toList())));
+    }
+  }
+
   @Override
   public void delete(IndexingQueueItemId<NodeId> id) {
-    NodeId nodeId = id.getId();
-    jdbcTemplate.update(
-        "delete from node_indexing_queue_item where "
-            + "node_graph_id = ? and "
-            + "node_type_id = ? and"
-            + "node_id = ? and"
-            + "node_indexing_queue_id = ?",
-        nodeId.getTypeGraphId(),
-        nodeId.getTypeId(),
-        nodeId.getId(),
-        id.getIndexingQueueId());
+    jdbcTemplate.update(DELETE_SQL, toArgs(id));
   }
 
   @Override
@@ -69,8 +108,8 @@ public class JdbcNodeIndexingQueueItemDao extends
     return jdbcTemplate.queryForOptional(
         "select count(*) from node_indexing_queue_item where "
             + "node_graph_id = ? and "
-            + "node_type_id = ? and"
-            + "node_id = ? and"
+            + "node_type_id = ? and "
+            + "node_id = ? and "
             + "node_indexing_queue_id = ?",
         Long.class,
         nodeId.getTypeGraphId(),
@@ -86,8 +125,8 @@ public class JdbcNodeIndexingQueueItemDao extends
     return jdbcTemplate.queryForFirst(
         "select * from node_indexing_queue_item where "
             + "node_graph_id = ? and "
-            + "node_type_id = ? and"
-            + "node_id = ? and"
+            + "node_type_id = ? and "
+            + "node_id = ? and "
             + "node_indexing_queue_id = ?",
         mapper,
         nodeId.getTypeGraphId(),
@@ -17,6 +17,10 @@ public class JdbcNodeReferenceAttributeValueDao
     super(dataSource);
   }
 
+  public JdbcNodeReferenceAttributeValueDao(DataSource dataSource, int batchSize) {
+    super(dataSource, batchSize);
+  }
+
   @Override
   public void insert(NodeAttributeValueId id, NodeId value) {
     NodeId nodeId = id.getNodeId();
@@ -24,6 +24,10 @@ public class JdbcNodeReferenceAttributeValueRevisionDao extends
     super(dataSource);
   }
 
+  public JdbcNodeReferenceAttributeValueRevisionDao(DataSource dataSource, int batchSize) {
+    super(dataSource, batchSize);
+  }
+
   @Override
   public void insert(RevisionId<NodeAttributeValueId> revisionId,
       Tuple2<RevisionType, NodeId> revision) {
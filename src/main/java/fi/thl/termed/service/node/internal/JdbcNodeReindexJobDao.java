@@ -0,0 +1,91 @@
+package fi.thl.termed.service.node.internal;
+
+import fi.thl.termed.domain.ReindexJob;
+import fi.thl.termed.domain.ReindexJob.Status;
+import fi.thl.termed.util.dao.AbstractJdbcDao;
+import fi.thl.termed.util.query.SqlSpecification;
+import java.util.Optional;
+import java.util.stream.Stream;
+import javax.sql.DataSource;
+import org.springframework.jdbc.core.RowMapper;
+
+public class JdbcNodeReindexJobDao extends AbstractJdbcDao<Long, ReindexJob> {
+
+  public JdbcNodeReindexJobDao(DataSource dataSource) {
+    super(dataSource);
+  }
+
+  @Override
+  public void insert(Long id, ReindexJob job) {
+    jdbcTemplate.update(
+        "insert into node_reindex_job ("
+            + "id, node_indexing_queue_id, rebuild, status, total, done, created_date, "
+            + "last_modified_date) values (?, ?, ?, ?, ?, ?, ?, ?)",
+        id,
+        job.getQueueId(),
+        job.isRebuild(),
+        job.getStatus().name(),
+        job.getTotal(),
+        job.getDone(),
+        job.getCreatedDate(),
+        job.getLastModifiedDate());
+  }
+
+  @Override
+  public void update(Long id, ReindexJob job) {
+    jdbcTemplate.update(
+        "update node_reindex_job set "
+            + "status = ?, total = ?, done = ?, last_modified_date = ? where id = ?",
+        job.getStatus().name(),
+        job.getTotal(),
+        job.getDone(),
+        job.getLastModifiedDate(),
+        id);
+  }
+
+  @Override
+  public void delete(Long id) {
+    jdbcTemplate.update("delete from node_reindex_job where id = ?", id);
+  }
+
+  @Override
+  protected <E> Stream<E> get(SqlSpecification<Long, ReindexJob> specification,
+      RowMapper<E> mapper) {
+    return jdbcTemplate.queryForStream(
+        String.format("select * from node_reindex_job where %s order by id",
+            specification.sqlQueryTemplate()),
+        specification.sqlQueryParameters(), mapper);
+  }
+
+  @Override
+  public boolean exists(Long id) {
+    return jdbcTemplate.queryForOptional(
+        "select count(*) from node_reindex_job where id = ?", Long.class, id)
+        .orElseThrow(IllegalStateException::new) > 0;
+  }
+
+  @Override
+  protected <E> Optional<E> get(Long id, RowMapper<E> mapper) {
+    return jdbcTemplate.queryForFirst(
+        "select * from node_reindex_job where id = ?", mapper, id);
+  }
+
+  @Override
+  protected RowMapper<Long> buildKeyMapper() {
+    return (rs, rowNum) -> rs.getLong("id");
+  }
+
+  @Override
+  protected RowMapper<ReindexJob> buildValueMapper() {
+    return (rs, rowNum) -> ReindexJob.of(
+        rs.getLong("id"),
+        rs.getLong("node_indexing_queue_id"),
+        rs.getBoolean("rebuild"),
+        Status.valueOf(rs.getString("status")),
+        rs.getLong("total"),
+        rs.getLong("done"),
+        rs.getTimestamp("created_date").toLocalDateTime(),
+        rs.getTimestamp("last_modified_date").toLocalDateTime());
+  }
+
+}
@@ -24,6 +24,10 @@ public class JdbcNodeRevisionDao extends
     super(dataSource);
   }
 
+  public JdbcNodeRevisionDao(DataSource dataSource, int batchSize) {
+    super(dataSource, batchSize);
+  }
+
   @Override
   public void insert(RevisionId<NodeId> revisionId, Tuple2<RevisionType, Node> revision) {
     NodeId nodeId = revisionId.getId();
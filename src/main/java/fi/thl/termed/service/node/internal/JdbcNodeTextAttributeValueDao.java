@@ -18,6 +18,10 @@ public class JdbcNodeTextAttributeValueDao
     super(dataSource);
   }
 
+  public JdbcNodeTextAttributeValueDao(DataSource dataSource, int batchSize) {
+    super(dataSource, batchSize);
+  }
+
   @Override
   public void insert(NodeAttributeValueId id, StrictLangValue langValue) {
     NodeId nodeId = id.getNodeId();
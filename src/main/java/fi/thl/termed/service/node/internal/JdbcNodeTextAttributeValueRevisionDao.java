@@ -25,6 +25,10 @@ public class JdbcNodeTextAttributeValueRevisionDao extends
     super(dataSource);
   }
 
+  public JdbcNodeTextAttributeValueRevisionDao(DataSource dataSource, int batchSize) {
+    super(dataSource, batchSize);
+  }
+
   @Override
   public void insert(RevisionId<NodeAttributeValueId> revisionId,
       Tuple2<RevisionType, StrictLangValue> revision) {
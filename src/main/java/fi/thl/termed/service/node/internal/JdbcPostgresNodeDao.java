@@ -1,18 +1,33 @@
 package fi.thl.termed.service.node.internal;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
 import fi.thl.termed.domain.Node;
 import fi.thl.termed.domain.NodeId;
 import fi.thl.termed.util.dao.AbstractJdbcPostgresDao;
 import fi.thl.termed.util.dao.SystemDao;
+import fi.thl.termed.util.postgresql.BinaryCopyWriter;
+import fi.thl.termed.util.postgresql.CopyFormat;
+import java.io.IOException;
+import java.util.Map;
 import javax.sql.DataSource;
 
 public class JdbcPostgresNodeDao extends AbstractJdbcPostgresDao<NodeId, Node> {
 
+  private static final Map<String, String> KEY_COLUMN_TYPES = ImmutableMap.of(
+      "graph_id", "uuid",
+      "type_id", "varchar",
+      "id", "uuid");
+
   public JdbcPostgresNodeDao(SystemDao<NodeId, Node> delegate, DataSource dataSource) {
     super(delegate, dataSource, "node", true);
   }
 
+  public JdbcPostgresNodeDao(SystemDao<NodeId, Node> delegate, DataSource dataSource,
+      CopyFormat copyFormat) {
+    super(delegate, dataSource, "node", true, copyFormat);
+  }
+
   @Override
   protected String[] toRow(NodeId k, Node v) {
     return new String[]{
@@ -29,4 +44,29 @@ public class JdbcPostgresNodeDao extends AbstractJdbcPostgresDao<NodeId, Node> {
     };
   }
 
+  @Override
+  protected void writeRow(NodeId k, Node v, BinaryCopyWriter writer) throws IOException {
+    writer.startRow(10);
+    writer.writeUuid(k.getTypeGraphId());
+    writer.writeText(k.getTypeId());
+    writer.writeUuid(k.getId());
+    writer.writeText(v.getCode().map(Strings::emptyToNull).orElse(null));
+    writer.writeText(v.getUri().map(Strings::emptyToNull).orElse(null));
+    writer.writeLong(v.getNumber());
+    writer.writeText(v.getCreatedBy());
+    writer.writeTimestamp(v.getCreatedDate());
+    writer.writeText(v.getLastModifiedBy());
+    writer.writeTimestamp(v.getLastModifiedDate());
+  }
+
+  @Override
+  protected Map<String, String> keyColumnTypes() {
+    return KEY_COLUMN_TYPES;
+  }
+
+  @Override
+  protected Object[] toKeyRow(NodeId k) {
+    return new Object[]{k.getTypeGraphId(), k.getTypeId(), k.getId()};
+  }
+
 }
@@ -0,0 +1,77 @@
+package fi.thl.termed.service.node.internal;
+
+import com.google.common.collect.ImmutableMap;
+import fi.thl.termed.domain.Empty;
+import fi.thl.termed.domain.IndexingQueueItemId;
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.util.dao.AbstractJdbcPostgresDao;
+import fi.thl.termed.util.dao.SystemDao;
+import fi.thl.termed.util.postgresql.BinaryCopyWriter;
+import fi.thl.termed.util.postgresql.CopyFormat;
+import java.io.IOException;
+import java.util.Map;
+import javax.sql.DataSource;
+
+public class JdbcPostgresNodeIndexingQueueItemDao extends
+    AbstractJdbcPostgresDao<IndexingQueueItemId<NodeId>, Empty> {
+
+  private static final Map<String, String> KEY_COLUMN_TYPES = ImmutableMap.of(
+      "node_graph_id", "uuid",
+      "node_type_id", "varchar",
+      "node_id", "uuid",
+      "node_indexing_queue_id", "int8");
+
+  public JdbcPostgresNodeIndexingQueueItemDao(
+      SystemDao<IndexingQueueItemId<NodeId>, Empty> delegate, DataSource dataSource) {
+    super(delegate, dataSource, "node_indexing_queue_item");
+  }
+
+  public JdbcPostgresNodeIndexingQueueItemDao(
+      SystemDao<IndexingQueueItemId<NodeId>, Empty> delegate, DataSource dataSource,
+      CopyFormat copyFormat) {
+    super(delegate, dataSource, "node_indexing_queue_item", false, copyFormat);
+  }
+
+  @Override
+  protected String[] toRow(IndexingQueueItemId<NodeId> k, Empty v) {
+    NodeId nodeId = k.getId();
+
+    return new String[]{
+        nodeId.getTypeGraphId().toString(),
+        nodeId.getTypeId(),
+        nodeId.getId().toString(),
+        k.getIndexingQueueId().toString()
+    };
+  }
+
+  @Override
+  protected void writeRow(IndexingQueueItemId<NodeId> k, Empty v, BinaryCopyWriter writer)
+      throws IOException {
+    NodeId nodeId = k.getId();
+
+    writer.startRow(4);
+    writer.writeUuid(nodeId.getTypeGraphId());
+    writer.writeText(nodeId.getTypeId());
+    writer.writeUuid(nodeId.getId());
+    writer.writeLong(k.getIndexingQueueId());
+  }
+
+  // a node may be queued again by a later batch of the same write
+  @Override
+  protected boolean skipConflictingInserts() {
+    return true;
+  }
+
+  @Override
+  protected Map<String, String> keyColumnTypes() {
+    return KEY_COLUMN_TYPES;
+  }
+
+  @Override
+  protected Object[] toKeyRow(IndexingQueueItemId<NodeId> k) {
+    NodeId nodeId = k.getId();
+    return new Object[]{
+        nodeId.getTypeGraphId(), nodeId.getTypeId(), nodeId.getId(), k.getIndexingQueueId()};
+  }
+
+}
@@ -9,6 +9,9 @@ import fi.thl.termed.domain.RevisionType;
 import fi.thl.termed.util.collect.Tuple2;
 import fi.thl.termed.util.dao.AbstractJdbcPostgresDao;
 import fi.thl.termed.util.dao.SystemDao;
+import fi.thl.termed.util.postgresql.BinaryCopyWriter;
+import fi.thl.termed.util.postgresql.CopyFormat;
+import java.io.IOException;
 import java.util.Optional;
 import javax.sql.DataSource;
 
@@ -21,6 +24,12 @@ public class JdbcPostgresNodeReferenceAttributeValueRevisionDao extends
     super(delegate, dataSource, "node_reference_attribute_value_aud");
   }
 
+  public JdbcPostgresNodeReferenceAttributeValueRevisionDao(
+      SystemDao<RevisionId<NodeAttributeValueId>, Tuple2<RevisionType, NodeId>> delegate,
+      DataSource dataSource, CopyFormat copyFormat) {
+    super(delegate, dataSource, "node_reference_attribute_value_aud", false, copyFormat);
+  }
+
   @Override
   protected String[] toRow(RevisionId<NodeAttributeValueId> k, Tuple2<RevisionType, NodeId> v) {
     NodeAttributeValueId nodeAttributeValueId = k.getId();
@@ -43,4 +52,25 @@ public class JdbcPostgresNodeReferenceAttributeValueRevisionDao extends
     };
   }
 
+  @Override
+  protected void writeRow(RevisionId<NodeAttributeValueId> k, Tuple2<RevisionType, NodeId> v,
+      BinaryCopyWriter writer) throws IOException {
+    NodeAttributeValueId nodeAttributeValueId = k.getId();
+    NodeId nodeId = nodeAttributeValueId.getNodeId();
+
+    Optional<NodeId> optionalNodeId = ofNullable(v._2);
+
+    writer.startRow(10);
+    writer.writeUuid(nodeId.getTypeGraphId());
+    writer.writeText(nodeId.getTypeId());
+    writer.writeUuid(nodeId.getId());
+    writer.writeText(nodeAttributeValueId.getAttributeId());
+    writer.writeInt(nodeAttributeValueId.getIndex());
+    writer.writeUuid(optionalNodeId.map(NodeId::getTypeGraphId).orElse(null));
+    writer.writeText(optionalNodeId.map(NodeId::getTypeId).orElse(null));
+    writer.writeUuid(optionalNodeId.map(NodeId::getId).orElse(null));
+    writer.writeLong(k.getRevision());
+    writer.writeText(v._1.toString());
+  }
+
 }
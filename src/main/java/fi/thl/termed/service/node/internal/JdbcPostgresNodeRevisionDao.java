@@ -10,6 +10,9 @@ import fi.thl.termed.domain.RevisionType;
 import fi.thl.termed.util.collect.Tuple2;
 import fi.thl.termed.util.dao.AbstractJdbcPostgresDao;
 import fi.thl.termed.util.dao.SystemDao;
+import fi.thl.termed.util.postgresql.BinaryCopyWriter;
+import fi.thl.termed.util.postgresql.CopyFormat;
+import java.io.IOException;
 import java.util.Optional;
 import javax.sql.DataSource;
 
@@ -21,6 +24,12 @@ public class JdbcPostgresNodeRevisionDao extends
     super(delegate, dataSource, "node_aud");
   }
 
+  public JdbcPostgresNodeRevisionDao(
+      SystemDao<RevisionId<NodeId>, Tuple2<RevisionType, Node>> delegate, DataSource dataSource,
+      CopyFormat copyFormat) {
+    super(delegate, dataSource, "node_aud", false, copyFormat);
+  }
+
   @Override
   protected String[] toRow(RevisionId<NodeId> k, Tuple2<RevisionType, Node> v) {
     NodeId nodeId = k.getId();
@@ -42,4 +51,25 @@ public class JdbcPostgresNodeRevisionDao extends
     };
   }
 
+  @Override
+  protected void writeRow(RevisionId<NodeId> k, Tuple2<RevisionType, Node> v,
+      BinaryCopyWriter writer) throws IOException {
+    NodeId nodeId = k.getId();
+    Optional<Node> node = ofNullable(v._2);
+
+    writer.startRow(12);
+    writer.writeUuid(nodeId.getTypeGraphId());
+    writer.writeText(nodeId.getTypeId());
+    writer.writeUuid(nodeId.getId());
+    writer.writeText(node.flatMap(Node::getCode).map(Strings::emptyToNull).orElse(null));
+    writer.writeText(node.flatMap(Node::getUri).map(Strings::emptyToNull).orElse(null));
+    writer.writeLong(node.map(Node::getNumber).orElse(null));
+    writer.writeText(node.map(Node::getCreatedBy).orElse(null));
+    writer.writeTimestamp(node.map(Node::getCreatedDate).orElse(null));
+    writer.writeText(node.map(Node::getLastModifiedBy).orElse(null));
+    writer.writeTimestamp(node.map(Node::getLastModifiedDate).orElse(null));
+    writer.writeLong(k.getRevision());
+    writer.writeText(v._1.toString());
+  }
+
 }
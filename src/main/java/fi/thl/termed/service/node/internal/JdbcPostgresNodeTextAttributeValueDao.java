@@ -1,20 +1,38 @@
 package fi.thl.termed.service.node.internal;
 
+import com.google.common.collect.ImmutableMap;
 import fi.thl.termed.domain.NodeAttributeValueId;
 import fi.thl.termed.domain.NodeId;
 import fi.thl.termed.domain.StrictLangValue;
 import fi.thl.termed.util.dao.AbstractJdbcPostgresDao;
 import fi.thl.termed.util.dao.SystemDao;
+import fi.thl.termed.util.postgresql.BinaryCopyWriter;
+import fi.thl.termed.util.postgresql.CopyFormat;
+import java.io.IOException;
+import java.util.Map;
 import javax.sql.DataSource;
 
 public class JdbcPostgresNodeTextAttributeValueDao extends
     AbstractJdbcPostgresDao<NodeAttributeValueId, StrictLangValue> {
 
+  private static final Map<String, String> KEY_COLUMN_TYPES = ImmutableMap.of(
+      "node_graph_id", "uuid",
+      "node_type_id", "varchar",
+      "node_id", "uuid",
+      "attribute_id", "varchar",
+      "index", "int4");
+
   public JdbcPostgresNodeTextAttributeValueDao(
       SystemDao<NodeAttributeValueId, StrictLangValue> delegate, DataSource dataSource) {
     super(delegate, dataSource, "node_text_attribute_value");
   }
 
+  public JdbcPostgresNodeTextAttributeValueDao(
+      SystemDao<NodeAttributeValueId, StrictLangValue> delegate, DataSource dataSource,
+      CopyFormat copyFormat) {
+    super(delegate, dataSource, "node_text_attribute_value", false, copyFormat);
+  }
+
   @Override
   protected String[] toRow(NodeAttributeValueId k, StrictLangValue v) {
     NodeId nodeId = k.getNodeId();
@@ -31,4 +49,33 @@ public class JdbcPostgresNodeTextAttributeValueDao extends
     };
   }
 
+  @Override
+  protected void writeRow(NodeAttributeValueId k, StrictLangValue v, BinaryCopyWriter writer)
+      throws IOException {
+    NodeId nodeId = k.getNodeId();
+
+    writer.startRow(8);
+    writer.writeUuid(nodeId.getTypeGraphId());
+    writer.writeText(nodeId.getTypeId());
+    writer.writeUuid(nodeId.getId());
+    writer.writeText(k.getAttributeId());
+    writer.writeInt(k.getIndex());
+    writer.writeText(v.getLang());
+    writer.writeText(v.getValue());
+    writer.writeText(v.getRegex());
+  }
+
+  @Override
+  protected Map<String, String> keyColumnTypes() {
+    return KEY_COLUMN_TYPES;
+  }
+
+  @Override
+  protected Object[] toKeyRow(NodeAttributeValueId k) {
+    NodeId nodeId = k.getNodeId();
+    return new Object[]{
+        nodeId.getTypeGraphId(), nodeId.getTypeId(), nodeId.getId(),
+        k.getAttributeId(), k.getIndex()};
+  }
+
 }
@@ -10,6 +10,9 @@ import fi.thl.termed.domain.StrictLangValue;
 import fi.thl.termed.util.collect.Tuple2;
 import fi.thl.termed.util.dao.AbstractJdbcPostgresDao;
 import fi.thl.termed.util.dao.SystemDao;
+import fi.thl.termed.util.postgresql.BinaryCopyWriter;
+import fi.thl.termed.util.postgresql.CopyFormat;
+import java.io.IOException;
 import java.util.Optional;
 import javax.sql.DataSource;
 
@@ -22,6 +25,12 @@ public class JdbcPostgresNodeTextAttributeValueRevisionDao extends
     super(delegate, dataSource, "node_text_attribute_value_aud");
   }
 
+  public JdbcPostgresNodeTextAttributeValueRevisionDao(
+      SystemDao<RevisionId<NodeAttributeValueId>, Tuple2<RevisionType, StrictLangValue>> delegate,
+      DataSource dataSource, CopyFormat copyFormat) {
+    super(delegate, dataSource, "node_text_attribute_value_aud", false, copyFormat);
+  }
+
   @Override
   protected String[] toRow(RevisionId<NodeAttributeValueId> k,
       Tuple2<RevisionType, StrictLangValue> v) {
@@ -44,4 +53,25 @@ public class JdbcPostgresNodeTextAttributeValueRevisionDao extends
     };
   }
 
+  @Override
+  protected void writeRow(RevisionId<NodeAttributeValueId> k,
+      Tuple2<RevisionType, StrictLangValue> v, BinaryCopyWriter writer) throws IOException {
+    NodeAttributeValueId nodeAttributeValueId = k.getId();
+    NodeId nodeId = nodeAttributeValueId.getNodeId();
+
+    Optional<StrictLangValue> langValue = ofNullable(v._2);
+
+    writer.startRow(10);
+    writer.writeUuid(nodeId.getTypeGraphId());
+    writer.writeText(nodeId.getTypeId());
+    writer.writeUuid(nodeId.getId());
+    writer.writeText(nodeAttributeValueId.getAttributeId());
+    writer.writeInt(nodeAttributeValueId.getIndex());
+    writer.writeText(langValue.map(StrictLangValue::getLang).orElse(null));
+    writer.writeText(langValue.map(StrictLangValue::getValue).orElse(null));
+    writer.writeText(langValue.map(StrictLangValue::getRegex).orElse(null));
+    writer.writeLong(k.getRevision());
+    writer.writeText(v._1.toString());
+  }
+
 }
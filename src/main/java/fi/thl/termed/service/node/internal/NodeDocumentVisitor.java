@@ -0,0 +1,229 @@
+package fi.thl.termed.service.node.internal;
+
+import static com.google.common.base.Strings.emptyToNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMultimap;
+import fi.thl.termed.domain.Node;
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.StrictLangValue;
+import fi.thl.termed.domain.TypeId;
+import fi.thl.termed.util.DateUtils;
+import fi.thl.termed.util.UUIDs;
+import fi.thl.termed.util.index.lucene.DocumentVisitor;
+import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.UUID;
+import org.apache.lucene.index.FieldInfo;
+
+/**
+ * Builds a Node directly from stored fields written by {@link NodeToDocument}. Produces same
+ * results as {@link DocumentToNode} but skips unwanted fields without loading them and avoids
+ * building intermediate Lucene Documents.
+ */
+public class NodeDocumentVisitor extends DocumentVisitor<Node> {
+
+  // field name to parsed field key lookup, shared between all visitors
+  private static final LoadingCache<String, FieldKey> fieldKeys = CacheBuilder.newBuilder()
+      .maximumSize(100_000)
+      .build(CacheLoader.from(FieldKey::parse));
+
+  // null means load all fields
+  private final Set<String> fieldsToLoad;
+
+  private UUID id;
+  private String typeId;
+  private UUID graphId;
+
+  private Long number;
+  private String uri;
+  private String code;
+
+  private String createdBy;
+  private LocalDateTime createdDate;
+  private String lastModifiedBy;
+  private LocalDateTime lastModifiedDate;
+
+  private ImmutableMultimap.Builder<String, StrictLangValue> properties;
+  private ImmutableMultimap.Builder<String, NodeId> references;
+  private ImmutableMultimap.Builder<String, NodeId> referrers;
+
+  public NodeDocumentVisitor() {
+    this(null);
+  }
+
+  public NodeDocumentVisitor(Set<String> fieldsToLoad) {
+    this.fieldsToLoad = fieldsToLoad;
+  }
+
+  @Override
+  public Status needsField(FieldInfo fieldInfo) {
+    if (fieldKeys.getUnchecked(fieldInfo.name).type == FieldType.OTHER) {
+      return Status.NO;
+    }
+    return fieldsToLoad == null || fieldsToLoad.contains(fieldInfo.name) ? Status.YES : Status.NO;
+  }
+
+  @Override
+  public void longField(FieldInfo fieldInfo, long value) {
+    if (fieldKeys.getUnchecked(fieldInfo.name).type == FieldType.NUMBER) {
+      number = value;
+    }
+  }
+
+  @Override
+  public void stringField(FieldInfo fieldInfo, byte[] bytes) {
+    FieldKey key = fieldKeys.getUnchecked(fieldInfo.name);
+    String value = new String(bytes, UTF_8);
+
+    switch (key.type) {
+      case ID:
+        id = UUIDs.fromString(value);
+        break;
+      case TYPE_ID:
+        typeId = value;
+        break;
+      case TYPE_GRAPH_ID:
+        graphId = UUIDs.fromString(value);
+        break;
+      case NUMBER:
+        number = Long.valueOf(value);
+        break;
+      case URI:
+        uri = emptyToNull(value);
+        break;
+      case CODE:
+        code = emptyToNull(value);
+        break;
+      case CREATED_BY:
+        createdBy = value;
+        break;
+      case CREATED_DATE:
+        createdDate = DateUtils.parseLuceneDateString(value);
+        break;
+      case LAST_MODIFIED_BY:
+        lastModifiedBy = value;
+        break;
+      case LAST_MODIFIED_DATE:
+        lastModifiedDate = DateUtils.parseLuceneDateString(value);
+        break;
+      default:
+    }
+  }
+
+  @Override
+  public void binaryField(FieldInfo fieldInfo, byte[] value) {
+    FieldKey key = fieldKeys.getUnchecked(fieldInfo.name);
+
+    switch (key.type) {
+      case PROPERTY:
+        if (properties == null) {
+          properties = ImmutableMultimap.builder();
+        }
+        NodeStoredFields.decodeProperties(key.attributeId, value, properties);
+        break;
+      case REFERENCE:
+        if (references == null) {
+          references = ImmutableMultimap.builder();
+        }
+        NodeStoredFields.decodeNodeIds(key.attributeId, value, references);
+        break;
+      case REFERRER:
+        if (referrers == null) {
+          referrers = ImmutableMultimap.builder();
+        }
+        NodeStoredFields.decodeNodeIds(key.attributeId, value, referrers);
+        break;
+      default:
+    }
+  }
+
+  @Override
+  public Node build() {
+    return new Node(id,
+        TypeId.of(typeId, graphId),
+        code,
+        uri,
+        number,
+        createdBy,
+        createdDate,
+        lastModifiedBy,
+        lastModifiedDate,
+        properties != null ? properties.build() : ImmutableMultimap.of(),
+        references != null ? references.build() : ImmutableMultimap.of(),
+        referrers != null ? referrers.build() : ImmutableMultimap.of());
+  }
+
+  private enum FieldType {
+    ID, TYPE_ID, TYPE_GRAPH_ID, NUMBER, URI, CODE,
+    CREATED_BY, CREATED_DATE, LAST_MODIFIED_BY, LAST_MODIFIED_DATE,
+    PROPERTY, REFERENCE, REFERRER, OTHER
+  }
+
+  private static final class FieldKey {
+
+    private final FieldType type;
+    private final String attributeId;
+
+    private FieldKey(FieldType type) {
+      this(type, null);
+    }
+
+    private FieldKey(FieldType type, String attributeId) {
+      this.type = type;
+      this.attributeId = attributeId;
+    }
+
+    static FieldKey parse(String fieldName) {
+      switch (fieldName) {
+        case "id":
+          return new FieldKey(FieldType.ID);
+        case "type.id":
+          return new FieldKey(FieldType.TYPE_ID);
+        case "type.graph.id":
+          return new FieldKey(FieldType.TYPE_GRAPH_ID);
+        case "number":
+          return new FieldKey(FieldType.NUMBER);
+        case "uri":
+          return new FieldKey(FieldType.URI);
+        case "code":
+          return new FieldKey(FieldType.CODE);
+        case "createdBy":
+          return new FieldKey(FieldType.CREATED_BY);
+        case "createdDate":
+          return new FieldKey(FieldType.CREATED_DATE);
+        case "lastModifiedBy":
+          return new FieldKey(FieldType.LAST_MODIFIED_BY);
+        case "lastModifiedDate":
+          return new FieldKey(FieldType.LAST_MODIFIED_DATE);
+        default:
+      }
+
+      // qualified attribute fields are of form "<graphId>.<typeId>.<attrType>.<attrId>"
+      int attrNameIndex = fieldName.lastIndexOf('.');
+      int attrTypeIndex = fieldName.lastIndexOf('.', attrNameIndex - 1);
+
+      if (attrNameIndex > 0 && attrTypeIndex > 0) {
+        String attrType = fieldName.substring(attrTypeIndex + 1, attrNameIndex);
+        String attrName = fieldName.substring(attrNameIndex + 1);
+
+        switch (attrType) {
+          case "properties":
+            return new FieldKey(FieldType.PROPERTY, attrName);
+          case "references":
+            return new FieldKey(FieldType.REFERENCE, attrName);
+          case "referrers":
+            return new FieldKey(FieldType.REFERRER, attrName);
+          default:
+        }
+      }
+
+      return new FieldKey(FieldType.OTHER);
+    }
+
+  }
+
+}
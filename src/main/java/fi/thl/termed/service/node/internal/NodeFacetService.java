@@ -0,0 +1,199 @@
+package fi.thl.termed.service.node.internal;
+
+import static fi.thl.termed.util.RegularExpressions.CODE;
+import static fi.thl.termed.util.collect.StreamUtils.toListAndClose;
+import static java.util.stream.Collectors.toList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.SetMultimap;
+import fi.thl.termed.domain.Node;
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.Permission;
+import fi.thl.termed.domain.ReferenceAttributeId;
+import fi.thl.termed.domain.TextAttributeId;
+import fi.thl.termed.domain.Type;
+import fi.thl.termed.domain.TypeId;
+import fi.thl.termed.domain.User;
+import fi.thl.termed.service.node.specification.NodesByGraphId;
+import fi.thl.termed.service.node.specification.NodesByTypeId;
+import fi.thl.termed.util.index.lucene.LuceneIndex;
+import fi.thl.termed.util.permission.PermissionEvaluator;
+import fi.thl.termed.util.query.AndSpecification;
+import fi.thl.termed.util.query.LuceneSpecification;
+import fi.thl.termed.util.query.MatchAll;
+import fi.thl.termed.util.query.OrSpecification;
+import fi.thl.termed.util.query.Query;
+import fi.thl.termed.util.query.Specification;
+import fi.thl.termed.util.service.Service;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Counts most common node types, reference values and property values of nodes matching a
+ * specification. Facets are counted from index doc values, facets readable in the same node types
+ * are counted in a single pass.
+ *
+ * <p>Counts are read authorized like {@link ReadAuthorizedNodeService} reads: only nodes of
+ * readable types are counted, attribute facets are counted only in types where the attribute is
+ * readable and reference values are returned only if the referenced node is readable.
+ */
+public class NodeFacetService {
+
+  private static final Pattern TYPE_FACET = Pattern.compile("type(\\.id)?");
+  private static final Pattern REFERENCE_FACET =
+      Pattern.compile("(references|refs|r)\\.(" + CODE + ")(\\.nodeId)?");
+  private static final Pattern PROPERTY_FACET =
+      Pattern.compile("(properties|props|p)\\.(" + CODE + ")(\\.string)?");
+
+  private static final Pattern REFERENCE_FIELD = Pattern.compile("references\\.(.*)\\.nodeId");
+  private static final Pattern PROPERTY_FIELD = Pattern.compile("properties\\.(.*)\\.string");
+
+  private LuceneIndex<NodeId, Node> index;
+  private Service<TypeId, Type> typeService;
+
+  private PermissionEvaluator<TypeId> typeEvaluator;
+  private PermissionEvaluator<TextAttributeId> textAttrEvaluator;
+  private PermissionEvaluator<ReferenceAttributeId> refAttrEvaluator;
+
+  public NodeFacetService(LuceneIndex<NodeId, Node> index,
+      Service<TypeId, Type> typeService,
+      PermissionEvaluator<TypeId> typeEvaluator,
+      PermissionEvaluator<TextAttributeId> textAttrEvaluator,
+      PermissionEvaluator<ReferenceAttributeId> refAttrEvaluator) {
+    this.index = index;
+    this.typeService = typeService;
+    this.typeEvaluator = typeEvaluator;
+    this.textAttrEvaluator = textAttrEvaluator;
+    this.refAttrEvaluator = refAttrEvaluator;
+  }
+
+  /**
+   * @param facets facets to count e.g. "type", "references.broader" or "properties.prefLabel"
+   * @param max max number of values returned per facet, negative value returns all
+   * @return value counts keyed by facet name, values are in descending count order
+   */
+  public Map<String, Map<String, Integer>> facets(Specification<NodeId, Node> spec,
+      List<String> facets, int max, User user) {
+
+    if (!(spec instanceof LuceneSpecification)) {
+      throw new IllegalArgumentException("Facets can be counted only for index queries");
+    }
+
+    Map<String, String> facetFields = new LinkedHashMap<>();
+    facets.forEach(facet -> facetFields.put(facet, toFacetField(facet)));
+
+    List<TypeId> readableTypes = toListAndClose(
+        typeService.keys(new Query<>(new MatchAll<>()), user)
+            .filter(typeId -> typeEvaluator.hasPermission(user, typeId, Permission.READ)));
+
+    // group fields by types where field is readable, each group is counted in one pass
+    SetMultimap<Set<TypeId>, String> fieldsByTypes = LinkedHashMultimap.create();
+    facetFields.values().stream().distinct().forEach(field -> fieldsByTypes.put(
+        readableTypes.stream()
+            .filter(readableIn(field, user))
+            .collect(LinkedHashSet::new, Set::add, Set::addAll),
+        field));
+
+    Map<String, Map<String, Integer>> countsByField = new HashMap<>();
+    fieldsByTypes.asMap().forEach((types, fields) ->
+        countsByField.putAll(facets(spec, types, fields, max, user)));
+
+    Map<String, Map<String, Integer>> countsByFacet = new LinkedHashMap<>();
+    facetFields.forEach((facet, field) -> countsByFacet.put(facet, countsByField.get(field)));
+    return countsByFacet;
+  }
+
+  private Map<String, Map<String, Integer>> facets(Specification<NodeId, Node> spec,
+      Set<TypeId> types, Collection<String> fields, int max, User user) {
+
+    if (types.isEmpty()) {
+      Map<String, Map<String, Integer>> emptyCounts = new HashMap<>();
+      fields.forEach(field -> emptyCounts.put(field, Collections.emptyMap()));
+      return emptyCounts;
+    }
+
+    Specification<NodeId, Node> typesSpec = OrSpecification.or(types.stream()
+        .map(type -> AndSpecification.<NodeId, Node>and(
+            new NodesByGraphId(type.getGraphId()),
+            new NodesByTypeId(type.getId())))
+        .collect(toList()));
+
+    // reference values are filtered by permission before max is applied
+    boolean referenceFields = fields.stream().anyMatch(f -> REFERENCE_FIELD.matcher(f).matches());
+
+    Map<String, Map<String, Integer>> counts = index.facets(
+        AndSpecification.and(spec, typesSpec), ImmutableList.copyOf(fields),
+        referenceFields ? -1 : max);
+
+    if (referenceFields) {
+      counts.replaceAll((field, fieldCounts) -> REFERENCE_FIELD.matcher(field).matches()
+          ? limit(fieldCounts, max, value -> typeEvaluator.hasPermission(
+              user, NodeId.fromString(value).getType(), Permission.READ))
+          : limit(fieldCounts, max, value -> true));
+    }
+
+    return counts;
+  }
+
+  private Map<String, Integer> limit(Map<String, Integer> counts, int max,
+      Predicate<String> accept) {
+    Map<String, Integer> limitedCounts = new LinkedHashMap<>();
+    counts.entrySet().stream()
+        .filter(e -> accept.test(e.getKey()))
+        .limit(max < 0 ? Long.MAX_VALUE : max)
+        .forEach(e -> limitedCounts.put(e.getKey(), e.getValue()));
+    return limitedCounts;
+  }
+
+  private Predicate<TypeId> readableIn(String field, User user) {
+    Matcher referenceMatcher = REFERENCE_FIELD.matcher(field);
+    if (referenceMatcher.matches()) {
+      String attributeId = referenceMatcher.group(1);
+      return typeId -> refAttrEvaluator.hasPermission(
+          user, new ReferenceAttributeId(typeId, attributeId), Permission.READ);
+    }
+
+    Matcher propertyMatcher = PROPERTY_FIELD.matcher(field);
+    if (propertyMatcher.matches()) {
+      String attributeId = propertyMatcher.group(1);
+      return typeId -> textAttrEvaluator.hasPermission(
+          user, new TextAttributeId(typeId, attributeId), Permission.READ);
+    }
+
+    // type facet
+    return typeId -> true;
+  }
+
+  /**
+   * Maps facet name to corresponding sorted set doc values field written by {@link
+   * NodeToDocument}.
+   */
+  static String toFacetField(String facet) {
+    if (TYPE_FACET.matcher(facet).matches()) {
+      return "type.id";
+    }
+
+    Matcher referenceMatcher = REFERENCE_FACET.matcher(facet);
+    if (referenceMatcher.matches()) {
+      return "references." + referenceMatcher.group(2) + ".nodeId";
+    }
+
+    Matcher propertyMatcher = PROPERTY_FACET.matcher(facet);
+    if (propertyMatcher.matches()) {
+      return "properties." + propertyMatcher.group(2) + ".string";
+    }
+
+    throw new IllegalArgumentException("Unsupported facet: " + facet);
+  }
+
+}
@@ -0,0 +1,54 @@
+package fi.thl.termed.service.node.internal;
+
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.TypeId;
+import fi.thl.termed.util.query.ParametrizedSqlQuery;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds set-based SQL conditions for matching rows by a collection of node ids. Ids are grouped
+ * by type so that resulting query can use (graph_id, type_id, id) indexes.
+ */
+final class NodeIdSqlQueries {
+
+  private NodeIdSqlQueries() {
+  }
+
+  /**
+   * @param columnPrefix prefix of id columns, e.g. "node_" for columns node_graph_id, node_type_id
+   * and node_id
+   */
+  static ParametrizedSqlQuery byNodeIds(String columnPrefix, Collection<NodeId> nodeIds) {
+    if (nodeIds.isEmpty()) {
+      return ParametrizedSqlQuery.of("1 = 0");
+    }
+
+    Map<TypeId, List<NodeId>> nodeIdsByType = nodeIds.stream()
+        .collect(groupingBy(NodeId::getType, LinkedHashMap::new, toList()));
+
+    List<String> conditions = new ArrayList<>();
+    List<Object> params = new ArrayList<>();
+
+    nodeIdsByType.forEach((type, ids) -> {
+      conditions.add(String.format("(%sgraph_id = ? and %stype_id = ? and %sid in (%s))",
+          columnPrefix, columnPrefix, columnPrefix,
+          ids.stream().map(id -> "?").collect(joining(", "))));
+      params.add(type.getGraphId());
+      params.add(type.getId());
+      ids.forEach(id -> params.add(id.getId()));
+    });
+
+    return ParametrizedSqlQuery.of(
+        conditions.size() == 1 ? conditions.get(0) : "(" + String.join(" or ", conditions) + ")",
+        params.toArray());
+  }
+
+}
@@ -0,0 +1,45 @@
+package fi.thl.termed.service.node.internal;
+
+import static fi.thl.termed.util.collect.StreamUtils.toListAndClose;
+
+import fi.thl.termed.domain.Node;
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.ReferenceAttributeId;
+import fi.thl.termed.domain.TextAttributeId;
+import fi.thl.termed.domain.TypeId;
+import fi.thl.termed.domain.User;
+import fi.thl.termed.util.permission.PermissionEvaluator;
+import fi.thl.termed.util.query.Page;
+import fi.thl.termed.util.query.Query;
+
+/**
+ * Cursor based paging of node index search results. Pages are read authorized like {@link
+ * ReadAuthorizedNodeService} reads. Position of the next page does not depend on filtered values,
+ * so a page may have fewer values than requested (or none) even if more pages follow.
+ */
+public class NodePageService {
+
+  private IndexedNodeService indexedNodeService;
+  private ReadAuthorizedNodeService readAuthorizedNodeService;
+
+  public NodePageService(IndexedNodeService indexedNodeService,
+      PermissionEvaluator<TypeId> typeEvaluator,
+      PermissionEvaluator<TextAttributeId> textAttrEvaluator,
+      PermissionEvaluator<ReferenceAttributeId> refAttrEvaluator) {
+    this.indexedNodeService = indexedNodeService;
+    this.readAuthorizedNodeService = new ReadAuthorizedNodeService(indexedNodeService,
+        typeEvaluator, textAttrEvaluator, refAttrEvaluator);
+  }
+
+  /**
+   * @param after position returned with the previous page, null for the first page
+   * @throws IllegalArgumentException if query is not an index query or position is malformed
+   */
+  public Page<Node> page(Query<NodeId, Node> query, String after, User user) {
+    Page<Node> page = indexedNodeService.page(query, after, user);
+    return new Page<>(
+        toListAndClose(readAuthorizedNodeService.filterValues(page.getValues().stream(), user)),
+        page.getNext().orElse(null));
+  }
+
+}
@@ -0,0 +1,29 @@
+package fi.thl.termed.service.node.internal;
+
+import com.google.common.collect.ImmutableSet;
+import fi.thl.termed.domain.NodeAttributeValueId;
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.util.query.AbstractSqlSpecification;
+import fi.thl.termed.util.query.ParametrizedSqlQuery;
+import java.util.Collection;
+
+public class NodeReferenceAttributeNodesByValueIds
+    extends AbstractSqlSpecification<NodeAttributeValueId, NodeId> {
+
+  private ImmutableSet<NodeId> valueIds;
+
+  public NodeReferenceAttributeNodesByValueIds(Collection<NodeId> valueIds) {
+    this.valueIds = ImmutableSet.copyOf(valueIds);
+  }
+
+  @Override
+  public boolean test(NodeAttributeValueId key, NodeId value) {
+    return valueIds.contains(value);
+  }
+
+  @Override
+  public ParametrizedSqlQuery sql() {
+    return NodeIdSqlQueries.byNodeIds("value_", valueIds);
+  }
+
+}
@@ -0,0 +1,41 @@
+package fi.thl.termed.service.node.internal;
+
+import fi.thl.termed.domain.NodeId;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Passes nodes whose referrers are changed by a write to a consumer bound to the writing thread.
+ * E.g. index documents of nodes contain their referrers and are updated when referrers change.
+ */
+public class NodeReferrerChanges {
+
+  private final ThreadLocal<Consumer<Stream<NodeId>>> consumer = new ThreadLocal<>();
+
+  /**
+   * Runs given write passing nodes whose referrers it changes to given consumer. Consumer is
+   * called in the transaction of the write.
+   */
+  public <E> E tracking(Consumer<Stream<NodeId>> changedNodesConsumer, Supplier<E> write) {
+    Consumer<Stream<NodeId>> previous = consumer.get();
+    consumer.set(changedNodesConsumer);
+    try {
+      return write.get();
+    } finally {
+      if (previous != null) {
+        consumer.set(previous);
+      } else {
+        consumer.remove();
+      }
+    }
+  }
+
+  public void referrersChanged(Stream<NodeId> nodeIds) {
+    Consumer<Stream<NodeId>> changedNodesConsumer = consumer.get();
+    if (changedNodesConsumer != null) {
+      changedNodesConsumer.accept(nodeIds);
+    }
+  }
+
+}
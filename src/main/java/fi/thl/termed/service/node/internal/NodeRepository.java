@@ -1,6 +1,8 @@
 package fi.thl.termed.service.node.internal;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.google.common.collect.Lists.partition;
 import static com.google.common.collect.Maps.difference;
 import static fi.thl.termed.service.node.util.NodeTransformations.nodePropertiesToRows;
 import static fi.thl.termed.service.node.util.NodeTransformations.nodeReferencesToRows;
@@ -8,12 +10,20 @@ import static fi.thl.termed.domain.RevisionType.DELETE;
 import static fi.thl.termed.domain.RevisionType.INSERT;
 import static fi.thl.termed.domain.RevisionType.UPDATE;
 import static fi.thl.termed.util.collect.MapUtils.leftValues;
+import static fi.thl.termed.util.collect.MultimapUtils.toImmutableListMultimap;
 import static fi.thl.termed.util.collect.MultimapUtils.toImmutableMultimap;
+import static fi.thl.termed.util.collect.StreamUtils.partitionedMap;
 import static fi.thl.termed.util.collect.Tuple.entriesAsTuples;
 import static fi.thl.termed.util.collect.Tuple.tuplesToMap;
+import static java.util.stream.Collectors.toCollection;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.MapDifference;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Multisets;
 import fi.thl.termed.domain.Node;
 import fi.thl.termed.domain.NodeAttributeValueId;
 import fi.thl.termed.domain.NodeId;
@@ -30,8 +40,12 @@ import fi.thl.termed.util.service.AbstractRepository;
 import fi.thl.termed.util.service.WriteOptions;
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Stream;
 
 /**
@@ -39,6 +53,9 @@ import java.util.stream.Stream;
  */
 public class NodeRepository extends AbstractRepository<NodeId, Node> {
 
+  // number of nodes populated (or deleted) with attribute values in one set of queries
+  private static final int POPULATE_BATCH_SIZE = 1000;
+
   private final Dao<NodeId, Node> nodeDao;
   private final Dao<NodeAttributeValueId, StrictLangValue> textAttrValueDao;
   private final Dao<NodeAttributeValueId, NodeId> refAttrValueDao;
@@ -47,6 +64,8 @@ public class NodeRepository extends AbstractRepository<NodeId, Node> {
   private final Dao<RevisionId<NodeAttributeValueId>, Tuple2<RevisionType, StrictLangValue>> textAttrValueRevDao;
   private final Dao<RevisionId<NodeAttributeValueId>, Tuple2<RevisionType, NodeId>> refAttrValueRevDao;
 
+  private final NodeReferrerChanges referrerChanges;
+
   public NodeRepository(
       Dao<NodeId, Node> nodeDao,
       Dao<NodeAttributeValueId, StrictLangValue> textAttrValueDao,
@@ -54,8 +73,10 @@ public class NodeRepository extends AbstractRepository<NodeId, Node> {
       Dao<RevisionId<NodeId>, Tuple2<RevisionType, Node>> nodeRevDao,
       Dao<RevisionId<NodeAttributeValueId>, Tuple2<RevisionType, StrictLangValue>> textAttrValueRevDao,
       Dao<RevisionId<NodeAttributeValueId>, Tuple2<RevisionType, NodeId>> refAttrValueRevDao,
+      NodeReferrerChanges referrerChanges,
       int batchSize) {
     super(batchSize);
+    this.referrerChanges = referrerChanges;
     this.nodeDao = nodeDao;
     this.textAttrValueDao = textAttrValueDao;
     this.refAttrValueDao = refAttrValueDao;
@@ -78,6 +99,8 @@ public class NodeRepository extends AbstractRepository<NodeId, Node> {
     textAttrValueDao.insert(textValues.stream(), user);
     refAttrValueDao.insert(refValues.stream(), user);
 
+    referrerChanges.referrersChanged(refValues.stream().map(e -> e._2));
+
     opts.getRevision().ifPresent(r -> {
       nodeRevDao.insert(toRevs(nodes.stream(), r, INSERT), user);
       textAttrValueRevDao.insert(toRevs(textValues.stream(), r, INSERT), user);
@@ -96,6 +119,8 @@ public class NodeRepository extends AbstractRepository<NodeId, Node> {
     textAttrValueDao.insert(textAttrValues.stream(), user);
     refAttrValueDao.insert(refAttrValues.stream(), user);
 
+    referrerChanges.referrersChanged(refAttrValues.stream().map(e -> e._2));
+
     opts.getRevision().ifPresent(r -> {
       nodeRevDao.insert(RevisionId.of(id, r), Tuple.of(INSERT, node), user);
       textAttrValueRevDao.insert(toRevs(textAttrValues.stream(), r, INSERT), user);
@@ -123,6 +148,8 @@ public class NodeRepository extends AbstractRepository<NodeId, Node> {
     refAttrValueDao.update(entriesAsTuples(leftValues(refsDiff.entriesDiffering())), user);
     refAttrValueDao.delete(refsDiff.entriesOnlyOnRight().keySet().stream(), user);
 
+    referrerChanges.referrersChanged(changedReferenceTargets(refsDiff));
+
     opts.getRevision().ifPresent(r -> {
       nodeRevDao.insert(RevisionId.of(id, r), Tuple.of(UPDATE, node), user);
 
@@ -142,21 +169,138 @@ public class NodeRepository extends AbstractRepository<NodeId, Node> {
     });
   }
 
+  // diffs attribute values of all nodes in the batch against values read with one query per
+  // partition of nodes (instead of two queries per node), writes changes as bulk operations
+  @Override
+  protected void updateBatch(List<Tuple2<NodeId, Node>> nodes, WriteOptions opts, User user) {
+    ImmutableList<NodeId> ids = nodes.stream().map(e -> e._1).collect(toImmutableList());
+
+    if (ImmutableSet.copyOf(ids).size() < ids.size()) {
+      // repeated updates of the same node are applied in order
+      super.updateBatch(nodes, opts, user);
+      return;
+    }
+
+    List<List<NodeId>> partitions = partition(ids, POPULATE_BATCH_SIZE);
+
+    ImmutableListMultimap<NodeId, Tuple2<NodeAttributeValueId, StrictLangValue>> oldTexts =
+        partitions.stream()
+            .flatMap(p -> textAttrValueDao.entries(new NodeTextAttributeValuesByNodeIds(p), user))
+            .collect(toImmutableListMultimap(e -> e._1.getNodeId(), e -> e));
+    ImmutableListMultimap<NodeId, Tuple2<NodeAttributeValueId, NodeId>> oldRefs =
+        partitions.stream()
+            .flatMap(p -> refAttrValueDao.entries(
+                new NodeReferenceAttributeValuesByNodeIds(p), user))
+            .collect(toImmutableListMultimap(e -> e._1.getNodeId(), e -> e));
+
+    Map<NodeAttributeValueId, StrictLangValue> textInserts = new LinkedHashMap<>();
+    Map<NodeAttributeValueId, StrictLangValue> textUpdates = new LinkedHashMap<>();
+    Set<NodeAttributeValueId> textDeletes = new LinkedHashSet<>();
+
+    Map<NodeAttributeValueId, NodeId> refInserts = new LinkedHashMap<>();
+    Map<NodeAttributeValueId, NodeId> refUpdates = new LinkedHashMap<>();
+    Set<NodeAttributeValueId> refDeletes = new LinkedHashSet<>();
+
+    Set<NodeId> changedRefTargets = new LinkedHashSet<>();
+
+    nodes.forEach(idNode -> {
+      NodeId id = idNode._1;
+      Node node = idNode._2;
+
+      MapDifference<NodeAttributeValueId, StrictLangValue> textsDiff = difference(
+          tuplesToMap(nodePropertiesToRows(id, node.getProperties())),
+          tuplesToMap(oldTexts.get(id).stream()));
+      MapDifference<NodeAttributeValueId, NodeId> refsDiff = difference(
+          tuplesToMap(nodeReferencesToRows(id, node.getReferences())),
+          tuplesToMap(oldRefs.get(id).stream()));
+
+      textInserts.putAll(textsDiff.entriesOnlyOnLeft());
+      textUpdates.putAll(leftValues(textsDiff.entriesDiffering()));
+      textDeletes.addAll(textsDiff.entriesOnlyOnRight().keySet());
+
+      refInserts.putAll(refsDiff.entriesOnlyOnLeft());
+      refUpdates.putAll(leftValues(refsDiff.entriesDiffering()));
+      refDeletes.addAll(refsDiff.entriesOnlyOnRight().keySet());
+
+      changedReferenceTargets(refsDiff).forEach(changedRefTargets::add);
+    });
+
+    nodeDao.update(nodes.stream(), user);
+
+    textAttrValueDao.insert(entriesAsTuples(textInserts), user);
+    textAttrValueDao.update(entriesAsTuples(textUpdates), user);
+    textAttrValueDao.delete(textDeletes.stream(), user);
+
+    refAttrValueDao.insert(entriesAsTuples(refInserts), user);
+    refAttrValueDao.update(entriesAsTuples(refUpdates), user);
+    refAttrValueDao.delete(refDeletes.stream(), user);
+
+    referrerChanges.referrersChanged(changedRefTargets.stream());
+
+    opts.getRevision().ifPresent(r -> {
+      nodeRevDao.insert(toRevs(nodes.stream(), r, UPDATE), user);
+
+      textAttrValueRevDao.insert(toRevs(entriesAsTuples(textInserts), r, INSERT), user);
+      textAttrValueRevDao.insert(toRevs(entriesAsTuples(textUpdates), r, UPDATE), user);
+      textAttrValueRevDao.insert(toRevs(textDeletes, r, DELETE), user);
+
+      refAttrValueRevDao.insert(toRevs(entriesAsTuples(refInserts), r, INSERT), user);
+      refAttrValueRevDao.insert(toRevs(entriesAsTuples(refUpdates), r, UPDATE), user);
+      refAttrValueRevDao.insert(toRevs(refDeletes, r, DELETE), user);
+    });
+  }
+
+  // Returns targets of reference edges that are added or removed. Reference values that only
+  // move to another index do not change referrers of their targets. Edges are counted, so
+  // removing one of repeated references to the same target changes its referrers too.
+  private Stream<NodeId> changedReferenceTargets(
+      MapDifference<NodeAttributeValueId, NodeId> refsDiff) {
+    Multiset<Tuple2<String, NodeId>> newEdges = Stream.concat(
+        refsDiff.entriesOnlyOnLeft().entrySet().stream(),
+        refsDiff.entriesInCommon().entrySet().stream())
+        .map(e -> Tuple.of(e.getKey().getAttributeId(), e.getValue()))
+        .collect(toCollection(HashMultiset::create));
+    Multiset<Tuple2<String, NodeId>> oldEdges = Stream.concat(
+        refsDiff.entriesOnlyOnRight().entrySet().stream(),
+        refsDiff.entriesInCommon().entrySet().stream())
+        .map(e -> Tuple.of(e.getKey().getAttributeId(), e.getValue()))
+        .collect(toCollection(HashMultiset::create));
+
+    refsDiff.entriesDiffering().forEach((valueId, values) -> {
+      newEdges.add(Tuple.of(valueId.getAttributeId(), values.leftValue()));
+      oldEdges.add(Tuple.of(valueId.getAttributeId(), values.rightValue()));
+    });
+
+    return Stream.concat(
+        Multisets.difference(newEdges, oldEdges).elementSet().stream(),
+        Multisets.difference(oldEdges, newEdges).elementSet().stream())
+        .map(edge -> edge._2)
+        .distinct();
+  }
+
   // first delete all dependant values, then all nodes
   @Override
   protected void deleteBatch(List<NodeId> ids, WriteOptions opts, User user) {
+    // values are looked up with one query per partition of nodes (instead of one per node),
     // note that flatMap will close streams returned by DAOs
-    ImmutableList<NodeAttributeValueId> allTextAttrValueIds = ids.stream()
-        .flatMap(id -> textAttrValueDao.keys(new NodeTextAttributeValuesByNodeId(id), user))
+    List<List<NodeId>> partitions = partition(ids, POPULATE_BATCH_SIZE);
+
+    ImmutableList<NodeAttributeValueId> allTextAttrValueIds = partitions.stream()
+        .flatMap(p -> textAttrValueDao.keys(new NodeTextAttributeValuesByNodeIds(p), user))
+        .collect(toImmutableList());
+    ImmutableList<Tuple2<NodeAttributeValueId, NodeId>> allRefAttrValues = partitions.stream()
+        .flatMap(p -> refAttrValueDao.entries(new NodeReferenceAttributeValuesByNodeIds(p), user))
         .collect(toImmutableList());
-    ImmutableList<NodeAttributeValueId> allRefAttrValueIds = ids.stream()
-        .flatMap(id -> refAttrValueDao.keys(new NodeReferenceAttributeValuesByNodeId(id), user))
+    ImmutableList<NodeAttributeValueId> allRefAttrValueIds = allRefAttrValues.stream()
+        .map(e -> e._1)
         .collect(toImmutableList());
 
     textAttrValueDao.delete(allTextAttrValueIds.stream(), user);
     refAttrValueDao.delete(allRefAttrValueIds.stream(), user);
     nodeDao.delete(ids.stream(), user);
 
+    referrerChanges.referrersChanged(allRefAttrValues.stream().map(e -> e._2).distinct());
+
     opts.getRevision().ifPresent(r -> {
       textAttrValueRevDao.insert(toRevs(allTextAttrValueIds, r, DELETE), user);
       refAttrValueRevDao.insert(toRevs(allRefAttrValueIds, r, DELETE), user);
@@ -169,18 +313,23 @@ public class NodeRepository extends AbstractRepository<NodeId, Node> {
     try (
         Stream<NodeAttributeValueId> textAttrValueIds = textAttrValueDao.keys(
             new NodeTextAttributeValuesByNodeId(id), user);
-        Stream<NodeAttributeValueId> refAttrValueIds = refAttrValueDao.keys(
+        Stream<Tuple2<NodeAttributeValueId, NodeId>> refAttrValues = refAttrValueDao.entries(
             new NodeReferenceAttributeValuesByNodeId(id), user)) {
 
       ImmutableList<NodeAttributeValueId> textAttrValueIdList = textAttrValueIds
           .collect(toImmutableList());
-      ImmutableList<NodeAttributeValueId> refAttrValueIdList = refAttrValueIds
+      ImmutableList<Tuple2<NodeAttributeValueId, NodeId>> refAttrValueList = refAttrValues
+          .collect(toImmutableList());
+      ImmutableList<NodeAttributeValueId> refAttrValueIdList = refAttrValueList.stream()
+          .map(e -> e._1)
           .collect(toImmutableList());
 
       textAttrValueDao.delete(textAttrValueIdList.stream(), user);
       refAttrValueDao.delete(refAttrValueIdList.stream(), user);
       nodeDao.delete(id, user);
 
+      referrerChanges.referrersChanged(refAttrValueList.stream().map(e -> e._2).distinct());
+
       opts.getRevision().ifPresent(r -> {
         textAttrValueRevDao.insert(toRevs(textAttrValueIdList, r, DELETE), user);
         refAttrValueRevDao.insert(toRevs(refAttrValueIdList, r, DELETE), user);
@@ -205,9 +354,18 @@ public class NodeRepository extends AbstractRepository<NodeId, Node> {
     return nodeDao.exists(nodeId, user);
   }
 
+  // upserts check existence of nodes with one query per partition (instead of one per node)
+  @Override
+  protected Set<NodeId> existingKeys(List<NodeId> ids, User user) {
+    return partition(ids, POPULATE_BATCH_SIZE).stream()
+        .flatMap(p -> nodeDao.keys(new NodesByNodeIds(p), user))
+        .collect(toImmutableSet());
+  }
+
   @Override
   public Stream<Node> values(Query<NodeId, Node> query, User user) {
-    return nodeDao.values(query.getWhere(), user).map(node -> populateValue(node, user));
+    return partitionedMap(nodeDao.values(query.getWhere(), user), POPULATE_BATCH_SIZE,
+        nodes -> populateValues(nodes, user));
   }
 
   @Override
@@ -245,4 +403,44 @@ public class NodeRepository extends AbstractRepository<NodeId, Node> {
     }
   }
 
+  // populates list of nodes with three queries in total (instead of three queries per node)
+  private Stream<Node> populateValues(List<Node> nodes, User user) {
+    ImmutableList<NodeId> nodeIds = nodes.stream()
+        .map(Node::identifier)
+        .collect(toImmutableList());
+
+    ImmutableListMultimap<NodeId, Tuple2<NodeAttributeValueId, StrictLangValue>> texts;
+    ImmutableListMultimap<NodeId, Tuple2<NodeAttributeValueId, NodeId>> references;
+    ImmutableListMultimap<NodeId, Tuple2<NodeAttributeValueId, NodeId>> referrers;
+
+    try (
+        Stream<Tuple2<NodeAttributeValueId, StrictLangValue>> textStream = textAttrValueDao
+            .entries(new NodeTextAttributeValuesByNodeIds(nodeIds), user);
+        Stream<Tuple2<NodeAttributeValueId, NodeId>> referenceStream = refAttrValueDao.entries(
+            new NodeReferenceAttributeValuesByNodeIds(nodeIds), user);
+        Stream<Tuple2<NodeAttributeValueId, NodeId>> referrerStream = refAttrValueDao.entries(
+            new NodeReferenceAttributeNodesByValueIds(nodeIds), user)) {
+
+      texts = textStream.collect(toImmutableListMultimap(e -> e._1.getNodeId(), e -> e));
+      references = referenceStream.collect(toImmutableListMultimap(e -> e._1.getNodeId(), e -> e));
+      referrers = referrerStream.collect(toImmutableListMultimap(e -> e._2, e -> e));
+    }
+
+    return nodes.stream().map(node -> {
+      NodeId nodeId = node.identifier();
+
+      return Node.builderFromCopyOf(node)
+          .properties(texts.get(nodeId).stream().collect(toImmutableMultimap(
+              e -> e._1.getAttributeId(),
+              e -> e._2)))
+          .references(references.get(nodeId).stream().collect(toImmutableMultimap(
+              e -> e._1.getAttributeId(),
+              e -> e._2)))
+          .referrers(referrers.get(nodeId).stream().collect(toImmutableMultimap(
+              e -> e._1.getAttributeId(),
+              e -> e._1.getNodeId())))
+          .build();
+    });
+  }
+
 }
@@ -0,0 +1,206 @@
+package fi.thl.termed.service.node.internal;
+
+import com.google.common.collect.ImmutableMultimap;
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.StrictLangValue;
+import fi.thl.termed.domain.TypeId;
+import fi.thl.termed.util.index.lucene.LuceneException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.GrowableByteArrayDataOutput;
+
+/**
+ * Compact binary encoding for stored property and reference fields of node documents.
+ *
+ * <p>Each encoded value starts with a format version byte. Repeating strings (langs, regexes and
+ * types) are written once into a value local dictionary and referred by index, UUIDs are written
+ * as two longs and strings are length prefixed.
+ */
+final class NodeStoredFields {
+
+  /**
+   * Version of the whole node document layout. Index is rebuilt if version in index differs.
+   */
+  static final String DOCUMENT_FORMAT_VERSION = "5";
+  static final String DOCUMENT_FORMAT_VERSION_KEY = "termed.node.documentFormatVersion";
+
+  /**
+   * Oldest document format version with stored fields in the current encoding. Index of a readable
+   * older format serves searches while it is rebuilt, fields added by later formats are missing
+   * from its documents until then (e.g. such sort fields sort as missing values).
+   */
+  private static final int MIN_READABLE_DOCUMENT_FORMAT_VERSION = 2;
+
+  /**
+   * Commit data key of the greatest revision such that all node revisions up to it are indexed.
+   */
+  static final String INDEXED_REVISION_KEY = "termed.node.indexedRevision";
+
+  private static final byte PROPERTIES_V1 = 1;
+  private static final byte NODE_IDS_V1 = 1;
+
+  private NodeStoredFields() {
+  }
+
+  /**
+   * Returns true if documents of given format version can be decoded. Index without a recorded
+   * version is of format 1.
+   */
+  static boolean isReadableDocumentFormat(Optional<String> version) {
+    try {
+      return Integer.parseInt(version.orElse("1")) >= MIN_READABLE_DOCUMENT_FORMAT_VERSION;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  // properties: version, langs, regexes, values as (lang index, regex index, value)
+  static byte[] encodeProperties(Collection<StrictLangValue> values) {
+    Map<String, Integer> langs = new LinkedHashMap<>();
+    Map<String, Integer> regexes = new LinkedHashMap<>();
+
+    for (StrictLangValue value : values) {
+      langs.putIfAbsent(value.getLang(), langs.size());
+      regexes.putIfAbsent(value.getRegex(), regexes.size());
+    }
+
+    try {
+      GrowableByteArrayDataOutput out = new GrowableByteArrayDataOutput(64);
+      out.writeByte(PROPERTIES_V1);
+      writeDictionary(out, langs.keySet());
+      writeDictionary(out, regexes.keySet());
+      out.writeVInt(values.size());
+      for (StrictLangValue value : values) {
+        out.writeVInt(langs.get(value.getLang()));
+        out.writeVInt(regexes.get(value.getRegex()));
+        writeNullableString(out, value.getValue());
+      }
+      return Arrays.copyOf(out.getBytes(), out.getPosition());
+    } catch (IOException e) {
+      throw new LuceneException(e);
+    }
+  }
+
+  static void decodeProperties(String attributeId, byte[] bytes,
+      ImmutableMultimap.Builder<String, StrictLangValue> builder) {
+    ByteArrayDataInput in = new ByteArrayDataInput(bytes);
+    checkVersion(in.readByte(), PROPERTIES_V1);
+
+    try {
+      String[] langs = readDictionary(in);
+      String[] regexes = readDictionary(in);
+
+      int valueCount = in.readVInt();
+      for (int i = 0; i < valueCount; i++) {
+        String lang = langs[in.readVInt()];
+        String regex = regexes[in.readVInt()];
+        builder.put(attributeId, new StrictLangValue(lang, readNullableString(in), regex));
+      }
+    } catch (IOException e) {
+      throw new LuceneException(e);
+    }
+  }
+
+  // node ids: version, types as (graph id, type id), ids as (type index, id)
+  static byte[] encodeNodeIds(Collection<NodeId> nodeIds) {
+    Map<TypeId, Integer> types = new LinkedHashMap<>();
+
+    for (NodeId nodeId : nodeIds) {
+      types.putIfAbsent(nodeId.getType(), types.size());
+    }
+
+    try {
+      GrowableByteArrayDataOutput out = new GrowableByteArrayDataOutput(
+          1 + types.size() * 24 + nodeIds.size() * 17);
+      out.writeByte(NODE_IDS_V1);
+      out.writeVInt(types.size());
+      for (TypeId type : types.keySet()) {
+        writeUuid(out, type.getGraphId());
+        out.writeString(type.getId());
+      }
+      out.writeVInt(nodeIds.size());
+      for (NodeId nodeId : nodeIds) {
+        out.writeVInt(types.get(nodeId.getType()));
+        writeUuid(out, nodeId.getId());
+      }
+      return Arrays.copyOf(out.getBytes(), out.getPosition());
+    } catch (IOException e) {
+      throw new LuceneException(e);
+    }
+  }
+
+  static void decodeNodeIds(String attributeId, byte[] bytes,
+      ImmutableMultimap.Builder<String, NodeId> builder) {
+    ByteArrayDataInput in = new ByteArrayDataInput(bytes);
+    checkVersion(in.readByte(), NODE_IDS_V1);
+
+    try {
+      TypeId[] types = new TypeId[in.readVInt()];
+      for (int i = 0; i < types.length; i++) {
+        UUID graphId = readUuid(in);
+        types[i] = TypeId.of(in.readString(), graphId);
+      }
+
+      int idCount = in.readVInt();
+      for (int i = 0; i < idCount; i++) {
+        TypeId type = types[in.readVInt()];
+        builder.put(attributeId, NodeId.of(readUuid(in), type));
+      }
+    } catch (IOException e) {
+      throw new LuceneException(e);
+    }
+  }
+
+  private static void checkVersion(byte version, byte expected) {
+    if (version != expected) {
+      throw new IllegalStateException("Unsupported stored field version: " + version);
+    }
+  }
+
+  private static void writeDictionary(GrowableByteArrayDataOutput out, Collection<String> values)
+      throws IOException {
+    out.writeVInt(values.size());
+    for (String value : values) {
+      writeNullableString(out, value);
+    }
+  }
+
+  private static String[] readDictionary(ByteArrayDataInput in) throws IOException {
+    String[] values = new String[in.readVInt()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = readNullableString(in);
+    }
+    return values;
+  }
+
+  // null is written as a single zero byte, non-null as one byte followed by length prefixed UTF-8
+  private static void writeNullableString(GrowableByteArrayDataOutput out, String value)
+      throws IOException {
+    if (value == null) {
+      out.writeByte((byte) 0);
+    } else {
+      out.writeByte((byte) 1);
+      out.writeString(value);
+    }
+  }
+
+  private static String readNullableString(ByteArrayDataInput in) throws IOException {
+    return in.readByte() == 0 ? null : in.readString();
+  }
+
+  private static void writeUuid(GrowableByteArrayDataOutput out, UUID uuid) throws IOException {
+    out.writeLong(uuid.getMostSignificantBits());
+    out.writeLong(uuid.getLeastSignificantBits());
+  }
+
+  private static UUID readUuid(ByteArrayDataInput in) {
+    return new UUID(in.readLong(), in.readLong());
+  }
+
+}
@@ -0,0 +1,30 @@
+package fi.thl.termed.service.node.internal;
+
+import com.google.common.collect.ImmutableSet;
+import fi.thl.termed.domain.NodeAttributeValueId;
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.StrictLangValue;
+import fi.thl.termed.util.query.AbstractSqlSpecification;
+import fi.thl.termed.util.query.ParametrizedSqlQuery;
+import java.util.Collection;
+
+public class NodeTextAttributeValuesByNodeIds
+    extends AbstractSqlSpecification<NodeAttributeValueId, StrictLangValue> {
+
+  private ImmutableSet<NodeId> nodeIds;
+
+  public NodeTextAttributeValuesByNodeIds(Collection<NodeId> nodeIds) {
+    this.nodeIds = ImmutableSet.copyOf(nodeIds);
+  }
+
+  @Override
+  public boolean test(NodeAttributeValueId attributeValueId, StrictLangValue langValue) {
+    return nodeIds.contains(attributeValueId.getNodeId());
+  }
+
+  @Override
+  public ParametrizedSqlQuery sql() {
+    return NodeIdSqlQueries.byNodeIds("node_", nodeIds);
+  }
+
+}
@@ -2,11 +2,8 @@ package fi.thl.termed.service.node.internal;
 
 import static fi.thl.termed.util.index.lucene.LuceneConstants.MAX_SAFE_TERM_LENGTH_IN_UTF8_CHARS;
 import static java.lang.Integer.min;
-import static java.util.stream.Collectors.joining;
 
 import com.google.common.collect.Multimap;
-import com.google.common.primitives.Longs;
-import com.google.gson.Gson;
 import fi.thl.termed.domain.Node;
 import fi.thl.termed.domain.NodeId;
 import fi.thl.termed.domain.StrictLangValue;
@@ -21,7 +18,9 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
@@ -29,7 +28,8 @@ import org.apache.lucene.util.BytesRef;
 
 public class NodeToDocument implements Function<Node, Document> {
 
-  private static final Gson gson = new Gson();
+  // longer property values are not counted in facets
+  private static final int MAX_FACET_VALUE_LENGTH = 500;
 
   @Override
   public Document apply(Node n) {
@@ -38,7 +38,10 @@ public class NodeToDocument implements Function<Node, Document> {
     String qualifier = UUIDs.toString(n.getTypeGraphId()) + "." + n.getTypeId();
 
     doc.add(storedStringField("type.graph.id", n.getTypeGraphId()));
+    doc.add(sortableField("type.graph.id.sortable", UUIDs.toString(n.getTypeGraphId())));
     doc.add(storedStringField("type.id", n.getTypeId()));
+    doc.add(sortableField("type.id.sortable", n.getTypeId()));
+    doc.add(facetField("type.id", n.getTypeId()));
     doc.add(storedStringField("id", n.getId()));
 
     doc.add(storedStringField("code", n.getCode().orElse("")));
@@ -51,9 +54,11 @@ public class NodeToDocument implements Function<Node, Document> {
     doc.add(storedStringField("lastModifiedBy", n.getLastModifiedBy()));
     doc.add(storedStringField("lastModifiedDate", n.getLastModifiedDate()));
 
-    doc.add(sortableField("number.sortable", n.getNumber()));
-    doc.add(sortableField("createdDate.sortable", n.getCreatedDate()));
-    doc.add(sortableField("lastModifiedDate.sortable", n.getLastModifiedDate()));
+    doc.add(numericField("number.long", n.getNumber()));
+    doc.add(longField("createdDate.long", n.getCreatedDate()));
+    doc.add(numericField("createdDate.long", n.getCreatedDate()));
+    doc.add(longField("lastModifiedDate.long", n.getLastModifiedDate()));
+    doc.add(numericField("lastModifiedDate.long", n.getLastModifiedDate()));
 
     addProperties(doc, qualifier, n.getProperties());
     addReferences(doc, qualifier, n.getReferences());
@@ -66,7 +71,8 @@ public class NodeToDocument implements Function<Node, Document> {
       Multimap<String, StrictLangValue> properties) {
 
     properties.asMap().forEach((property, langValues) -> {
-      doc.add(storedField(qualifier + ".properties." + property, gson.toJson(langValues)));
+      doc.add(storedField(qualifier + ".properties." + property,
+          NodeStoredFields.encodeProperties(langValues)));
 
       Set<String> sortFieldAddedForLang = new HashSet<>();
       for (StrictLangValue langValue : langValues) {
@@ -82,6 +88,9 @@ public class NodeToDocument implements Function<Node, Document> {
       Set<String> sortFieldAddedForLang) {
     doc.add(textField("properties." + property, val));
     doc.add(stringField("properties." + property + ".string", val));
+    if (val.length() <= MAX_FACET_VALUE_LENGTH) {
+      doc.add(facetField("properties." + property + ".string", val));
+    }
     if (!sortFieldAddedForLang.contains("")) {
       doc.add(sortableField("properties." + property + ".sortable", val.toLowerCase()));
       sortFieldAddedForLang.add("");
@@ -101,11 +110,12 @@ public class NodeToDocument implements Function<Node, Document> {
   private void addReferences(Document doc, String qualifier, Multimap<String, NodeId> references) {
     references.asMap().forEach((property, values) -> {
       doc.add(storedField(qualifier + ".references." + property,
-          values.stream().map(NodeId::toString).collect(joining(","))));
+          NodeStoredFields.encodeNodeIds(values)));
 
       values.forEach(value -> {
         doc.add(stringField("references.nodeId", value.toString()));
         doc.add(stringField("references." + property + ".nodeId", value.toString()));
+        doc.add(facetField("references." + property + ".nodeId", value.toString()));
 
         doc.add(stringField("references." + property + ".id", value.getId()));
         doc.add(stringField("references." + property + ".type.id", value.getTypeId()));
@@ -117,7 +127,7 @@ public class NodeToDocument implements Function<Node, Document> {
   private void addReferrers(Document doc, String qualifier, Multimap<String, NodeId> referrers) {
     referrers.asMap().forEach((property, values) -> {
       doc.add(storedField(qualifier + ".referrers." + property,
-          values.stream().map(NodeId::toString).collect(joining(","))));
+          NodeStoredFields.encodeNodeIds(values)));
 
       values.forEach(value -> {
         doc.add(stringField("referrers.nodeId", value.toString()));
@@ -148,6 +158,18 @@ public class NodeToDocument implements Function<Node, Document> {
     return new LongPoint(name, value);
   }
 
+  private Field longField(String name, LocalDateTime value) {
+    return new LongPoint(name, DateUtils.toLuceneDateLong(value));
+  }
+
+  private Field numericField(String name, Long value) {
+    return new NumericDocValuesField(name, value);
+  }
+
+  private Field numericField(String name, LocalDateTime value) {
+    return new NumericDocValuesField(name, DateUtils.toLuceneDateLong(value));
+  }
+
   private Field storedStringField(String name, String value) {
     return new StringField(name,
         value.substring(0, min(MAX_SAFE_TERM_LENGTH_IN_UTF8_CHARS, value.length())),
@@ -168,16 +190,11 @@ public class NodeToDocument implements Function<Node, Document> {
             value.substring(0, min(MAX_SAFE_TERM_LENGTH_IN_UTF8_CHARS, value.length()))));
   }
 
-  private Field sortableField(String name, LocalDateTime value) {
-    return new SortedDocValuesField(name,
-        new BytesRef(DateUtils.formatLuceneDateString(value)));
-  }
-
-  private Field sortableField(String name, Long value) {
-    return new SortedDocValuesField(name, new BytesRef(Longs.toByteArray(value)));
+  private Field facetField(String name, String value) {
+    return new SortedSetDocValuesField(name, new BytesRef(value));
   }
 
-  private Field storedField(String name, String value) {
+  private Field storedField(String name, byte[] value) {
     return new StoredField(name, value);
   }
 
@@ -104,7 +104,7 @@ public class ReadAuthorizedNodeService implements Service<NodeId, Node> {
     return keys.filter(id -> nodeEvaluator.hasPermission(user, id, Permission.READ));
   }
 
-  private Stream<Node> filterValues(Stream<Node> values, User user) {
+  Stream<Node> filterValues(Stream<Node> values, User user) {
     return values.filter(r -> nodeEvaluator.hasPermission(user, new NodeId(r), Permission.READ))
         .map(new AttributePermissionFilter(user, Permission.READ));
   }
@@ -2,6 +2,7 @@ package fi.thl.termed.service.node.sort;
 
 import static fi.thl.termed.util.RegularExpressions.CODE;
 import static fi.thl.termed.util.query.Sorts.sort;
+import static fi.thl.termed.util.query.Sorts.sortLong;
 import static org.jparsercombinator.ParserCombinators.regex;
 import static org.jparsercombinator.ParserCombinators.regexMatchResult;
 
@@ -18,15 +19,15 @@ class NodeSortParser implements Parser<List<Sort>> {
   NodeSortParser() {
     ParserCombinator<Sort> sortNumberParser =
         regexMatchResult("(number|n)(\\.sortable)?([ +](asc|desc))?")
-            .map(m -> sort("number", "desc".equals(m.group(4))));
+            .map(m -> sortLong("number", "desc".equals(m.group(4))));
 
     ParserCombinator<Sort> sortCreatedDateParser =
         regexMatchResult("createdDate(\\.sortable)?([ +](asc|desc))?")
-            .map(m -> sort("createdDate", "desc".equals(m.group(3))));
+            .map(m -> sortLong("createdDate", "desc".equals(m.group(3))));
 
     ParserCombinator<Sort> sortLastModifiedDateParser =
         regexMatchResult("lastModifiedDate(\\.sortable)?([ +](asc|desc))?")
-            .map(m -> sort("lastModifiedDate", "desc".equals(m.group(3))));
+            .map(m -> sortLong("lastModifiedDate", "desc".equals(m.group(3))));
 
     ParserCombinator<Sort> sortProperty =
         regexMatchResult(
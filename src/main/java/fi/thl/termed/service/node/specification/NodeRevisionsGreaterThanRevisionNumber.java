@@ -0,0 +1,36 @@
+package fi.thl.termed.service.node.specification;
+
+import static java.util.Objects.requireNonNull;
+
+import fi.thl.termed.domain.Node;
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.RevisionId;
+import fi.thl.termed.domain.RevisionType;
+import fi.thl.termed.util.collect.Tuple2;
+import fi.thl.termed.util.query.AbstractSqlSpecification;
+import fi.thl.termed.util.query.ParametrizedSqlQuery;
+
+public class NodeRevisionsGreaterThanRevisionNumber extends
+    AbstractSqlSpecification<RevisionId<NodeId>, Tuple2<RevisionType, Node>> {
+
+  private Long revision;
+
+  public NodeRevisionsGreaterThanRevisionNumber(Long revision) {
+    this.revision = requireNonNull(revision);
+  }
+
+  public static NodeRevisionsGreaterThanRevisionNumber of(Long revision) {
+    return new NodeRevisionsGreaterThanRevisionNumber(revision);
+  }
+
+  @Override
+  public boolean test(RevisionId<NodeId> key, Tuple2<RevisionType, Node> value) {
+    return key.getRevision() > revision;
+  }
+
+  @Override
+  public ParametrizedSqlQuery sql() {
+    return ParametrizedSqlQuery.of("revision > ?", revision);
+  }
+
+}
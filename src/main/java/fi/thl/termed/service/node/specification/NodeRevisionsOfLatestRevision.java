@@ -0,0 +1,27 @@
+package fi.thl.termed.service.node.specification;
+
+import fi.thl.termed.domain.Node;
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.RevisionId;
+import fi.thl.termed.domain.RevisionType;
+import fi.thl.termed.util.collect.Tuple2;
+import fi.thl.termed.util.query.AbstractSqlSpecification;
+import fi.thl.termed.util.query.ParametrizedSqlQuery;
+
+/**
+ * Node revisions of the greatest revision number in node_aud. Can be evaluated only in database.
+ */
+public class NodeRevisionsOfLatestRevision extends
+    AbstractSqlSpecification<RevisionId<NodeId>, Tuple2<RevisionType, Node>> {
+
+  @Override
+  public boolean test(RevisionId<NodeId> key, Tuple2<RevisionType, Node> value) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public ParametrizedSqlQuery sql() {
+    return ParametrizedSqlQuery.of("revision = (select max(revision) from node_aud)");
+  }
+
+}
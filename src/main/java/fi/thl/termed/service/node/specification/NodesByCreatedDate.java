@@ -12,9 +12,8 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import org.apache.lucene.document.LongPoint;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.TermRangeQuery;
-import org.apache.lucene.util.BytesRef;
 
 public class NodesByCreatedDate
     implements LuceneSpecification<NodeId, Node>, SqlSpecification<NodeId, Node> {
@@ -40,10 +39,9 @@ public class NodesByCreatedDate
 
   @Override
   public Query luceneQuery() {
-    return new TermRangeQuery("createdDate",
-        lower != null ? new BytesRef(DateUtils.formatLuceneDateString(lower)) : null,
-        upper != null ? new BytesRef(DateUtils.formatLuceneDateString(upper)) : null,
-        true, true);
+    return LongPoint.newRangeQuery("createdDate.long",
+        lower != null ? DateUtils.toLuceneDateLong(lower) : Long.MIN_VALUE,
+        upper != null ? DateUtils.toLuceneDateLong(upper) : Long.MAX_VALUE);
   }
 
   @Override
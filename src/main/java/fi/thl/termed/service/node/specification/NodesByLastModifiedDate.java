@@ -12,9 +12,8 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import org.apache.lucene.document.LongPoint;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.TermRangeQuery;
-import org.apache.lucene.util.BytesRef;
 
 public class NodesByLastModifiedDate
     implements LuceneSpecification<NodeId, Node>, SqlSpecification<NodeId, Node> {
@@ -40,10 +39,9 @@ public class NodesByLastModifiedDate
 
   @Override
   public Query luceneQuery() {
-    return new TermRangeQuery("lastModifiedDate",
-        lower != null ? new BytesRef(DateUtils.formatLuceneDateString(lower)) : null,
-        upper != null ? new BytesRef(DateUtils.formatLuceneDateString(upper)) : null,
-        true, true);
+    return LongPoint.newRangeQuery("lastModifiedDate.long",
+        lower != null ? DateUtils.toLuceneDateLong(lower) : Long.MIN_VALUE,
+        upper != null ? DateUtils.toLuceneDateLong(upper) : Long.MAX_VALUE);
   }
 
   @Override
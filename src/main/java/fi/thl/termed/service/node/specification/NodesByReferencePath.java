@@ -1,30 +1,34 @@
 package fi.thl.termed.service.node.specification;
 
+import static fi.thl.termed.util.index.lucene.LuceneConstants.DOCUMENT_ID_SORTABLE;
 import static java.util.stream.Collectors.toSet;
 
 import com.google.common.base.Preconditions;
 import fi.thl.termed.domain.Node;
 import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.util.index.lucene.TermsJoinQuery;
 import fi.thl.termed.util.query.DependentSpecification;
 import fi.thl.termed.util.query.LuceneSpecification;
 import fi.thl.termed.util.query.Specification;
+import fi.thl.termed.util.query.UnresolvedSpecificationException;
 import java.util.Objects;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Stream;
-import org.apache.lucene.index.Term;
-import org.apache.lucene.search.BooleanClause.Occur;
-import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.TermQuery;
 
+/**
+ * Matches nodes referring to nodes matching the value specification. Evaluated in index as a join
+ * from ids of matching value nodes to reference fields, value node ids are never loaded. Evaluating
+ * outside of the index (test) requires resolving value node ids first.
+ */
 public class NodesByReferencePath implements LuceneSpecification<NodeId, Node>,
     DependentSpecification<NodeId, Node> {
 
   private final String attributeId;
   private final Specification<NodeId, Node> valueSpecification;
 
-  private Set<NodeId> valueNodeIds;
+  private volatile Set<NodeId> valueNodeIds;
 
   public NodesByReferencePath(String attributeId,
       Specification<NodeId, Node> valueSpecification) {
@@ -52,19 +56,38 @@ public class NodesByReferencePath implements LuceneSpecification<NodeId, Node>,
 
   @Override
   public boolean test(NodeId nodeId, Node node) {
-    Preconditions.checkArgument(Objects.equals(nodeId, new NodeId(node)));
-    Preconditions.checkNotNull(valueNodeIds, "Value IDs not resolved.");
-    return node.getReferences().get(attributeId).stream().anyMatch(v -> valueNodeIds.contains(v));
+    Set<NodeId> ids = valueNodeIds;
+    if (ids == null) {
+      throw new UnresolvedSpecificationException("Value IDs not resolved.");
+    }
+    return node.getReferences().get(attributeId).stream().anyMatch(ids::contains);
   }
 
   @Override
   public Query luceneQuery() {
-    Preconditions.checkNotNull(valueNodeIds, "Value IDs not resolved.");
-    BooleanQuery.Builder clauses = new BooleanQuery.Builder();
-    valueNodeIds.forEach(valueNodeId -> clauses.add(
-        new TermQuery(new Term("references." + attributeId + ".nodeId", valueNodeId.toString())),
-        Occur.SHOULD));
-    return clauses.build();
+    Preconditions.checkState(valueSpecification instanceof LuceneSpecification,
+        "Reference path value must be an index query");
+    return new TermsJoinQuery(DOCUMENT_ID_SORTABLE,
+        ((LuceneSpecification<NodeId, Node>) valueSpecification).luceneQuery(),
+        "references." + attributeId + ".nodeId");
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    NodesByReferencePath that = (NodesByReferencePath) o;
+    return Objects.equals(attributeId, that.attributeId) &&
+        Objects.equals(valueSpecification, that.valueSpecification);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(attributeId, valueSpecification);
   }
 
   @Override
@@ -1,6 +1,7 @@
 package fi.thl.termed.util;
 
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 
 public final class DateUtils {
@@ -19,4 +20,9 @@ public final class DateUtils {
     return LUCENE_FORMATTER.format(date);
   }
 
+  // epoch millis of date as if in UTC, preserves order of local date times
+  public static long toLuceneDateLong(LocalDateTime date) {
+    return date.toInstant(ZoneOffset.UTC).toEpochMilli();
+  }
+
 }
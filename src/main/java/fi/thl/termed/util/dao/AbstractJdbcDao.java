@@ -17,20 +17,33 @@ import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.RowMapper;
 
 /**
- * Base class to help with implementing a JDBC Dao.
+ * Base class to help with implementing a JDBC Dao. Stream versions of insert, update and delete
+ * run single entry operations so that their updates are sent as JDBC batches of given size.
  */
 public abstract class AbstractJdbcDao<K extends Serializable, V> implements SystemDao<K, V> {
 
   protected final Logger log = LoggerFactory.getLogger(getClass());
 
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
   protected StreamingJdbcTemplate jdbcTemplate;
 
+  private final int batchSize;
   private final RowMapper<K> keyMapper;
   private final RowMapper<V> valueMapper;
   private final RowMapper<Tuple2<K, V>> entryMapper;
 
   public AbstractJdbcDao(DataSource dataSource) {
+    this(dataSource, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * @param batchSize max number of statements sent in one JDBC batch, one or less executes each
+   * statement separately
+   */
+  public AbstractJdbcDao(DataSource dataSource, int batchSize) {
     this.jdbcTemplate = new StreamingJdbcTemplate(dataSource);
+    this.batchSize = batchSize;
 
     this.keyMapper = buildKeyMapper();
     this.valueMapper = buildValueMapper();
@@ -44,17 +57,17 @@ public abstract class AbstractJdbcDao<K extends Serializable, V> implements Syst
 
   @Override
   public void insert(Stream<Tuple2<K, V>> entries) {
-    forEachAndClose(entries, e -> insert(e._1, e._2));
+    jdbcTemplate.inBatches(batchSize, () -> forEachAndClose(entries, e -> insert(e._1, e._2)));
   }
 
   @Override
   public void update(Stream<Tuple2<K, V>> entries) {
-    forEachAndClose(entries, e -> update(e._1, e._2));
+    jdbcTemplate.inBatches(batchSize, () -> forEachAndClose(entries, e -> update(e._1, e._2)));
   }
 
   @Override
   public void delete(Stream<K> keys) {
-    forEachAndClose(keys, this::delete);
+    jdbcTemplate.inBatches(batchSize, () -> forEachAndClose(keys, this::delete));
   }
 
   @Override
@@ -4,16 +4,25 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static fi.thl.termed.util.postgresql.CopyManagerUtils.copyInAsCsv;
 import static java.lang.String.format;
 import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toList;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterators;
 import fi.thl.termed.util.collect.Tuple2;
+import fi.thl.termed.util.postgresql.BinaryCopyWriter;
+import fi.thl.termed.util.postgresql.CopyFormat;
+import fi.thl.termed.util.postgresql.CopyManagerUtils;
+import java.io.IOException;
 import java.io.Serializable;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
 import java.util.stream.Stream;
 import javax.sql.DataSource;
 import org.postgresql.core.BaseConnection;
@@ -24,6 +33,19 @@ import org.springframework.jdbc.datasource.DataSourceUtils;
 /**
  * Implements faster bulk insert for Postgres. If backed database is not Postgres, forwards insert
  * to delegate.
+ *
+ * <p>Entries are copied with COPY FROM STDIN in batches. Each batch is read from the stream
+ * before its COPY is started, as reading entries may run queries (e.g. permission checks) on the
+ * same connection, which can't be used while COPY is in progress. Rows are encoded with {@link #toRow(Serializable, Object)} as CSV or, if DAO is constructed with
+ * {@link CopyFormat#BINARY}, with {@link #writeRow(Serializable, Object, BinaryCopyWriter)} in
+ * binary format.
+ *
+ * <p>If {@link #keyColumnTypes()} is given, deletes are done in batches with one {@code DELETE
+ * ... USING unnest(...)} statement per batch, keys being passed as column arrays.
+ *
+ * <p>If {@link #skipConflictingInserts()} is true, inserts are done similarly with one {@code
+ * INSERT ... SELECT FROM unnest(...) ON CONFLICT DO NOTHING} statement per batch, as COPY can't
+ * skip rows that conflict with existing ones.
  */
 public abstract class AbstractJdbcPostgresDao<K extends Serializable, V> extends
     ForwardingSystemDao<K, V> {
@@ -36,6 +58,7 @@ public abstract class AbstractJdbcPostgresDao<K extends Serializable, V> extends
   private final DataSource dataSource;
   private final String table;
   private final int batchSize;
+  private final CopyFormat copyFormat;
 
   private final boolean analyze;
 
@@ -48,18 +71,30 @@ public abstract class AbstractJdbcPostgresDao<K extends Serializable, V> extends
     this(delegate, dataSource, table, DEFAULT_BATCH_SIZE, analyze);
   }
 
+  public AbstractJdbcPostgresDao(SystemDao<K, V> delegate, DataSource dataSource, String table,
+      boolean analyze, CopyFormat copyFormat) {
+    this(delegate, dataSource, table, DEFAULT_BATCH_SIZE, analyze, copyFormat);
+  }
+
   public AbstractJdbcPostgresDao(SystemDao<K, V> delegate, DataSource dataSource, String table,
       int batchSize, boolean analyze) {
+    this(delegate, dataSource, table, batchSize, analyze, CopyFormat.CSV);
+  }
+
+  public AbstractJdbcPostgresDao(SystemDao<K, V> delegate, DataSource dataSource, String table,
+      int batchSize, boolean analyze, CopyFormat copyFormat) {
     super(delegate);
 
     requireNonNull(dataSource);
     requireNonNull(table);
     checkArgument(table.matches("[a-zA-Z_]+"));
     checkArgument(batchSize > 0);
+    requireNonNull(copyFormat);
 
     this.dataSource = dataSource;
     this.table = table;
     this.batchSize = batchSize;
+    this.copyFormat = copyFormat;
     this.analyze = analyze;
   }
 
@@ -68,6 +103,10 @@ public abstract class AbstractJdbcPostgresDao<K extends Serializable, V> extends
     Connection c = DataSourceUtils.getConnection(dataSource);
 
     try {
+      if (c.isWrapperFor(BaseConnection.class) && skipConflictingInserts()) {
+        insertWithArrays(c.unwrap(BaseConnection.class), entries, keyColumnTypes());
+        return;
+      }
       if (c.isWrapperFor(BaseConnection.class)) {
         copyIn(c.unwrap(BaseConnection.class), entries);
         return;
@@ -81,28 +120,158 @@ public abstract class AbstractJdbcPostgresDao<K extends Serializable, V> extends
     super.insert(entries);
   }
 
+  @Override
+  public void delete(Stream<K> keys) {
+    Map<String, String> keyColumnTypes = keyColumnTypes();
+
+    if (!keyColumnTypes.isEmpty()) {
+      Connection c = DataSourceUtils.getConnection(dataSource);
+
+      try {
+        if (c.isWrapperFor(BaseConnection.class)) {
+          deleteWithArrays(c.unwrap(BaseConnection.class), keys, keyColumnTypes);
+          return;
+        }
+      } catch (SQLException e) {
+        throw new RuntimeException(e);
+      } finally {
+        DataSourceUtils.releaseConnection(c, dataSource);
+      }
+    }
+
+    super.delete(keys);
+  }
+
+  private void deleteWithArrays(BaseConnection connection, Stream<K> keys,
+      Map<String, String> keyColumnTypes) {
+    List<String> columns = new ArrayList<>(keyColumnTypes.keySet());
+    List<String> types = new ArrayList<>(keyColumnTypes.values());
+
+    String sql = format("DELETE FROM %s t USING unnest(%s) AS k(%s) WHERE %s", table,
+        types.stream().map(type -> "?::" + type + "[]").collect(joining(", ")),
+        String.join(", ", columns),
+        columns.stream().map(column -> "t." + column + " = k." + column).collect(joining(" AND ")));
+
+    try (Stream<K> closeable = keys;
+        PreparedStatement statement = connection.prepareStatement(sql)) {
+      Iterator<List<K>> batches = Iterators.partition(closeable.iterator(), batchSize);
+
+      while (batches.hasNext()) {
+        List<Object[]> rows = batches.next().stream().map(this::toKeyRow).collect(toList());
+        setColumnArrays(connection, statement, types, rows);
+        log.trace("Deleted {} rows from {}", statement.executeUpdate(), table);
+      }
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void insertWithArrays(BaseConnection connection, Stream<Tuple2<K, V>> entries,
+      Map<String, String> columnTypes) {
+    List<String> columns = new ArrayList<>(columnTypes.keySet());
+    List<String> types = new ArrayList<>(columnTypes.values());
+
+    String sql = format("INSERT INTO %s (%s) SELECT * FROM unnest(%s) ON CONFLICT DO NOTHING",
+        table,
+        String.join(", ", columns),
+        types.stream().map(type -> "?::" + type + "[]").collect(joining(", ")));
+
+    try (Stream<Tuple2<K, V>> closeable = entries;
+        PreparedStatement statement = connection.prepareStatement(sql)) {
+      Iterator<List<Tuple2<K, V>>> batches =
+          Iterators.partition(closeable.iterator(), batchSize);
+
+      while (batches.hasNext()) {
+        List<Object[]> rows = batches.next().stream()
+            .map(entry -> toKeyRow(entry._1))
+            .collect(toList());
+        setColumnArrays(connection, statement, types, rows);
+        log.trace("Inserted {} rows into {}", statement.executeUpdate(), table);
+      }
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void setColumnArrays(BaseConnection connection, PreparedStatement statement,
+      List<String> types, List<Object[]> rows) throws SQLException {
+    for (int i = 0; i < types.size(); i++) {
+      int column = i;
+      statement.setArray(i + 1, connection.createArrayOf(types.get(i),
+          rows.stream().map(row -> row[column]).toArray()));
+    }
+  }
+
+  /**
+   * If true, inserted rows that conflict with existing rows (e.g. by primary key) are skipped.
+   * Requires {@link #keyColumnTypes()} to list all columns of the table. By default false.
+   */
+  protected boolean skipConflictingInserts() {
+    return false;
+  }
+
+  /**
+   * Key columns of the table mapped to their Postgres types in key row order, e.g. {@code
+   * graph_id -> uuid}. By default no columns are given and deletes are forwarded to delegate.
+   */
+  protected Map<String, String> keyColumnTypes() {
+    return ImmutableMap.of();
+  }
+
+  /**
+   * Converts key to column values in {@link #keyColumnTypes()} order, required if key columns are
+   * given.
+   */
+  protected Object[] toKeyRow(K key) {
+    throw new UnsupportedOperationException();
+  }
+
   private void copyIn(BaseConnection connection, Stream<Tuple2<K, V>> entries) {
-    AtomicInteger insertCount = new AtomicInteger(0);
+    long insertCount = 0;
 
     try (Stream<Tuple2<K, V>> closeable = entries) {
-      Iterators.partition(closeable.iterator(), batchSize).forEachRemaining(batch -> {
-        log.trace("Copying {} rows into {}", batch.size(), table);
-        copyInAsCsv(connection, format("COPY %s FROM STDIN CSV", table), toRows(batch));
-        insertCount.getAndAdd(batch.size());
-      });
+      Iterator<List<Tuple2<K, V>>> batches =
+          Iterators.partition(closeable.iterator(), batchSize);
+      while (batches.hasNext()) {
+        insertCount += copyInBatch(connection, batches.next());
+      }
     }
 
-    if (analyze && insertCount.get() > ANALYZE_LIMIT) {
+    if (analyze && insertCount > ANALYZE_LIMIT) {
       analyzeTable(connection);
     }
   }
 
-  private List<String[]> toRows(List<Tuple2<K, V>> tuples) {
-    return tuples.stream().map(t -> toRow(t._1, t._2)).collect(toList());
+  private long copyInBatch(BaseConnection connection, List<Tuple2<K, V>> batch) {
+    long count;
+
+    if (copyFormat == CopyFormat.BINARY) {
+      count = CopyManagerUtils.copyIn(connection,
+          format("COPY %s FROM STDIN (FORMAT binary)", table), out -> {
+            BinaryCopyWriter writer = new BinaryCopyWriter(out);
+            for (Tuple2<K, V> entry : batch) {
+              writeRow(entry._1, entry._2, writer);
+            }
+            writer.finish();
+          });
+    } else {
+      count = copyInAsCsv(connection, format("COPY %s FROM STDIN CSV", table),
+          Iterators.transform(batch.iterator(), entry -> toRow(entry._1, entry._2)));
+    }
+
+    log.trace("Copied {} rows into {}", count, table);
+    return count;
   }
 
   protected abstract String[] toRow(K key, V value);
 
+  /**
+   * Writes entry as a row in binary COPY format, required if DAO uses {@link CopyFormat#BINARY}.
+   */
+  protected void writeRow(K key, V value, BinaryCopyWriter writer) throws IOException {
+    throw new UnsupportedOperationException();
+  }
+
   private void analyzeTable(BaseConnection c) {
     try (Statement s = c.createStatement()) {
       log.trace("Analyzing {}", table);
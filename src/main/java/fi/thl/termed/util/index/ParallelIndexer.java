@@ -0,0 +1,222 @@
+package fi.thl.termed.util.index;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.Iterators;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Indexes values of keys in batches. Calling thread reads key batches and hands them to indexing
+ * threads that load values of a batch at once (e.g. with a single query) and write them to index.
+ * Number of batches waiting for a thread is bounded, so reading keys is paced by indexing. Progress
+ * of long runs is logged periodically with throughput and estimated time left.
+ */
+public class ParallelIndexer<K, V> implements AutoCloseable {
+
+  private static final long PROGRESS_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  private final ExecutorService executor;
+  private final int batchSize;
+  private final int maxQueuedBatches;
+
+  /**
+   * @param threads number of indexing threads, zero or negative value indexes all batches in the
+   * calling thread
+   * @param batchSize number of keys loaded at once
+   */
+  public ParallelIndexer(String name, int threads, int batchSize) {
+    checkArgument(batchSize > 0, "batchSize must be positive");
+    this.executor = threads > 0
+        ? Executors.newFixedThreadPool(threads, new IndexingThreadFactory(name))
+        : null;
+    this.batchSize = batchSize;
+    this.maxQueuedBatches = Math.max(threads, 1) * 2;
+  }
+
+  /**
+   * Indexes values of given keys, returns when all are written. Fails with the first error of any
+   * batch, batches read before the error may still be written.
+   *
+   * @param keys keys to index, stream is closed when done
+   * @param keyCount number of keys for progress reporting, negative if not known
+   * @param loader loads values of given keys, keys without a loaded value are missing
+   * @param writer writes value of a key, empty if value is missing
+   * @param inCallingThread index all batches in the calling thread, e.g. if loader must see
+   * uncommitted changes of the calling thread
+   */
+  public void index(Stream<K> keys, long keyCount,
+      Function<List<K>, Map<K, V>> loader,
+      BiConsumer<K, Optional<V>> writer,
+      boolean inCallingThread) {
+
+    Progress progress = new Progress(keyCount);
+
+    try (Stream<K> closeable = keys) {
+      Iterator<List<K>> batches = Iterators.partition(closeable.iterator(), batchSize);
+
+      if (!batches.hasNext()) {
+        return;
+      }
+
+      List<K> first = batches.next();
+
+      // small runs are not worth handing off to other threads
+      if (executor == null || inCallingThread || !batches.hasNext()) {
+        indexBatch(first, loader, writer, progress);
+        batches.forEachRemaining(batch -> indexBatch(batch, loader, writer, progress));
+      } else {
+        indexInParallel(Iterators.concat(Iterators.singletonIterator(first), batches),
+            loader, writer, progress);
+      }
+    }
+
+    progress.logDone();
+  }
+
+  private void indexInParallel(Iterator<List<K>> batches,
+      Function<List<K>, Map<K, V>> loader,
+      BiConsumer<K, Optional<V>> writer,
+      Progress progress) {
+
+    Semaphore queueSlots = new Semaphore(maxQueuedBatches);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    while (batches.hasNext() && failure.get() == null) {
+      List<K> batch = batches.next();
+
+      queueSlots.acquireUninterruptibly();
+      progress.queued.incrementAndGet();
+
+      executor.execute(() -> {
+        progress.queued.decrementAndGet();
+        try {
+          if (failure.get() == null) {
+            indexBatch(batch, loader, writer, progress);
+          }
+        } catch (Throwable t) {
+          failure.compareAndSet(null, t);
+        } finally {
+          queueSlots.release();
+        }
+      });
+    }
+
+    // wait for all batches to finish
+    queueSlots.acquireUninterruptibly(maxQueuedBatches);
+    queueSlots.release(maxQueuedBatches);
+
+    Throwable t = failure.get();
+    if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    }
+    if (t instanceof Error) {
+      throw (Error) t;
+    }
+    if (t != null) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  private void indexBatch(List<K> batch,
+      Function<List<K>, Map<K, V>> loader,
+      BiConsumer<K, Optional<V>> writer,
+      Progress progress) {
+    Map<K, V> values = loader.apply(batch);
+    for (K key : batch) {
+      writer.accept(key, Optional.ofNullable(values.get(key)));
+    }
+    progress.indexed(batch.size());
+  }
+
+  @Override
+  public void close() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  private class Progress {
+
+    private final long total;
+    private final long start = System.nanoTime();
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong lastLogged = new AtomicLong(start);
+
+    Progress(long total) {
+      this.total = total;
+    }
+
+    void indexed(int count) {
+      long indexedCount = indexed.addAndGet(count);
+
+      long now = System.nanoTime();
+      long last = lastLogged.get();
+      if (now - last >= PROGRESS_LOG_INTERVAL_NANOS && lastLogged.compareAndSet(last, now)) {
+        log(indexedCount, now);
+      }
+    }
+
+    void log(long indexedCount, long now) {
+      double seconds = Math.max(now - start, 1) / 1e9;
+      double perSecond = indexedCount / seconds;
+
+      if (total > 0) {
+        Duration eta = Duration.ofSeconds((long) ((total - indexedCount) / Math.max(perSecond, 1)));
+        log.info("Indexed {}/{} values ({} per second, {} batches queued, ETA {})",
+            indexedCount, total, (long) perSecond, queued.get(), eta);
+      } else {
+        log.info("Indexed {} values ({} per second, {} batches queued)",
+            indexedCount, (long) perSecond, queued.get());
+      }
+    }
+
+    // logs summary if progress has been logged
+    void logDone() {
+      long now = System.nanoTime();
+      if (lastLogged.get() != start) {
+        log.info("Indexed {} values in {} s", indexed.get(),
+            TimeUnit.NANOSECONDS.toSeconds(now - start));
+      }
+    }
+
+  }
+
+  private static class IndexingThreadFactory implements ThreadFactory {
+
+    private final String name;
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    IndexingThreadFactory(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, name + "-index-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+
+  }
+
+}
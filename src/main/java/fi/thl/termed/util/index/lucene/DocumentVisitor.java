@@ -0,0 +1,16 @@
+package fi.thl.termed.util.index.lucene;
+
+import org.apache.lucene.index.StoredFieldVisitor;
+
+/**
+ * Stored field visitor that builds a value directly from stored fields of one document, i.e.
+ * without materializing a Lucene Document first. New visitor is used for each loaded document.
+ */
+public abstract class DocumentVisitor<V> extends StoredFieldVisitor {
+
+  /**
+   * Returns value built from visited fields.
+   */
+  public abstract V build();
+
+}
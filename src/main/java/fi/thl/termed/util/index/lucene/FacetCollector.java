@@ -0,0 +1,137 @@
+package fi.thl.termed.util.index.lucene;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+
+/**
+ * Counts values of given sorted set doc values fields for all matching docs. Values are counted
+ * by per segment ordinals which are resolved to strings once per segment.
+ */
+public class FacetCollector extends SimpleCollector {
+
+  private final String[] fields;
+  private final Map<String, Map<String, Integer>> counts = new LinkedHashMap<>();
+
+  private SortedSetDocValues[] leafValues;
+  private int[][] leafCounts;
+
+  public FacetCollector(List<String> fields) {
+    this.fields = fields.toArray(new String[0]);
+    for (String field : fields) {
+      counts.put(field, new HashMap<>());
+    }
+  }
+
+  @Override
+  protected void doSetNextReader(LeafReaderContext context) throws IOException {
+    flushLeafCounts();
+
+    leafValues = new SortedSetDocValues[fields.length];
+    leafCounts = new int[fields.length][];
+
+    for (int i = 0; i < fields.length; i++) {
+      leafValues[i] = DocValues.getSortedSet(context.reader(), fields[i]);
+      leafCounts[i] = new int[(int) leafValues[i].getValueCount()];
+    }
+  }
+
+  @Override
+  public void collect(int doc) throws IOException {
+    for (int i = 0; i < fields.length; i++) {
+      SortedSetDocValues values = leafValues[i];
+      if (values.advanceExact(doc)) {
+        for (long ord = values.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS;
+            ord = values.nextOrd()) {
+          leafCounts[i][(int) ord]++;
+        }
+      }
+    }
+  }
+
+  private void flushLeafCounts() throws IOException {
+    if (leafCounts == null) {
+      return;
+    }
+
+    for (int i = 0; i < fields.length; i++) {
+      Map<String, Integer> fieldCounts = counts.get(fields[i]);
+      int[] ordCounts = leafCounts[i];
+      for (int ord = 0; ord < ordCounts.length; ord++) {
+        if (ordCounts[ord] > 0) {
+          fieldCounts.merge(leafValues[i].lookupOrd(ord).utf8ToString(), ordCounts[ord],
+              Integer::sum);
+        }
+      }
+    }
+
+    leafValues = null;
+    leafCounts = null;
+  }
+
+  @Override
+  public ScoreMode scoreMode() {
+    return ScoreMode.COMPLETE_NO_SCORES;
+  }
+
+  /**
+   * Returns a collector manager for searching slices in parallel. Counts of slice collectors are
+   * merged into one collector.
+   */
+  public static CollectorManager<FacetCollector, FacetCollector> manager(List<String> fields) {
+    return new CollectorManager<FacetCollector, FacetCollector>() {
+      @Override
+      public FacetCollector newCollector() {
+        return new FacetCollector(fields);
+      }
+
+      @Override
+      public FacetCollector reduce(Collection<FacetCollector> collectors) throws IOException {
+        FacetCollector merged = new FacetCollector(fields);
+        for (FacetCollector collector : collectors) {
+          collector.flushLeafCounts();
+          collector.counts.forEach((field, fieldCounts) -> fieldCounts.forEach(
+              (value, count) -> merged.counts.get(field).merge(value, count, Integer::sum)));
+        }
+        return merged;
+      }
+    };
+  }
+
+  /**
+   * Returns counts by field, each field containing values in descending count order.
+   *
+   * @param max max number of values per field, negative value returns all
+   */
+  public Map<String, Map<String, Integer>> getCounts(int max) {
+    try {
+      flushLeafCounts();
+    } catch (IOException e) {
+      throw new LuceneException(e);
+    }
+
+    Map<String, Map<String, Integer>> results = new LinkedHashMap<>();
+
+    counts.forEach((field, fieldCounts) -> {
+      Map<String, Integer> topCounts = new LinkedHashMap<>();
+      fieldCounts.entrySet().stream()
+          .sorted(Map.Entry.<String, Integer>comparingByValue().reversed()
+              .thenComparing(Map.Entry.comparingByKey()))
+          .limit(max < 0 ? Long.MAX_VALUE : max)
+          .forEach(e -> topCounts.put(e.getKey(), e.getValue()));
+      results.put(field, topCounts);
+    });
+
+    return results;
+  }
+
+}
@@ -0,0 +1,40 @@
+package fi.thl.termed.util.index.lucene;
+
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.util.Set;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.UsageTrackingQueryCachingPolicy;
+
+/**
+ * Caches term queries of given filter fields (e.g. graph and type ids) on first use. Lucene's
+ * default policy never caches term queries as they are cheap on their own, but commonly used
+ * filter terms match large parts of the index and are intersected with nearly every query.
+ * Other queries are cached by {@link UsageTrackingQueryCachingPolicy}.
+ */
+public class FilterTermCachingPolicy implements QueryCachingPolicy {
+
+  private final Set<String> filterFields;
+  private final QueryCachingPolicy delegate = new UsageTrackingQueryCachingPolicy();
+
+  public FilterTermCachingPolicy(Set<String> filterFields) {
+    this.filterFields = ImmutableSet.copyOf(filterFields);
+  }
+
+  @Override
+  public void onUse(Query query) {
+    delegate.onUse(query);
+  }
+
+  @Override
+  public boolean shouldCache(Query query) throws IOException {
+    if (query instanceof TermQuery
+        && filterFields.contains(((TermQuery) query).getTerm().field())) {
+      return true;
+    }
+    return delegate.shouldCache(query);
+  }
+
+}
@@ -0,0 +1,24 @@
+package fi.thl.termed.util.index.lucene;
+
+import java.util.Optional;
+import java.util.Set;
+import org.apache.lucene.search.Query;
+
+/**
+ * Splits {@link LuceneIndex} into shards, each with own directory and index writer.
+ */
+public interface IndexSharding<K> {
+
+  /**
+   * Returns name of the shard where value with given key is indexed. Name is used as a directory
+   * name.
+   */
+  String shard(K key);
+
+  /**
+   * Returns names of shards containing all documents that given query may match, empty if query
+   * may match documents in any shard.
+   */
+  Optional<Set<String>> shards(Query query);
+
+}
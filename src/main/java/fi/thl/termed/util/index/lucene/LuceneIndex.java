@@ -3,120 +3,509 @@ package fi.thl.termed.util.index.lucene;
 import static com.google.common.base.Strings.isNullOrEmpty;
 import static fi.thl.termed.util.collect.FunctionUtils.toUnchecked;
 import static fi.thl.termed.util.collect.StreamUtils.findFirstAndClose;
+import static fi.thl.termed.util.collect.StreamUtils.toListAndClose;
 import static fi.thl.termed.util.collect.StreamUtils.toStreamWithTimeout;
 import static fi.thl.termed.util.index.lucene.LuceneConstants.DOCUMENT_ID;
+import static fi.thl.termed.util.index.lucene.LuceneConstants.DOCUMENT_ID_SORTABLE;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
 import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static java.util.Objects.requireNonNull;
 import static org.apache.lucene.index.IndexWriterConfig.OpenMode.CREATE_OR_APPEND;
 
+import com.google.common.util.concurrent.Striped;
 import fi.thl.termed.util.Converter;
 import fi.thl.termed.util.collect.ListUtils;
-import fi.thl.termed.util.collect.StreamUtils;
-import fi.thl.termed.util.collect.Tuple;
 import fi.thl.termed.util.concurrent.ExecutorUtils;
 import fi.thl.termed.util.index.Index;
 import fi.thl.termed.util.query.LuceneSortField;
 import fi.thl.termed.util.query.LuceneSpecification;
+import fi.thl.termed.util.query.Page;
 import fi.thl.termed.util.query.Specification;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
-import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
-import org.apache.lucene.search.TopFieldDocs;
 import org.apache.lucene.search.TotalHitCountCollector;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class LuceneIndex<K extends Serializable, V> implements Index<K, V> {
 
+  private static final int LOAD_BATCH_SIZE = 1000;
+
+  private static final String SORTABLE_SUFFIX = ".sortable";
+  private static final String REBUILD_SUFFIX = ".rebuild";
+  private static final String OLD_SUFFIX = ".old";
+
   private final Logger log = LoggerFactory.getLogger(getClass());
 
   private Converter<V, Document> documentConverter;
   private Converter<K, String> keyConverter;
 
-  private IndexWriter writer;
-  private SearcherManager searcherManager;
+  private final String directoryPath;
+  // null if index is not sharded
+  private final IndexSharding<K> sharding;
+  private final Map<String, Shard> shards = new ConcurrentHashMap<>();
+  // commit data for all shards, including shards created later
+  private final Map<String, String> commitData = new ConcurrentHashMap<>();
+
+  private final double maxStaleSec;
+  private final double minStaleSec;
+  private final SearcherFactory searcherFactory;
+  // null if results are not cached
+  private final SearchResultCache resultCache;
+  // null if index is not sorted
+  private final Sort indexSort;
+
+  // guards replacing shards with rebuilt ones, shard operations hold the read lock
+  private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+  // index built beside this one, null if not rebuilding
+  private volatile Rebuild rebuild;
+  // guards the directory of a replaced index, it is deleted when searches using it are done
+  private final Object replacedIndexLock = new Object();
+  // count of replaced shards still searched, null if replaced index directory is not in use
+  private AtomicInteger replacedIndexInUse;
 
-  private ExecutorService indexingExecutor;
   private ScheduledExecutorService scheduledExecutorService;
 
   public LuceneIndex(String directoryPath,
       Converter<K, String> keyConverter,
       Converter<V, Document> documentConverter) {
+    this(directoryPath, keyConverter, documentConverter,
+        1.0, 0.1, new SearcherFactory(), null, null);
+  }
+
+  /**
+   * @param maxStaleSec max seconds before index writes are visible to searches if nobody is
+   * waiting for them
+   * @param minStaleSec max seconds before index writes are visible to searches if someone is
+   * waiting for them (see {@link #waitForGeneration(Generation)})
+   * @param searcherFactory factory for searchers e.g. {@link ParallelSearcherFactory}
+   * @param sharding splits index into shards, each in own sub directory, null if not sharded
+   * @param resultCache cache for doc ids of searches, null if results are not cached
+   */
+  public LuceneIndex(String directoryPath,
+      Converter<K, String> keyConverter,
+      Converter<V, Document> documentConverter,
+      double maxStaleSec, double minStaleSec,
+      SearcherFactory searcherFactory,
+      IndexSharding<K> sharding,
+      SearchResultCache resultCache) {
+    this(directoryPath, keyConverter, documentConverter, maxStaleSec, minStaleSec,
+        searcherFactory, sharding, resultCache, null);
+  }
+
+  /**
+   * @param indexSort order of documents in index segments, document id is added as a last sort
+   * field. Searches sorted by a prefix of index sort can stop early. Sort of an existing index is
+   * changed only when index is rebuilt. Null if index is not sorted.
+   */
+  public LuceneIndex(String directoryPath,
+      Converter<K, String> keyConverter,
+      Converter<V, Document> documentConverter,
+      double maxStaleSec, double minStaleSec,
+      SearcherFactory searcherFactory,
+      IndexSharding<K> sharding,
+      SearchResultCache resultCache,
+      Sort indexSort) {
 
+    this.directoryPath = directoryPath;
     this.keyConverter = keyConverter;
     this.documentConverter = documentConverter;
+    this.maxStaleSec = maxStaleSec;
+    this.minStaleSec = minStaleSec;
+    this.searcherFactory = searcherFactory;
+    this.sharding = sharding;
+    this.resultCache = resultCache;
+    this.indexSort = indexSort != null ? new Sort(Stream.concat(
+        Arrays.stream(indexSort.getSort()),
+        Stream.of(new SortField(DOCUMENT_ID_SORTABLE, SortField.Type.STRING)))
+        .toArray(SortField[]::new)) : null;
 
     try {
-      Analyzer a = new LowerCaseWhitespaceAnalyzer();
-      IndexWriterConfig c = new IndexWriterConfig(a)
-          .setOpenMode(CREATE_OR_APPEND)
-          .setCodec(new TermedCodec());
-      this.writer = new IndexWriter(openDirectory(directoryPath), c);
-      this.searcherManager = new SearcherManager(writer, new SearcherFactory());
+      recoverRebuildDirectories();
+      openShards();
     } catch (IOException e) {
       throw new LuceneException(e);
     }
 
-    this.indexingExecutor = ExecutorUtils.newScheduledThreadPool(1);
+    // keep commit data that all existing shards agree on for shards created later
+    commitData.putAll(agreedCommitData());
+
     this.scheduledExecutorService = ExecutorUtils.newScheduledThreadPool(5);
 
-    this.scheduledExecutorService.scheduleAtFixedRate(this::refresh, 0, 1, TimeUnit.SECONDS);
     this.scheduledExecutorService.scheduleAtFixedRate(this::commit, 0, 10, TimeUnit.SECONDS);
 
     BooleanQuery.setMaxClauseCount(Integer.MAX_VALUE);
   }
 
-  private Directory openDirectory(String directoryPath) throws IOException {
-    log.info("Opening index directory {}", directoryPath);
-    return isNullOrEmpty(directoryPath) ? new RAMDirectory()
-        : FSDirectory.open(Paths.get(directoryPath));
+  private void openShards() throws IOException {
+    for (String shardName : existingShardNames()) {
+      shards.put(shardName, new Shard(indexPath(), shardName, commitData));
+    }
+  }
+
+  private List<String> existingShardNames() throws IOException {
+    if (sharding == null) {
+      return singletonList("");
+    }
+    if (isNullOrEmpty(directoryPath) || !Files.isDirectory(shardsPath())) {
+      return emptyList();
+    }
+    try (Stream<Path> shardPaths = Files.list(shardsPath())) {
+      return shardPaths
+          .filter(Files::isDirectory)
+          .map(path -> path.getFileName().toString())
+          .collect(Collectors.toList());
+    }
+  }
+
+  private Path shardsPath() {
+    return Paths.get(directoryPath, "shards");
+  }
+
+  // null if index is in memory
+  private Path indexPath() {
+    return isNullOrEmpty(directoryPath) ? null : Paths.get(directoryPath);
+  }
+
+  // sibling directory of the index for rebuilding, e.g. "index.rebuild"
+  private Path indexPath(String suffix) {
+    Path indexPath = Paths.get(directoryPath).toAbsolutePath();
+    return indexPath.resolveSibling(indexPath.getFileName() + suffix);
+  }
+
+  // null root path means an in-memory directory
+  private Directory openDirectory(Path root, String shardName) throws IOException {
+    if (root == null) {
+      return new RAMDirectory();
+    }
+    Path path = sharding == null ? root : root.resolve("shards").resolve(shardName);
+    log.info("Opening index directory {}", path);
+    return FSDirectory.open(path);
+  }
+
+  // cleans up after a rebuild that was interrupted, e.g. by a crash
+  private void recoverRebuildDirectories() throws IOException {
+    if (isNullOrEmpty(directoryPath)) {
+      return;
+    }
+    Path indexPath = indexPath();
+    Path oldPath = indexPath(OLD_SUFFIX);
+    Path rebuildPath = indexPath(REBUILD_SUFFIX);
+
+    synchronized (replacedIndexLock) {
+      if (Files.exists(oldPath)) {
+        if (!Files.exists(indexPath)) {
+          log.warn("Restoring index directory {} from {}", indexPath, oldPath);
+          Files.move(oldPath, indexPath, StandardCopyOption.ATOMIC_MOVE);
+        } else if (replacedIndexInUse == null) {
+          deleteRecursively(oldPath);
+        }
+      }
+    }
+    if (Files.exists(rebuildPath)) {
+      log.warn("Deleting unfinished index rebuild {}", rebuildPath);
+      deleteRecursively(rebuildPath);
+    }
+  }
+
+  private static void deleteRecursively(Path path) throws IOException {
+    try (Stream<Path> paths = Files.walk(path)) {
+      for (Path p : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+        Files.delete(p);
+      }
+    }
+  }
+
+  private String shardName(K key) {
+    return sharding == null ? "" : sharding.shard(key);
+  }
+
+  private Shard shard(K key) {
+    return shard(shards, indexPath(), commitData, key);
+  }
+
+  private Shard shard(Map<String, Shard> shards, Path root, Map<String, String> commitData,
+      K key) {
+    return shards.computeIfAbsent(shardName(key), shardName -> {
+      try {
+        return new Shard(root, shardName, commitData);
+      } catch (IOException e) {
+        throw new LuceneException(e);
+      }
+    });
   }
 
   @Override
   public void index(K key, V value) {
+    indexAndGetGeneration(key, value);
+  }
+
+  /**
+   * Indexes value and returns the generation of the write, see {@link
+   * #waitForGeneration(Generation)}.
+   */
+  public Generation indexAndGetGeneration(K key, V value) {
     Term documentIdTerm = new Term(DOCUMENT_ID, keyConverter.apply(key));
+    Document document = toDocument(documentIdTerm, value);
+
+    swapLock.readLock().lock();
+    try {
+      Generation generation = write(shard(key), w -> w.updateDocument(documentIdTerm, document));
+
+      Rebuild currentRebuild = rebuild;
+      if (currentRebuild != null) {
+        currentRebuild.liveWrite(documentIdTerm.text(), () -> write(currentRebuild.shard(key),
+            w -> w.updateDocument(documentIdTerm, document)));
+      }
+
+      return generation;
+    } finally {
+      swapLock.readLock().unlock();
+    }
+  }
 
+  private Document toDocument(Term documentIdTerm, V value) {
     Document document = requireNonNull(documentConverter.apply(value));
     document.add(new StringField(documentIdTerm.field(), documentIdTerm.text(), Field.Store.YES));
+    document.add(
+        new SortedDocValuesField(DOCUMENT_ID_SORTABLE, new BytesRef(documentIdTerm.text())));
+    return document;
+  }
 
+  private Generation write(Shard shard, ShardWrite write) {
     try {
-      writer.updateDocument(documentIdTerm, document);
+      long sequenceNumber = write.apply(shard.writer);
+      shard.written(sequenceNumber);
+      return new Generation(singletonMap(shard, sequenceNumber));
     } catch (IOException e) {
       throw new LuceneException(e);
     }
   }
 
+  /**
+   * Starts building a new index beside this one, e.g. to rebuild the whole index while this one
+   * keeps serving searches. Values are added to the new index with {@link #rebuild(Serializable,
+   * Object)}. Other writes go to both indexes until {@link #finishRebuild()} swaps the new index
+   * in place of this one.
+   *
+   * @param rebuildCommitData commit data of the new index in addition to current commit data
+   */
+  public void startRebuild(Map<String, String> rebuildCommitData) {
+    swapLock.writeLock().lock();
+    try {
+      if (rebuild != null) {
+        throw new IllegalStateException("Index is already being rebuilt");
+      }
+      if (!isNullOrEmpty(directoryPath)) {
+        recoverRebuildDirectories();
+      }
+      Map<String, String> data = new ConcurrentHashMap<>(commitData);
+      data.putAll(rebuildCommitData);
+      rebuild = new Rebuild(data);
+    } catch (IOException e) {
+      throw new LuceneException(e);
+    } finally {
+      swapLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Adds a value to the index being rebuilt. Value is skipped if key has been written after
+   * starting the rebuild as the value might be older than the written one.
+   */
+  public void rebuild(K key, V value) {
+    Rebuild currentRebuild = requireNonNull(rebuild, "Index is not being rebuilt");
+    Term documentIdTerm = new Term(DOCUMENT_ID, keyConverter.apply(key));
+    Document document = toDocument(documentIdTerm, value);
+
+    currentRebuild.rebuildWrite(documentIdTerm.text(), () -> write(currentRebuild.shard(key),
+        w -> w.updateDocument(documentIdTerm, document)));
+  }
+
+  /**
+   * Replaces this index with the rebuilt one. Files of the rebuilt index are moved to the index
+   * directory. Searches started before the swap keep using the replaced index until they are done,
+   * files of the replaced index are deleted after that (or on next open).
+   */
+  public void finishRebuild() {
+    swapLock.writeLock().lock();
+    try {
+      Rebuild finished = requireNonNull(rebuild, "Index is not being rebuilt");
+      rebuild = null;
+
+      Map<String, Shard> replacedShards = new HashMap<>(shards);
+      shards.clear();
+      commitData.putAll(finished.commitData);
+
+      if (isNullOrEmpty(directoryPath)) {
+        // rebuilt documents are searchable from the swap on
+        for (Shard shard : finished.shards.values()) {
+          shard.searcherManager.maybeRefreshBlocking();
+        }
+        shards.putAll(finished.shards);
+        for (Shard shard : replacedShards.values()) {
+          shard.close();
+        }
+      } else {
+        for (Shard shard : finished.shards.values()) {
+          shard.close();
+        }
+        for (Shard shard : replacedShards.values()) {
+          shard.close();
+        }
+
+        Path indexPath = indexPath();
+        Path oldPath = indexPath(OLD_SUFFIX);
+        Path rebuildPath = indexPath(REBUILD_SUFFIX);
+        AtomicInteger inUse = new AtomicInteger(replacedShards.size());
+
+        synchronized (replacedIndexLock) {
+          if (Files.exists(oldPath)) {
+            log.warn("Deleting index {} replaced by an earlier rebuild and still searched",
+                oldPath);
+            deleteRecursively(oldPath);
+          }
+          if (Files.exists(indexPath)) {
+            Files.move(indexPath, oldPath, StandardCopyOption.ATOMIC_MOVE);
+          }
+          if (Files.exists(rebuildPath)) {
+            Files.move(rebuildPath, indexPath, StandardCopyOption.ATOMIC_MOVE);
+          }
+          openShards();
+          replacedIndexInUse = inUse;
+        }
+
+        if (replacedShards.isEmpty()) {
+          deleteReplacedIndex(inUse);
+        }
+        for (Shard shard : replacedShards.values()) {
+          shard.retire(() -> {
+            if (inUse.decrementAndGet() == 0) {
+              deleteReplacedIndex(inUse);
+            }
+          });
+        }
+      }
+
+      log.info("Replaced index with rebuilt index");
+    } catch (IOException e) {
+      throw new LuceneException(e);
+    } finally {
+      swapLock.writeLock().unlock();
+    }
+  }
+
+  // called when searches of the replaced index are done, unless a later rebuild replaced it
+  private void deleteReplacedIndex(AtomicInteger replacedIndex) {
+    synchronized (replacedIndexLock) {
+      if (replacedIndexInUse != replacedIndex) {
+        return;
+      }
+      replacedIndexInUse = null;
+
+      Path oldPath = indexPath(OLD_SUFFIX);
+      try {
+        if (Files.exists(oldPath)) {
+          deleteRecursively(oldPath);
+        }
+      } catch (IOException e) {
+        log.warn("Failed to delete replaced index {}, deleting it on next open", oldPath, e);
+      }
+    }
+  }
+
+  /**
+   * Discards the index being rebuilt.
+   */
+  public void cancelRebuild() {
+    swapLock.writeLock().lock();
+    try {
+      Rebuild cancelled = rebuild;
+      rebuild = null;
+      if (cancelled != null) {
+        for (Shard shard : cancelled.shards.values()) {
+          shard.close();
+        }
+        if (!isNullOrEmpty(directoryPath)) {
+          recoverRebuildDirectories();
+        }
+      }
+    } catch (IOException e) {
+      throw new LuceneException(e);
+    } finally {
+      swapLock.writeLock().unlock();
+    }
+  }
+
+  public boolean isRebuilding() {
+    return rebuild != null;
+  }
+
   @Override
   public Stream<V> get(Specification<K, V> specification,
       List<fi.thl.termed.util.query.Sort> sort, int max) {
@@ -128,104 +517,208 @@ public class LuceneIndex<K extends Serializable, V> implements Index<K, V> {
    */
   public Stream<V> get(Specification<K, V> specification, List<fi.thl.termed.util.query.Sort> sort,
       int max, Set<String> fieldsToLoad, Function<Document, V> documentDeserializer) {
-    IndexSearcher searcher = null;
+    SearcherLease lease = null;
+    try {
+      Query query = ((LuceneSpecification<K, V>) specification).luceneQuery();
+      lease = tryAcquire(query);
+      return query(lease, query, max, sort, fieldsToLoad, documentDeserializer);
+    } catch (IOException e) {
+      tryRelease(lease);
+      throw new LuceneException(e);
+    }
+  }
+
+  /**
+   * Expert method for searching and loading results with custom stored field visitor. Visitor is
+   * supplied for each loaded document.
+   */
+  public Stream<V> get(Specification<K, V> specification, List<fi.thl.termed.util.query.Sort> sort,
+      int max, Supplier<? extends DocumentVisitor<V>> documentVisitorSupplier) {
+    SearcherLease lease = null;
     try {
-      searcher = tryAcquire();
       Query query = ((LuceneSpecification<K, V>) specification).luceneQuery();
-      return query(searcher, query, max, sort, fieldsToLoad, documentDeserializer);
+      lease = tryAcquire(query);
+      return query(lease, query, max, sort, documentVisitorSupplier);
     } catch (IOException e) {
-      tryRelease(searcher);
+      tryRelease(lease);
       throw new LuceneException(e);
     }
   }
 
+  /**
+   * Searches a page of results sorted after given position, results are loaded with custom stored
+   * field visitor. Returned page holds the position of its last result, next page is searched
+   * after that. Position is given as sort values only, so it stays valid if the document there is
+   * updated or deleted. Pages are not cached.
+   *
+   * @param after position returned with the previous page, null for the first page
+   * @throws IllegalArgumentException if position is malformed or does not match the sort
+   */
+  public Page<V> page(Specification<K, V> specification, List<fi.thl.termed.util.query.Sort> sort,
+      int max, String after, Supplier<? extends DocumentVisitor<V>> documentVisitorSupplier) {
+    SearcherLease lease = null;
+    try {
+      Query query = ((LuceneSpecification<K, V>) specification).luceneQuery();
+      lease = tryAcquire(query);
+      IndexSearcher searcher = lease.searcher;
+
+      long start = System.currentTimeMillis();
+
+      ScoreDoc[] hits = searchAfter(searcher, query, max, sort(query, sort), after);
+
+      List<V> values = toListAndClose(loadInDocIdOrder(
+          Arrays.stream(hits).mapToInt(hit -> hit.doc).toArray(),
+          toUnchecked(doc -> {
+            DocumentVisitor<V> visitor = documentVisitorSupplier.get();
+            searcher.doc(doc, visitor);
+            return visitor.build();
+          })));
+
+      if (log.isTraceEnabled()) {
+        log.trace("{} after {} in {} ms", query, after, System.currentTimeMillis() - start);
+      }
+
+      return new Page<>(values, hits.length > 0
+          ? SearchAfterCodec.encode((FieldDoc) hits[hits.length - 1])
+          : null);
+    } catch (IOException e) {
+      throw new LuceneException(e);
+    } finally {
+      tryRelease(lease);
+    }
+  }
+
   @Override
   public Stream<K> getKeys(Specification<K, V> specification,
       List<fi.thl.termed.util.query.Sort> sort, int max) {
-    IndexSearcher searcher = null;
+    SearcherLease lease = null;
     try {
-      searcher = tryAcquire();
       Query query = ((LuceneSpecification<K, V>) specification).luceneQuery();
-      return query(searcher, query, max, sort, singleton(DOCUMENT_ID),
+      lease = tryAcquire(query);
+      return query(lease, query, max, sort, singleton(DOCUMENT_ID),
           d -> keyConverter.applyInverse(d.get(DOCUMENT_ID)));
     } catch (IOException e) {
-      tryRelease(searcher);
+      tryRelease(lease);
       throw new LuceneException(e);
     }
   }
 
   @Override
   public long count(Specification<K, V> specification) {
-    IndexSearcher searcher = null;
+    SearcherLease lease = null;
     try {
-      searcher = tryAcquire();
-      TotalHitCountCollector hitCountCollector = new TotalHitCountCollector();
       Query query = ((LuceneSpecification<K, V>) specification).luceneQuery();
-      searcher.search(query, hitCountCollector);
-      return hitCountCollector.getTotalHits();
+      lease = tryAcquire(query);
+      return lease.searcher.count(query);
     } catch (IOException e) {
       throw new LuceneException(e);
     } finally {
-      tryRelease(searcher);
+      tryRelease(lease);
+    }
+  }
+
+  /**
+   * Counts values of given sorted set doc values fields in documents matching the specification.
+   *
+   * @param max max number of most common values returned per field, negative value returns all
+   */
+  public Map<String, Map<String, Integer>> facets(Specification<K, V> specification,
+      List<String> fields, int max) {
+    SearcherLease lease = null;
+    try {
+      Query query = ((LuceneSpecification<K, V>) specification).luceneQuery();
+      lease = tryAcquire(query);
+      return lease.searcher.search(query, FacetCollector.manager(fields)).getCounts(max);
+    } catch (IOException e) {
+      throw new LuceneException(e);
+    } finally {
+      tryRelease(lease);
     }
   }
 
   @Override
   public boolean isEmpty() {
-    IndexSearcher searcher = null;
+    SearcherLease lease = null;
     try {
-      searcher = tryAcquire();
+      lease = tryAcquire(shards::values);
       TotalHitCountCollector hitCountCollector = new TotalHitCountCollector();
-      searcher.search(new MatchAllDocsQuery(), hitCountCollector);
+      lease.searcher.search(new MatchAllDocsQuery(), hitCountCollector);
       return hitCountCollector.getTotalHits() == 0;
     } catch (IOException e) {
       throw new LuceneException(e);
     } finally {
-      tryRelease(searcher);
+      tryRelease(lease);
     }
   }
 
   @Override
   public Optional<V> get(K id) {
-    IndexSearcher searcher = null;
+    SearcherLease lease = null;
     try {
       TermQuery q = new TermQuery(new Term(DOCUMENT_ID, keyConverter.apply(id)));
-      searcher = tryAcquire();
-      return findFirstAndClose(query(searcher, q, 1, emptyList(), documentConverter.inverse()));
+      lease = tryAcquire(() -> {
+        Shard shard = shards.get(shardName(id));
+        return shard != null ? singletonList(shard) : emptyList();
+      });
+      return findFirstAndClose(query(lease, q, 1, emptyList(), documentConverter.inverse()));
     } catch (IOException e) {
-      tryRelease(searcher);
+      tryRelease(lease);
       throw new LuceneException(e);
     }
   }
 
-  private <E> Stream<E> query(IndexSearcher searcher, Query query, int max,
+  private <E> Stream<E> query(SearcherLease lease, Query query, int max,
       List<fi.thl.termed.util.query.Sort> orderBy, Function<Document, E> documentDeserializer)
       throws IOException {
-    return query(searcher, query, max, orderBy, null, documentDeserializer);
+    return query(lease, query, max, orderBy, null, documentDeserializer);
   }
 
   // null in fieldsToLoad means load all
-  private <E> Stream<E> query(IndexSearcher searcher, Query query, int max,
+  private <E> Stream<E> query(SearcherLease lease, Query query, int max,
       List<fi.thl.termed.util.query.Sort> sort, Set<String> fieldsToLoad,
       Function<Document, E> documentDeserializer) throws IOException {
+    return queryAndLoad(lease, query, max, sort,
+        toUnchecked(doc -> documentDeserializer.apply(lease.searcher.doc(doc, fieldsToLoad))));
+  }
+
+  private <E> Stream<E> query(SearcherLease lease, Query query, int max,
+      List<fi.thl.termed.util.query.Sort> sort,
+      Supplier<? extends DocumentVisitor<E>> documentVisitorSupplier) throws IOException {
+    return queryAndLoad(lease, query, max, sort, toUnchecked(doc -> {
+      DocumentVisitor<E> visitor = documentVisitorSupplier.get();
+      lease.searcher.doc(doc, visitor);
+      return visitor.build();
+    }));
+  }
+
+  private <E> Stream<E> queryAndLoad(SearcherLease lease, Query query, int max,
+      List<fi.thl.termed.util.query.Sort> sort,
+      Function<Integer, E> documentLoader) throws IOException {
+
+    IndexSearcher searcher = lease.searcher;
 
     long start = System.currentTimeMillis();
 
-    Stream<Integer> docs;
+    Stream<E> results;
 
-    if (ListUtils.isNullOrEmpty(sort) && (max < 0 || max == Integer.MAX_VALUE)) {
-      SimpleAllCollector c = new SimpleAllCollector();
-      searcher.search(query, c);
-      docs = c.getDocs().stream();
+    if (ListUtils.isNullOrEmpty(sort)
+        && (max < 0 || max == Integer.MAX_VALUE)) {
+      // collected docs are already in doc id order
+      int[] docs = searchDocs(lease, query, null, -1,
+          () -> searcher.search(query, SimpleAllCollector.manager()));
+      results = IntStream.of(docs).mapToObj(documentLoader::apply);
     } else {
-      TopFieldDocs topDocs = searcher.search(query, max > 0 ? max : Integer.MAX_VALUE, sort(sort));
-      docs = Arrays.stream(topDocs.scoreDocs).map(sd -> sd.doc);
+      Sort luceneSort = sort(query, sort);
+      int n = max > 0 ? max : Integer.MAX_VALUE;
+      int[] docs = searchDocs(lease, query, luceneSort, n, () ->
+          Arrays.stream(searcher.search(query, n, luceneSort).scoreDocs)
+              .mapToInt(sd -> sd.doc)
+              .toArray());
+      results = loadInDocIdOrder(docs, documentLoader);
     }
 
-    return toStreamWithTimeout(docs
-            .map(toUnchecked(doc -> searcher.doc(doc, fieldsToLoad)))
-            .map(documentDeserializer)
-            .onClose(() -> tryRelease(searcher))
+    return toStreamWithTimeout(results
+            .onClose(() -> tryRelease(lease))
             .onClose(() -> {
               if (log.isTraceEnabled()) {
                 log.trace("{} in {} ms", query, System.currentTimeMillis() - start);
@@ -234,58 +727,388 @@ public class LuceneIndex<K extends Serializable, V> implements Index<K, V> {
         scheduledExecutorService, 1, TimeUnit.HOURS, query::toString);
   }
 
-  private IndexSearcher tryAcquire() {
+  // returns docs from result cache if available, otherwise runs given search
+  private int[] searchDocs(SearcherLease lease, Query query, Sort sort, int max,
+      Callable<int[]> search) throws IOException {
+    if (resultCache != null) {
+      return resultCache.get(lease.readers(), query, sort, max, search);
+    }
+    try {
+      return search.call();
+    } catch (IOException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new LuceneException(e);
+    }
+  }
+
+  // Sort ends with the unique document id, equal sort values thus mean the same document which
+  // is skipped by giving it the largest doc id.
+  private ScoreDoc[] searchAfter(IndexSearcher searcher, Query query, int max, Sort sort,
+      String after) throws IOException {
+    int n = max > 0 ? max : Integer.MAX_VALUE;
+
+    FieldDoc afterDoc = after != null
+        ? SearchAfterCodec.decode(after, sort.getSort(),
+        Math.max(searcher.getIndexReader().maxDoc() - 1, 0))
+        : null;
+
+    return searcher.searchAfter(afterDoc, query, n, sort).scoreDocs;
+  }
+
+  // loads docs in batches, each batch in doc id order, and returns results in original order
+  @SuppressWarnings("unchecked")
+  private <E> Stream<E> loadInDocIdOrder(int[] docs, Function<Integer, E> documentLoader) {
+    int batchCount = (docs.length + LOAD_BATCH_SIZE - 1) / LOAD_BATCH_SIZE;
+
+    return IntStream.range(0, batchCount).mapToObj(batch -> {
+      int from = batch * LOAD_BATCH_SIZE;
+      int to = Math.min(from + LOAD_BATCH_SIZE, docs.length);
+
+      // doc id in high bits and position in batch in low bits, sorting orders by doc id
+      long[] docsAndPositions = new long[to - from];
+      for (int i = from; i < to; i++) {
+        docsAndPositions[i - from] = ((long) docs[i] << 32) | (i - from);
+      }
+      Arrays.sort(docsAndPositions);
+
+      Object[] results = new Object[to - from];
+      for (long docAndPosition : docsAndPositions) {
+        results[(int) docAndPosition] = documentLoader.apply((int) (docAndPosition >>> 32));
+      }
+
+      return Arrays.stream(results).map(result -> (E) result);
+    }).flatMap(Function.identity());
+  }
+
+  // acquires searcher for shards that may contain documents matching the query
+  private SearcherLease tryAcquire(Query query) {
+    // joins read "from" values of all shards even if results are limited to some
+    if (sharding == null || containsJoin(query)) {
+      return tryAcquire(shards::values);
+    }
+    Optional<Set<String>> shardNames = sharding.shards(query);
+    return tryAcquire(() -> shardNames
+        .map(names -> names.stream()
+            .map(shards::get)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList()))
+        .orElseGet(() -> new ArrayList<>(shards.values())));
+  }
+
+  private static boolean containsJoin(Query query) {
+    if (query instanceof TermsJoinQuery) {
+      return true;
+    }
+    if (query instanceof ConstantScoreQuery) {
+      return containsJoin(((ConstantScoreQuery) query).getQuery());
+    }
+    if (query instanceof BoostQuery) {
+      return containsJoin(((BoostQuery) query).getQuery());
+    }
+    if (query instanceof BooleanQuery) {
+      return ((BooleanQuery) query).clauses().stream().anyMatch(c -> containsJoin(c.getQuery()));
+    }
+    return false;
+  }
+
+  // shards to search are selected while holding the swap lock
+  private SearcherLease tryAcquire(Supplier<Collection<Shard>> shardsToSearch) {
+    swapLock.readLock().lock();
     try {
-      return searcherManager.acquire();
+      return new SearcherLease(shardsToSearch.get());
     } catch (IOException e) {
       throw new LuceneException(e);
+    } finally {
+      swapLock.readLock().unlock();
     }
   }
 
-  private void tryRelease(IndexSearcher searcher) {
+  private void tryRelease(SearcherLease lease) {
+    if (lease == null) {
+      return;
+    }
     try {
-      searcherManager.release(searcher);
+      lease.release();
     } catch (IOException e) {
       throw new LuceneException(e);
     }
   }
 
-  private Sort sort(List<fi.thl.termed.util.query.Sort> sort) {
-    return new Sort(ListUtils.nullToEmpty(sort).stream()
-        .filter(s -> s instanceof LuceneSortField)
-        .map(s -> (LuceneSortField) s)
-        .map(LuceneSortField::toLuceneSortField)
-        .toArray(SortField[]::new));
+  // document id is added as a last sort field to make sort order total
+  private Sort sort(Query query, List<fi.thl.termed.util.query.Sort> sort) {
+    List<SortField> sortFields = Stream.concat(
+        ListUtils.nullToEmpty(sort).stream()
+            .filter(s -> s instanceof LuceneSortField)
+            .map(s -> (LuceneSortField) s)
+            .map(LuceneSortField::toLuceneSortField),
+        Stream.of(new SortField(DOCUMENT_ID_SORTABLE, SortField.Type.STRING)))
+        .collect(Collectors.toList());
+
+    return new Sort(alignToIndexSort(query, sortFields).toArray(new SortField[0]));
+  }
+
+  // Prepends leading index sort fields that have a single value in all matching documents, e.g.
+  // sort by "number" of query "+type.graph.id:1 +type.id:Concept" is sorted by graph, type and
+  // number. Order does not change but sort becomes a prefix of the index sort so that search can
+  // stop early. Sort field "x.sortable" is expected to have the same value as term field "x".
+  private List<SortField> alignToIndexSort(Query query, List<SortField> sortFields) {
+    if (indexSort == null) {
+      return sortFields;
+    }
+
+    List<SortField> indexSortFields = Arrays.asList(indexSort.getSort());
+    List<SortField> aligned = new ArrayList<>();
+
+    for (SortField indexSortField : indexSortFields) {
+      List<SortField> candidate = concat(aligned, sortFields);
+      if (isPrefix(candidate, indexSortFields)) {
+        return candidate;
+      }
+      if (!hasSingleValue(query, indexSortField)) {
+        break;
+      }
+      aligned.add(indexSortField);
+    }
+
+    return sortFields;
+  }
+
+  private static boolean hasSingleValue(Query query, SortField sortField) {
+    String field = sortField.getField();
+    return field.endsWith(SORTABLE_SUFFIX) && TermQuerySharding
+        .requiredTerms(query, field.substring(0, field.length() - SORTABLE_SUFFIX.length()))
+        .filter(terms -> terms.size() == 1)
+        .isPresent();
+  }
+
+  private static <E> List<E> concat(List<E> a, List<E> b) {
+    List<E> result = new ArrayList<>(a);
+    result.addAll(b);
+    return result;
+  }
+
+  private static <E> boolean isPrefix(List<E> prefix, List<E> list) {
+    return prefix.size() <= list.size() && prefix.equals(list.subList(0, prefix.size()));
   }
 
   @Override
   public void delete(K key) {
+    deleteAndGetGeneration(key);
+  }
+
+  /**
+   * Deletes value and returns the generation of the write, see {@link
+   * #waitForGeneration(Generation)}.
+   */
+  public Generation deleteAndGetGeneration(K key) {
+    Term documentIdTerm = new Term(DOCUMENT_ID, keyConverter.apply(key));
+
+    swapLock.readLock().lock();
+    try {
+      Shard shard = shards.get(shardName(key));
+      Generation generation = shard != null
+          ? write(shard, w -> w.deleteDocuments(documentIdTerm))
+          : Generation.NONE;
+
+      Rebuild currentRebuild = rebuild;
+      if (currentRebuild != null) {
+        currentRebuild.liveWrite(documentIdTerm.text(), () -> {
+          Shard rebuildShard = currentRebuild.shards.get(shardName(key));
+          if (rebuildShard != null) {
+            write(rebuildShard, w -> w.deleteDocuments(documentIdTerm));
+          }
+        });
+      }
+
+      return generation;
+    } finally {
+      swapLock.readLock().unlock();
+    }
+  }
+
+  public void deleteAll() {
+    swapLock.readLock().lock();
+    try {
+      for (Shard shard : shards.values()) {
+        write(shard, IndexWriter::deleteAll);
+      }
+    } finally {
+      swapLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Returns user data value of the last commit (or value set after last commit). If index is
+   * sharded, value is returned only if all shards have the same value.
+   */
+  public Optional<String> getCommitData(String key) {
+    Map<String, String> data = shards.isEmpty() ? commitData : agreedCommitData();
+    return Optional.ofNullable(data.get(key));
+  }
+
+  private Map<String, String> agreedCommitData() {
+    Map<String, String> agreed = null;
+    for (Shard shard : shards.values()) {
+      Map<String, String> shardCommitData = shard.getCommitData();
+      if (agreed == null) {
+        agreed = shardCommitData;
+      } else {
+        agreed.entrySet().retainAll(shardCommitData.entrySet());
+      }
+    }
+    return agreed != null ? agreed : new HashMap<>();
+  }
+
+  /**
+   * Sets user data value stored with the next commit.
+   */
+  public synchronized void setCommitData(String key, String value) {
+    swapLock.readLock().lock();
+    try {
+      commitData.put(key, value);
+      shards.values().forEach(shard -> shard.setCommitData(key, value));
+
+      Rebuild currentRebuild = rebuild;
+      if (currentRebuild != null) {
+        currentRebuild.commitData.put(key, value);
+        currentRebuild.shards.values().forEach(shard -> shard.setCommitData(key, value));
+      }
+    } finally {
+      swapLock.readLock().unlock();
+    }
+  }
+
+  public void refresh() {
+    swapLock.readLock().lock();
     try {
-      writer.deleteDocuments(new Term(DOCUMENT_ID, keyConverter.apply(key)));
+      for (Shard shard : shards.values()) {
+        shard.searcherManager.maybeRefresh();
+      }
     } catch (IOException e) {
       throw new LuceneException(e);
+    } finally {
+      swapLock.readLock().unlock();
     }
   }
 
-  public void refresh() {
+  /**
+   * Returns generation of index writes done so far, i.e. the latest write sequence number of each
+   * shard. Writes can be waited to become visible with {@link #waitForGeneration(Generation)}.
+   */
+  public Generation getGeneration() {
+    swapLock.readLock().lock();
     try {
-      searcherManager.maybeRefresh();
+      Map<Object, Long> sequenceNumbers = new HashMap<>();
+      for (Shard shard : shards.values()) {
+        long sequenceNumber = shard.lastSequenceNumber.get();
+        if (sequenceNumber > 0) {
+          sequenceNumbers.put(shard, sequenceNumber);
+        }
+      }
+      return new Generation(sequenceNumbers);
+    } finally {
+      swapLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Blocks until index writes of given generation are visible to searches. Waits in each shard
+   * only for the sequence number of that shard. If a shard has been replaced by a rebuilt one
+   * since, all shards are refreshed as sequence numbers of replaced shards don't apply.
+   */
+  public void waitForGeneration(Generation target) {
+    if (target.sequenceNumbers.isEmpty()) {
+      return;
+    }
+    swapLock.readLock().lock();
+    try {
+      boolean replaced = false;
+      for (Map.Entry<Object, Long> entry : target.sequenceNumbers.entrySet()) {
+        Shard shard = (Shard) entry.getKey();
+        if (shards.get(shard.name) == shard) {
+          shard.reopenThread.waitForGeneration(entry.getValue());
+        } else {
+          replaced = true;
+        }
+      }
+      if (replaced) {
+        for (Shard shard : shards.values()) {
+          shard.searcherManager.maybeRefreshBlocking();
+        }
+      }
     } catch (IOException e) {
       throw new LuceneException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new LuceneException(e);
+    } finally {
+      swapLock.readLock().unlock();
     }
   }
 
   public void refreshBlocking() {
+    swapLock.readLock().lock();
     try {
-      searcherManager.maybeRefreshBlocking();
+      for (Shard shard : shards.values()) {
+        shard.searcherManager.maybeRefreshBlocking();
+      }
     } catch (IOException e) {
       throw new LuceneException(e);
+    } finally {
+      swapLock.readLock().unlock();
     }
   }
 
   public void commit() {
+    swapLock.readLock().lock();
     try {
-      writer.commit();
+      for (Shard shard : shards.values()) {
+        shard.writer.commit();
+      }
+    } catch (IOException e) {
+      throw new LuceneException(e);
+    } finally {
+      swapLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Copies a consistent copy of the index to given empty or non-existing directory while index is
+   * in use. Index is committed and the commit is kept from being deleted until its files are
+   * copied. Copy can be restored by pointing index directory path to it.
+   *
+   * @return user data of the copied commit (only values agreed by all shards if index is sharded)
+   */
+  public Map<String, String> backup(Path target) {
+    try {
+      if (Files.isDirectory(target)) {
+        try (Stream<Path> existing = Files.list(target)) {
+          if (existing.findAny().isPresent()) {
+            throw new IllegalArgumentException("Backup directory is not empty: " + target);
+          }
+        }
+      }
+
+      commit();
+
+      swapLock.readLock().lock();
+      try {
+        Map<String, String> agreed = null;
+        for (Map.Entry<String, Shard> entry : shards.entrySet()) {
+          Path shardTarget = sharding == null
+              ? target : target.resolve("shards").resolve(entry.getKey());
+          Map<String, String> shardCommitData = entry.getValue().backup(shardTarget);
+          if (agreed == null) {
+            agreed = new HashMap<>(shardCommitData);
+          } else {
+            agreed.entrySet().retainAll(shardCommitData.entrySet());
+          }
+        }
+        return agreed != null ? agreed : new HashMap<>();
+      } finally {
+        swapLock.readLock().unlock();
+      }
     } catch (IOException e) {
       throw new LuceneException(e);
     }
@@ -294,54 +1117,294 @@ public class LuceneIndex<K extends Serializable, V> implements Index<K, V> {
   public void close() {
     log.debug("Closing {}", getClass().getSimpleName());
 
+    cancelRebuild();
+
+    swapLock.writeLock().lock();
     try {
-      indexingExecutor.shutdown();
       scheduledExecutorService.shutdown();
-      searcherManager.close();
-      writer.close();
+      for (Shard shard : shards.values()) {
+        shard.close();
+      }
     } catch (IOException e) {
       throw new LuceneException(e);
+    } finally {
+      swapLock.writeLock().unlock();
+    }
+  }
+
+  // Sort of existing segments can't be changed. If some segment is not in configured sort, shard
+  // is opened unsorted until the index is rebuilt.
+  private Sort indexSort(Directory directory) throws IOException {
+    if (indexSort == null || !DirectoryReader.indexExists(directory)) {
+      return indexSort;
+    }
+    for (SegmentCommitInfo segment : SegmentInfos.readLatestCommit(directory)) {
+      if (!indexSort.equals(segment.info.getIndexSort())) {
+        log.warn("Index in {} is not sorted by {}, rebuild index to sort it", directory,
+            indexSort);
+        return null;
+      }
     }
+    return indexSort;
   }
 
-  private class IndexingTask implements Callable<Void> {
+  /**
+   * Sequence numbers of index writes keyed by shard. Generations of writes done in parallel can be
+   * merged and waited for at once.
+   */
+  public static final class Generation {
+
+    public static final Generation NONE = new Generation(emptyMap());
 
-    private Supplier<Stream<K>> keyStreamProvider;
-    private Function<K, Optional<V>> valueProvider;
+    // keyed by shard instance, shards of a rebuilt index have their own sequences
+    private final Map<Object, Long> sequenceNumbers;
 
-    IndexingTask(Supplier<Stream<K>> keyStreamProvider, Function<K, Optional<V>> valueProvider) {
-      this.keyStreamProvider = keyStreamProvider;
-      this.valueProvider = valueProvider;
+    private Generation(Map<Object, Long> sequenceNumbers) {
+      this.sequenceNumbers = sequenceNumbers;
     }
 
-    @Override
-    public Void call() {
-      log.info("Indexing");
+    /**
+     * Returns generation covering writes of both generations.
+     */
+    public Generation merge(Generation other) {
+      if (covers(other)) {
+        return this;
+      }
+      if (other.covers(this)) {
+        return other;
+      }
+      Map<Object, Long> merged = new HashMap<>(sequenceNumbers);
+      other.sequenceNumbers.forEach((shard, seqNo) -> merged.merge(shard, seqNo, Math::max));
+      return new Generation(merged);
+    }
 
-      try (Stream<K> keyStream = keyStreamProvider.get()) {
-        StreamUtils.zipIndex(keyStream, Tuple::of).forEach(t -> {
+    private boolean covers(Generation other) {
+      return other.sequenceNumbers.entrySet().stream().allMatch(
+          e -> sequenceNumbers.getOrDefault(e.getKey(), 0L) >= e.getValue());
+    }
 
-          try {
-            Optional<V> value = valueProvider.apply(t._1);
+    public boolean isEmpty() {
+      return sequenceNumbers.isEmpty();
+    }
 
-            if (value.isPresent()) {
-              index(t._1, value.get());
-            } else {
-              delete(t._1);
-            }
-          } catch (Throwable ex) {
-            log.error("", ex);
-            throw ex;
-          }
+  }
 
-          if (t._2 % 1000 == 0) {
-            log.debug("Indexed {} values", t._2);
-          }
-        });
+  private interface ShardWrite {
+
+    // returns sequence number of the write
+    long apply(IndexWriter writer) throws IOException;
+
+  }
+
+  // index built beside the live index, see startRebuild
+  private class Rebuild {
+
+    private final Map<String, Shard> shards = new ConcurrentHashMap<>();
+    private final Map<String, String> commitData;
+
+    // ids of documents written to live index during rebuild, rebuilt values of these may be stale
+    private final Set<String> liveWrittenIds = ConcurrentHashMap.newKeySet();
+    private final Striped<Lock> idLocks = Striped.lock(64);
+
+    Rebuild(Map<String, String> commitData) throws IOException {
+      this.commitData = commitData;
+      // unsharded index has always its single shard
+      if (sharding == null) {
+        shards.put("", new Shard(root(), "", commitData));
       }
+    }
+
+    Path root() {
+      return isNullOrEmpty(directoryPath) ? null : indexPath(REBUILD_SUFFIX);
+    }
+
+    Shard shard(K key) {
+      return LuceneIndex.this.shard(shards, root(), commitData, key);
+    }
+
+    void liveWrite(String documentId, Runnable write) {
+      Lock lock = idLocks.get(documentId);
+      lock.lock();
+      try {
+        liveWrittenIds.add(documentId);
+        write.run();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void rebuildWrite(String documentId, Runnable write) {
+      Lock lock = idLocks.get(documentId);
+      lock.lock();
+      try {
+        if (!liveWrittenIds.contains(documentId)) {
+          write.run();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+  }
+
+  // writer, searcher manager and reopen thread of one index directory
+  private class Shard {
+
+    private final String name;
+    private final IndexWriter writer;
+    private final SnapshotDeletionPolicy snapshotPolicy;
+    private final SearcherManager searcherManager;
+    private final ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
 
-      log.info("Done");
-      return null;
+    // sequence number of the latest write in this shard
+    private final AtomicLong lastSequenceNumber = new AtomicLong();
+
+    // one reference is held while the shard is live and one by each lease searching it
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private volatile Runnable unreferencedListener = () -> {
+    };
+
+    Shard(Path root, String name, Map<String, String> initialCommitData) throws IOException {
+      this.name = name;
+      this.snapshotPolicy = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+      Directory directory = openDirectory(root, name);
+      IndexWriterConfig c = new IndexWriterConfig(new LowerCaseWhitespaceAnalyzer())
+          .setOpenMode(CREATE_OR_APPEND)
+          .setIndexDeletionPolicy(snapshotPolicy)
+          .setCodec(new TermedCodec());
+      Sort sort = indexSort(directory);
+      if (sort != null) {
+        c.setIndexSort(sort);
+      }
+      this.writer = new IndexWriter(directory, c);
+      this.searcherManager = new SearcherManager(writer, searcherFactory);
+
+      initialCommitData.forEach(this::setCommitData);
+
+      this.reopenThread = new ControlledRealTimeReopenThread<>(
+          writer, searcherManager, maxStaleSec, minStaleSec);
+      this.reopenThread.setName(LuceneIndex.class.getSimpleName() + "-reopen"
+          + (name.isEmpty() ? "" : "-" + name));
+      this.reopenThread.setDaemon(true);
+      this.reopenThread.start();
+    }
+
+    void written(long sequenceNumber) {
+      lastSequenceNumber.accumulateAndGet(sequenceNumber, Math::max);
+    }
+
+    Map<String, String> getCommitData() {
+      Map<String, String> data = new HashMap<>();
+      Iterable<Map.Entry<String, String>> liveCommitData = writer.getLiveCommitData();
+      if (liveCommitData != null) {
+        liveCommitData.forEach(entry -> data.put(entry.getKey(), entry.getValue()));
+      }
+      return data;
+    }
+
+    synchronized void setCommitData(String key, String value) {
+      Map<String, String> data = getCommitData();
+      data.put(key, value);
+      writer.setLiveCommitData(data.entrySet());
+    }
+
+    // copies files of the last commit to given directory, returns user data of the commit
+    Map<String, String> backup(Path target) throws IOException {
+      IndexCommit snapshot = snapshotPolicy.snapshot();
+      try (Directory targetDirectory = FSDirectory.open(target)) {
+        for (String file : snapshot.getFileNames()) {
+          targetDirectory.copyFrom(snapshot.getDirectory(), file, file, IOContext.READONCE);
+        }
+        log.info("Copied {} index files to {}", snapshot.getFileNames().size(), target);
+        return snapshot.getUserData();
+      } finally {
+        snapshotPolicy.release(snapshot);
+        writer.deleteUnusedFiles();
+      }
+    }
+
+    void close() throws IOException {
+      reopenThread.close();
+      searcherManager.close();
+      writer.close();
+    }
+
+    void incRef() {
+      refCount.incrementAndGet();
+    }
+
+    void decRef() {
+      if (refCount.decrementAndGet() == 0) {
+        unreferencedListener.run();
+      }
+    }
+
+    // releases reference of a replaced shard, listener is run when no lease uses the shard
+    void retire(Runnable listener) {
+      unreferencedListener = listener;
+      decRef();
+    }
+
+  }
+
+  // searcher over one or more shards, searchers of multiple shards are combined by a MultiReader
+  private class SearcherLease {
+
+    private final IndexSearcher searcher;
+
+    private final List<Shard> leasedShards = new ArrayList<>();
+    private final List<IndexSearcher> shardSearchers = new ArrayList<>();
+    private final MultiReader multiReader;
+
+    SearcherLease(Collection<Shard> shardsToSearch) throws IOException {
+      try {
+        for (Shard shard : shardsToSearch) {
+          shardSearchers.add(shard.searcherManager.acquire());
+          leasedShards.add(shard);
+          shard.incRef();
+        }
+      } catch (IOException | RuntimeException e) {
+        releaseShardSearchers();
+        throw e;
+      }
+
+      if (shardSearchers.size() == 1) {
+        this.searcher = shardSearchers.get(0);
+        this.multiReader = null;
+      } else {
+        this.multiReader = new MultiReader(shardSearchers.stream()
+            .map(IndexSearcher::getIndexReader)
+            .toArray(IndexReader[]::new), false);
+        this.searcher = searcherFactory.newSearcher(multiReader, null);
+      }
+    }
+
+    // readers of searched shards, doc ids are valid for searches over the same readers
+    List<IndexReader> readers() {
+      return shardSearchers.stream()
+          .map(IndexSearcher::getIndexReader)
+          .collect(Collectors.toList());
+    }
+
+    void release() throws IOException {
+      try {
+        if (multiReader != null) {
+          multiReader.close();
+        }
+      } finally {
+        releaseShardSearchers();
+      }
+    }
+
+    private void releaseShardSearchers() throws IOException {
+      for (int i = 0; i < shardSearchers.size(); i++) {
+        Shard shard = leasedShards.get(i);
+        try {
+          shard.searcherManager.release(shardSearchers.get(i));
+        } finally {
+          shard.decRef();
+        }
+      }
     }
 
   }
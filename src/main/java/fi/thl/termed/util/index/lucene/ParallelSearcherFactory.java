@@ -0,0 +1,145 @@
+package fi.thl.termed.util.index.lucene;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.QueryCache;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.Weight;
+
+/**
+ * Creates searchers that search index slices in parallel using given number of threads. Each
+ * slice is a run of consecutive segments limited by max docs and max segments per slice, so that
+ * collecting slices in order still visits docs in doc id order. Search time of each slice is
+ * recorded to given timer. Searchers share given query cache and caching policy.
+ */
+public class ParallelSearcherFactory extends SearcherFactory implements AutoCloseable {
+
+  private final ExecutorService executor;
+  private final int maxDocsPerSlice;
+  private final int maxSegmentsPerSlice;
+  private final Timer sliceTimer;
+  private final QueryCache queryCache;
+  private final QueryCachingPolicy queryCachingPolicy;
+
+  public ParallelSearcherFactory(int threads, int maxDocsPerSlice, int maxSegmentsPerSlice,
+      Timer sliceTimer) {
+    this(threads, maxDocsPerSlice, maxSegmentsPerSlice, sliceTimer,
+        IndexSearcher.getDefaultQueryCache(), IndexSearcher.getDefaultQueryCachingPolicy());
+  }
+
+  /**
+   * @param threads number of search threads, zero or negative value searches all slices in the
+   * calling thread
+   */
+  public ParallelSearcherFactory(int threads, int maxDocsPerSlice, int maxSegmentsPerSlice,
+      Timer sliceTimer, QueryCache queryCache, QueryCachingPolicy queryCachingPolicy) {
+    checkArgument(maxDocsPerSlice > 0, "maxDocsPerSlice must be positive");
+    checkArgument(maxSegmentsPerSlice > 0, "maxSegmentsPerSlice must be positive");
+    this.executor = threads > 0
+        ? Executors.newFixedThreadPool(threads, new SearchThreadFactory())
+        : null;
+    this.maxDocsPerSlice = maxDocsPerSlice;
+    this.maxSegmentsPerSlice = maxSegmentsPerSlice;
+    this.sliceTimer = sliceTimer;
+    this.queryCache = queryCache;
+    this.queryCachingPolicy = queryCachingPolicy;
+  }
+
+  @Override
+  public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+    IndexSearcher searcher = new SliceTimingIndexSearcher(reader);
+    searcher.setQueryCache(queryCache);
+    searcher.setQueryCachingPolicy(queryCachingPolicy);
+    return searcher;
+  }
+
+  static List<List<LeafReaderContext>> groupLeaves(List<LeafReaderContext> leaves,
+      int maxDocsPerSlice, int maxSegmentsPerSlice) {
+    List<List<LeafReaderContext>> groups = new ArrayList<>();
+
+    List<LeafReaderContext> group = new ArrayList<>();
+    long groupDocs = 0;
+
+    for (LeafReaderContext leaf : leaves) {
+      int leafDocs = leaf.reader().maxDoc();
+
+      if (!group.isEmpty() &&
+          (groupDocs + leafDocs > maxDocsPerSlice || group.size() >= maxSegmentsPerSlice)) {
+        groups.add(group);
+        group = new ArrayList<>();
+        groupDocs = 0;
+      }
+
+      group.add(leaf);
+      groupDocs += leafDocs;
+    }
+
+    if (!group.isEmpty()) {
+      groups.add(group);
+    }
+
+    return groups;
+  }
+
+  @Override
+  public void close() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  // inner class as IndexSearcher calls slices(...) from its constructor before own fields are set
+  private class SliceTimingIndexSearcher extends IndexSearcher {
+
+    SliceTimingIndexSearcher(IndexReader reader) {
+      super(reader, executor);
+    }
+
+    @Override
+    protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+      return groupLeaves(leaves, maxDocsPerSlice, maxSegmentsPerSlice).stream()
+          .map(group -> new LeafSlice(group.toArray(new LeafReaderContext[0])))
+          .toArray(LeafSlice[]::new);
+    }
+
+    @Override
+    protected void search(List<LeafReaderContext> leaves, Weight weight, Collector collector)
+        throws IOException {
+      long start = System.nanoTime();
+      try {
+        super.search(leaves, weight, collector);
+      } finally {
+        sliceTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+    }
+
+  }
+
+  private static class SearchThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "LuceneIndex-search-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+
+  }
+
+}
@@ -0,0 +1,149 @@
+package fi.thl.termed.util.index.lucene;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Encodes sort values of a hit (FieldDoc.fields) to an url safe token and back. Values are
+ * written with a type tag so that a token can be checked against the sort it is used with.
+ */
+final class SearchAfterCodec {
+
+  private static final byte NULL = 0;
+  private static final byte BYTES = 1;
+  private static final byte INT = 2;
+  private static final byte LONG = 3;
+  private static final byte FLOAT = 4;
+  private static final byte DOUBLE = 5;
+
+  private SearchAfterCodec() {
+  }
+
+  static String encode(FieldDoc fieldDoc) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeShort(fieldDoc.fields.length);
+      for (Object value : fieldDoc.fields) {
+        writeValue(out, value);
+      }
+    } catch (IOException e) {
+      throw new LuceneException(e);
+    }
+
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+  }
+
+  private static void writeValue(DataOutputStream out, Object value) throws IOException {
+    if (value == null) {
+      out.writeByte(NULL);
+    } else if (value instanceof BytesRef) {
+      BytesRef bytesRef = (BytesRef) value;
+      out.writeByte(BYTES);
+      out.writeInt(bytesRef.length);
+      out.write(bytesRef.bytes, bytesRef.offset, bytesRef.length);
+    } else if (value instanceof Integer) {
+      out.writeByte(INT);
+      out.writeInt((Integer) value);
+    } else if (value instanceof Long) {
+      out.writeByte(LONG);
+      out.writeLong((Long) value);
+    } else if (value instanceof Float) {
+      out.writeByte(FLOAT);
+      out.writeFloat((Float) value);
+    } else if (value instanceof Double) {
+      out.writeByte(DOUBLE);
+      out.writeDouble((Double) value);
+    } else {
+      throw new IllegalStateException("Unsupported sort value: " + value.getClass());
+    }
+  }
+
+  /**
+   * Decodes token to a FieldDoc to search after with given sort. Returned doc has given doc id,
+   * which is compared only if all sort values are equal.
+   *
+   * @throws IllegalArgumentException if token is malformed or does not match the sort
+   */
+  static FieldDoc decode(String token, SortField[] sortFields, int doc) {
+    Object[] fields;
+
+    try (DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(Base64.getUrlDecoder().decode(token)))) {
+      fields = new Object[in.readShort()];
+      for (int i = 0; i < fields.length; i++) {
+        fields[i] = readValue(in);
+      }
+      if (in.read() != -1) {
+        throw new IllegalArgumentException("Malformed cursor: " + token);
+      }
+    } catch (IOException | IllegalArgumentException | NegativeArraySizeException e) {
+      throw new IllegalArgumentException("Malformed cursor: " + token, e);
+    }
+
+    if (fields.length != sortFields.length) {
+      throw new IllegalArgumentException("Cursor does not match sort: " + token);
+    }
+    for (int i = 0; i < fields.length; i++) {
+      if (!matches(fields[i], sortFields[i])) {
+        throw new IllegalArgumentException("Cursor does not match sort: " + token);
+      }
+    }
+
+    return new FieldDoc(doc, Float.NaN, fields);
+  }
+
+  private static Object readValue(DataInputStream in) throws IOException {
+    byte type = in.readByte();
+    switch (type) {
+      case NULL:
+        return null;
+      case BYTES:
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+          throw new IOException("Invalid sort value length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new BytesRef(bytes);
+      case INT:
+        return in.readInt();
+      case LONG:
+        return in.readLong();
+      case FLOAT:
+        return in.readFloat();
+      case DOUBLE:
+        return in.readDouble();
+      default:
+        throw new IOException("Unknown sort value type: " + type);
+    }
+  }
+
+  // missing string values are sorted as nulls, numeric values have a missing value
+  private static boolean matches(Object value, SortField sortField) {
+    switch (sortField.getType()) {
+      case STRING:
+      case STRING_VAL:
+        return value == null || value instanceof BytesRef;
+      case INT:
+        return value instanceof Integer;
+      case LONG:
+        return value instanceof Long;
+      case FLOAT:
+      case SCORE:
+        return value instanceof Float;
+      case DOUBLE:
+        return value instanceof Double;
+      default:
+        return false;
+    }
+  }
+
+}
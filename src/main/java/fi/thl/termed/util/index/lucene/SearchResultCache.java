@@ -0,0 +1,114 @@
+package fi.thl.termed.util.index.lucene;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+
+/**
+ * Caches matching doc ids of searches. Cache key contains the identity of searched index readers
+ * so cached doc ids are valid as long as same readers are used. Entries of a reader are removed
+ * when the reader is closed, i.e. after searcher refresh when the reader is no longer in use.
+ */
+public class SearchResultCache {
+
+  private final Cache<Key, int[]> cache;
+
+  // readers with a closed listener removing their entries
+  private final Set<IndexReader.CacheKey> listenedReaders = ConcurrentHashMap.newKeySet();
+
+  /**
+   * @param maxDocs max number of doc ids cached in total
+   */
+  public SearchResultCache(long maxDocs) {
+    this.cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxDocs)
+        .<Key, int[]>weigher((key, docs) -> docs.length + 1)
+        .recordStats()
+        .build();
+  }
+
+  public Cache<?, ?> getCache() {
+    return cache;
+  }
+
+  /**
+   * Returns cached docs of the search or loads and caches them.
+   */
+  int[] get(List<IndexReader> readers, Query query, Sort sort, int max, Callable<int[]> loader)
+      throws IOException {
+
+    List<IndexReader.CacheKey> readerKeys = readers.stream()
+        .map(this::readerKey)
+        .collect(Collectors.toList());
+
+    try {
+      return cache.get(new Key(readerKeys, query, sort, max), loader);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new LuceneException(e.getCause());
+    }
+  }
+
+  private IndexReader.CacheKey readerKey(IndexReader reader) {
+    IndexReader.CacheHelper cacheHelper = reader.getReaderCacheHelper();
+    IndexReader.CacheKey readerKey = cacheHelper.getKey();
+
+    if (listenedReaders.add(readerKey)) {
+      cacheHelper.addClosedListener(closedKey -> {
+        cache.asMap().keySet().removeIf(key -> key.readerKeys.contains(closedKey));
+        listenedReaders.remove(closedKey);
+      });
+    }
+
+    return readerKey;
+  }
+
+  private static final class Key {
+
+    private final List<IndexReader.CacheKey> readerKeys;
+    private final Query query;
+    private final Sort sort;
+    private final int max;
+
+    Key(List<IndexReader.CacheKey> readerKeys, Query query, Sort sort, int max) {
+      this.readerKeys = readerKeys;
+      this.query = query;
+      this.sort = sort;
+      this.max = max;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return max == key.max &&
+          Objects.equals(readerKeys, key.readerKeys) &&
+          Objects.equals(query, key.query) &&
+          Objects.equals(sort, key.sort);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(readerKeys, query, sort, max);
+    }
+
+  }
+
+}
@@ -1,15 +1,23 @@
 package fi.thl.termed.util.index.lucene;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Collection;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.CollectorManager;
 import org.apache.lucene.search.ScoreMode;
 import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.util.ArrayUtil;
 
+/**
+ * Collects all matching doc ids into a primitive int buffer. As leaves are visited in order and
+ * docs in a leaf are collected in increasing order, resulting doc ids are in increasing order.
+ */
 public class SimpleAllCollector extends SimpleCollector {
 
   private int docBase = 0;
-  private List<Integer> docs = new ArrayList<>();
+
+  private int[] docs = new int[64];
+  private int size = 0;
 
   @Override
   protected void doSetNextReader(LeafReaderContext context) {
@@ -18,7 +26,10 @@ public class SimpleAllCollector extends SimpleCollector {
 
   @Override
   public void collect(int doc) {
-    docs.add(docBase + doc);
+    if (size == docs.length) {
+      docs = ArrayUtil.grow(docs, size + 1);
+    }
+    docs[size++] = docBase + doc;
   }
 
   @Override
@@ -26,8 +37,33 @@ public class SimpleAllCollector extends SimpleCollector {
     return ScoreMode.COMPLETE_NO_SCORES;
   }
 
-  public List<Integer> getDocs() {
-    return docs;
+  public int[] getDocs() {
+    return Arrays.copyOf(docs, size);
+  }
+
+  /**
+   * Returns a collector manager for searching slices in parallel. Results of slice collectors are
+   * concatenated in slice order, i.e. resulting doc ids are in increasing order if slices are
+   * consecutive runs of leaves.
+   */
+  public static CollectorManager<SimpleAllCollector, int[]> manager() {
+    return new CollectorManager<SimpleAllCollector, int[]>() {
+      @Override
+      public SimpleAllCollector newCollector() {
+        return new SimpleAllCollector();
+      }
+
+      @Override
+      public int[] reduce(Collection<SimpleAllCollector> collectors) {
+        int[] results = new int[collectors.stream().mapToInt(c -> c.size).sum()];
+        int offset = 0;
+        for (SimpleAllCollector collector : collectors) {
+          System.arraycopy(collector.docs, 0, results, offset, collector.size);
+          offset += collector.size;
+        }
+        return results;
+      }
+    };
   }
 
 }
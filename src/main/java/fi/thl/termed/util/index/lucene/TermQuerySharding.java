@@ -0,0 +1,102 @@
+package fi.thl.termed.util.index.lucene;
+
+import static java.util.Collections.singleton;
+
+import com.google.common.collect.Sets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+/**
+ * Shards documents by value of a single valued field. Given key to shard function must return
+ * the field value of the indexed document. Queries are pruned to shards if query requires a term
+ * in the shard field, e.g. "+type.graph.id:123 +type.id:Concept" searches only shard "123".
+ */
+public class TermQuerySharding<K> implements IndexSharding<K> {
+
+  private final String field;
+  private final Function<K, String> shardFunction;
+
+  public TermQuerySharding(String field, Function<K, String> shardFunction) {
+    this.field = field;
+    this.shardFunction = shardFunction;
+  }
+
+  @Override
+  public String shard(K key) {
+    return shardFunction.apply(key);
+  }
+
+  @Override
+  public Optional<Set<String>> shards(Query query) {
+    return requiredTerms(query, field);
+  }
+
+  /**
+   * Returns terms of given field such that a document matching the query must have one of them,
+   * or empty if query does not restrict the field.
+   */
+  static Optional<Set<String>> requiredTerms(Query query, String field) {
+    if (query instanceof TermQuery) {
+      TermQuery termQuery = (TermQuery) query;
+      return termQuery.getTerm().field().equals(field)
+          ? Optional.of(singleton(termQuery.getTerm().text()))
+          : Optional.empty();
+    }
+    if (query instanceof ConstantScoreQuery) {
+      return requiredTerms(((ConstantScoreQuery) query).getQuery(), field);
+    }
+    if (query instanceof BoostQuery) {
+      return requiredTerms(((BoostQuery) query).getQuery(), field);
+    }
+    if (query instanceof BooleanQuery) {
+      return requiredTerms((BooleanQuery) query, field);
+    }
+    return Optional.empty();
+  }
+
+  private static Optional<Set<String>> requiredTerms(BooleanQuery query, String field) {
+    List<Optional<Set<String>>> required = query.clauses().stream()
+        .filter(c -> c.getOccur() == Occur.MUST || c.getOccur() == Occur.FILTER)
+        .map(c -> requiredTerms(c.getQuery(), field))
+        .collect(Collectors.toList());
+
+    if (!required.isEmpty()) {
+      // intersection of restricted required clauses
+      return required.stream()
+          .filter(Optional::isPresent)
+          .map(Optional::get)
+          .reduce((a, b) -> Sets.intersection(a, b).immutableCopy());
+    }
+
+    List<BooleanClause> optional = query.clauses().stream()
+        .filter(c -> c.getOccur() == Occur.SHOULD)
+        .collect(Collectors.toList());
+
+    if (optional.isEmpty()) {
+      return Optional.empty();
+    }
+
+    // without required clauses, one of optional clauses must match
+    Set<String> union = new HashSet<>();
+    for (BooleanClause clause : optional) {
+      Optional<Set<String>> clauseTerms = requiredTerms(clause.getQuery(), field);
+      if (!clauseTerms.isPresent()) {
+        return Optional.empty();
+      }
+      union.addAll(clauseTerms.get());
+    }
+    return Optional.of(union);
+  }
+
+}
@@ -0,0 +1,123 @@
+package fi.thl.termed.util.index.lucene;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Objects;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.TermInSetQuery;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+
+/**
+ * Index side join. Matches documents that have a term in "to" field equal to "from" field value
+ * of some document matching the "from" query, e.g. nodes referring to nodes matching a query.
+ * "From" field must be a single valued sorted doc values field.
+ *
+ * <p>Join is resolved on rewrite against the searched reader: "from" values are read as bytes from
+ * doc values into a hash and the query is rewritten to a {@link TermInSetQuery}. Nested joins in
+ * "from" query are rewritten the same way when "from" query is searched.
+ */
+public class TermsJoinQuery extends Query {
+
+  private final String fromField;
+  private final Query fromQuery;
+  private final String toField;
+
+  public TermsJoinQuery(String fromField, Query fromQuery, String toField) {
+    this.fromField = Objects.requireNonNull(fromField);
+    this.fromQuery = Objects.requireNonNull(fromQuery);
+    this.toField = Objects.requireNonNull(toField);
+  }
+
+  public String getFromField() {
+    return fromField;
+  }
+
+  public Query getFromQuery() {
+    return fromQuery;
+  }
+
+  public String getToField() {
+    return toField;
+  }
+
+  @Override
+  public Query rewrite(IndexReader reader) throws IOException {
+    TermsCollector collector = new TermsCollector(fromField);
+    new IndexSearcher(reader).search(fromQuery, collector);
+    return new TermInSetQuery(toField, collector.sortedTerms());
+  }
+
+  @Override
+  public String toString(String field) {
+    return "join(" + fromField + ":[" + fromQuery.toString(field) + "] -> " + toField + ")";
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return sameClassAs(o) &&
+        fromField.equals(((TermsJoinQuery) o).fromField) &&
+        fromQuery.equals(((TermsJoinQuery) o).fromQuery) &&
+        toField.equals(((TermsJoinQuery) o).toField);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(classHash(), fromField, fromQuery, toField);
+  }
+
+  private static class TermsCollector extends SimpleCollector {
+
+    private final String field;
+    private final BytesRefHash terms = new BytesRefHash();
+
+    private SortedDocValues values;
+
+    TermsCollector(String field) {
+      this.field = field;
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+      values = DocValues.getSorted(context.reader(), field);
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+      if (values.advanceExact(doc)) {
+        terms.add(values.binaryValue());
+      }
+    }
+
+    @Override
+    public ScoreMode scoreMode() {
+      return ScoreMode.COMPLETE_NO_SCORES;
+    }
+
+    // list view of collected terms in sorted order, terms are not copied out of the hash
+    AbstractList<BytesRef> sortedTerms() {
+      int[] ids = terms.sort();
+      int size = terms.size();
+      return new AbstractList<BytesRef>() {
+        @Override
+        public BytesRef get(int index) {
+          return terms.get(ids[index], new BytesRef());
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+      };
+    }
+
+  }
+
+}
@@ -0,0 +1,110 @@
+package fi.thl.termed.util.postgresql;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+
+/**
+ * Writes rows in PostgreSQL binary COPY format. Each row is started with {@link #startRow(int)}
+ * followed by exactly given number of field writes in table column order. Null values are written
+ * as SQL NULLs. Field writers must match column types, e.g. {@link #writeInt(Integer)} for integer
+ * and {@link #writeLong(Long)} for bigint columns.
+ */
+public class BinaryCopyWriter {
+
+  private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r',
+      '\n', 0};
+
+  private static final LocalDateTime POSTGRES_EPOCH = LocalDateTime.of(2000, 1, 1, 0, 0);
+
+  private final DataOutputStream out;
+
+  /**
+   * Creates writer and writes the file header. Given stream is flushed but not closed on {@link
+   * #finish()}.
+   */
+  public BinaryCopyWriter(OutputStream out) throws IOException {
+    this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+    this.out.write(SIGNATURE);
+    this.out.writeInt(0);
+    this.out.writeInt(0);
+  }
+
+  public void startRow(int fieldCount) throws IOException {
+    out.writeShort(fieldCount);
+  }
+
+  public void writeNull() throws IOException {
+    out.writeInt(-1);
+  }
+
+  public void writeText(String value) throws IOException {
+    if (value == null) {
+      writeNull();
+      return;
+    }
+
+    byte[] bytes = value.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  public void writeUuid(UUID value) throws IOException {
+    if (value == null) {
+      writeNull();
+      return;
+    }
+
+    out.writeInt(16);
+    out.writeLong(value.getMostSignificantBits());
+    out.writeLong(value.getLeastSignificantBits());
+  }
+
+  public void writeInt(Integer value) throws IOException {
+    if (value == null) {
+      writeNull();
+      return;
+    }
+
+    out.writeInt(4);
+    out.writeInt(value);
+  }
+
+  public void writeLong(Long value) throws IOException {
+    if (value == null) {
+      writeNull();
+      return;
+    }
+
+    out.writeInt(8);
+    out.writeLong(value);
+  }
+
+  /**
+   * Writes timestamp (without time zone) as microseconds since 2000-01-01.
+   */
+  public void writeTimestamp(LocalDateTime value) throws IOException {
+    if (value == null) {
+      writeNull();
+      return;
+    }
+
+    out.writeInt(8);
+    out.writeLong(ChronoUnit.MICROS.between(POSTGRES_EPOCH, value));
+  }
+
+  /**
+   * Writes the file trailer and flushes buffered data to underlying stream.
+   */
+  public void finish() throws IOException {
+    out.writeShort(-1);
+    out.flush();
+  }
+
+}
@@ -0,0 +1,10 @@
+package fi.thl.termed.util.postgresql;
+
+/**
+ * Data format used in COPY FROM STDIN.
+ */
+public enum CopyFormat {
+
+  CSV, BINARY
+
+}
@@ -1,28 +1,72 @@
 package fi.thl.termed.util.postgresql;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.opencsv.CSVWriter;
-import java.io.CharArrayReader;
-import java.io.CharArrayWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.sql.SQLException;
-import java.util.List;
-import org.postgresql.copy.CopyManager;
+import java.util.Iterator;
+import org.postgresql.copy.PGCopyOutputStream;
 import org.postgresql.core.BaseConnection;
 
 public final class CopyManagerUtils {
 
+  private static final int BUFFER_SIZE = 64 * 1024;
+
   private CopyManagerUtils() {
   }
 
-  public static long copyInAsCsv(BaseConnection pgConnection, String sql, List<String[]> rows) {
-    CharArrayWriter writer = new CharArrayWriter();
-    new CSVWriter(writer).writeAll(rows);
+  public static long copyInAsCsv(BaseConnection pgConnection, String sql, Iterator<String[]> rows) {
+    return copyIn(pgConnection, sql, out -> writeCsv(rows, out));
+  }
+
+  /**
+   * Streams data written by given writer to COPY FROM STDIN command. Copy is cancelled if writing
+   * fails.
+   *
+   * @return number of rows copied
+   */
+  public static long copyIn(BaseConnection pgConnection, String sql, CopyInWriter writer) {
+    PGCopyOutputStream out = null;
 
     try {
-      return new CopyManager(pgConnection).copyIn(sql, new CharArrayReader(writer.toCharArray()));
+      out = new PGCopyOutputStream(pgConnection, sql, BUFFER_SIZE);
+      writer.writeTo(out);
+      return out.endCopy();
     } catch (SQLException | IOException e) {
       throw new RuntimeException(e);
+    } finally {
+      if (out != null && out.isActive()) {
+        cancelCopy(out);
+      }
     }
   }
 
+  private static void cancelCopy(PGCopyOutputStream out) {
+    try {
+      out.cancelCopy();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Writes rows in CSV format accepted by COPY FROM. Null values are written as unquoted empty
+   * strings. Given stream is flushed but not closed.
+   */
+  public static void writeCsv(Iterator<String[]> rows, OutputStream out) throws IOException {
+    CSVWriter csvWriter = new CSVWriter(new OutputStreamWriter(out, UTF_8));
+    rows.forEachRemaining(csvWriter::writeNext);
+    csvWriter.flush();
+  }
+
+  @FunctionalInterface
+  public interface CopyInWriter {
+
+    void writeTo(OutputStream out) throws IOException;
+
+  }
+
 }
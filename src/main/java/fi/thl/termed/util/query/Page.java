@@ -0,0 +1,57 @@
+package fi.thl.termed.util.query;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Page of cursor based paging. Holds values of the page and an opaque token of the position of
+ * the last value found, next page is searched after that position. Tokens are produced and
+ * interpreted by the index serving the query.
+ */
+public final class Page<V> {
+
+  private final List<V> values;
+  private final String next;
+
+  public Page(List<V> values, String next) {
+    this.values = ImmutableList.copyOf(values);
+    this.next = next;
+  }
+
+  public List<V> getValues() {
+    return values;
+  }
+
+  /**
+   * Returns token of the last value found, empty if search found no values.
+   */
+  public Optional<String> getNext() {
+    return Optional.ofNullable(next);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    Page<?> page = (Page<?>) o;
+    return Objects.equals(values, page.values) &&
+        Objects.equals(next, page.next);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(values, next);
+  }
+
+  @Override
+  public String toString() {
+    return values + (next == null ? "" : " NEXT " + next);
+  }
+
+}
@@ -3,20 +3,30 @@ package fi.thl.termed.util.query;
 import static org.apache.lucene.search.SortField.Type.STRING;
 
 import java.util.Objects;
+import org.apache.lucene.search.SortField.Type;
 
+/**
+ * Sort by a field. In index, string sort values are expected in "field.sortable" and numeric
+ * values e.g. of type long in "field.long".
+ */
 public class SortField implements LuceneSortField {
 
   final String field;
   final boolean desc;
+  final Type type;
 
   SortField(String field) {
-    this.field = field;
-    this.desc = false;
+    this(field, false);
   }
 
   SortField(String field, boolean desc) {
+    this(field, desc, STRING);
+  }
+
+  SortField(String field, boolean desc, Type type) {
     this.field = field;
     this.desc = desc;
+    this.type = type;
   }
 
   public String getField() {
@@ -27,6 +37,10 @@ public class SortField implements LuceneSortField {
     return desc;
   }
 
+  public Type getType() {
+    return type;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -37,22 +51,23 @@ public class SortField implements LuceneSortField {
     }
     SortField sortField = (SortField) o;
     return desc == sortField.desc &&
-        Objects.equals(field, sortField.field);
+        Objects.equals(field, sortField.field) &&
+        type == sortField.type;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(field, desc);
+    return Objects.hash(field, desc, type);
   }
 
   @Override
   public String toString() {
-    return "'" + field + "'" + (desc ? " DESC" : "");
+    return "'" + field + "'" + (type != STRING ? " " + type : "") + (desc ? " DESC" : "");
   }
 
   public org.apache.lucene.search.SortField toLuceneSortField() {
     return new org.apache.lucene.search.SortField(
-        field + ".sortable", STRING, desc);
+        field + (type == STRING ? ".sortable" : "." + type.name().toLowerCase()), type, desc);
   }
 
 }
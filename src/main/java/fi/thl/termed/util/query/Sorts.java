@@ -1,5 +1,7 @@
 package fi.thl.termed.util.query;
 
+import org.apache.lucene.search.SortField.Type;
+
 public final class Sorts {
 
   private Sorts() {
@@ -17,4 +19,16 @@ public final class Sorts {
     return new SortField(field, true);
   }
 
+  public static Sort sortLong(String field) {
+    return new SortField(field, false, Type.LONG);
+  }
+
+  public static Sort sortLong(String field, boolean desc) {
+    return new SortField(field, desc, Type.LONG);
+  }
+
+  public static Sort sortLongDesc(String field) {
+    return new SortField(field, true, Type.LONG);
+  }
+
 }
@@ -1,6 +1,8 @@
 package fi.thl.termed.util.query;
 
 import java.io.Serializable;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 public final class Specifications {
 
@@ -15,6 +17,24 @@ public final class Specifications {
     return new MatchNone<>();
   }
 
+  /**
+   * Resolve all dependent specifications in given specification tree with given resolver.
+   */
+  public static <K extends Serializable, V> void resolve(Specification<K, V> spec,
+      Function<Specification<K, V>, Stream<K>> resolver) {
+    if (spec instanceof DependentSpecification) {
+      ((DependentSpecification<K, V>) spec).resolve(resolver);
+    }
+    if (spec instanceof NotSpecification) {
+      resolve(((NotSpecification<K, V>) spec).getSpecification(), resolver);
+    }
+    if (spec instanceof CompositeSpecification) {
+      for (Specification<K, V> s : ((CompositeSpecification<K, V>) spec).getSpecifications()) {
+        resolve(s, resolver);
+      }
+    }
+  }
+
   /**
    * Wrap given specification to forwarding SQL specification to ensure that specification is "SQL
    * only".
@@ -0,0 +1,16 @@
+package fi.thl.termed.util.spring.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+public class ServiceUnavailableException extends RuntimeException {
+
+  public ServiceUnavailableException() {
+  }
+
+  public ServiceUnavailableException(String message) {
+    super(message);
+  }
+
+}
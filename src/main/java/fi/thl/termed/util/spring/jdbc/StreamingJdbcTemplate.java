@@ -13,6 +13,8 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.stream.Stream;
@@ -35,13 +37,54 @@ public class StreamingJdbcTemplate {
   private Logger log = LoggerFactory.getLogger(getClass());
   private ScheduledExecutorService executor;
 
+  private ThreadLocal<UpdateBatch> updateBatch = new ThreadLocal<>();
+
   public StreamingJdbcTemplate(DataSource dataSource) {
     this.jdbcTemplate = new JdbcTemplate(dataSource);
     this.executor = ExecutorUtils.newScheduledThreadPool(5);
   }
 
   public void update(String sql, Object... args) {
-    jdbcTemplate.update(sql, args);
+    UpdateBatch batch = updateBatch.get();
+    if (batch != null) {
+      batch.add(sql, args);
+    } else {
+      jdbcTemplate.update(sql, args);
+    }
+  }
+
+  public void batchUpdate(String sql, List<Object[]> batchArgs) {
+    flushUpdateBatch();
+    jdbcTemplate.batchUpdate(sql, batchArgs);
+  }
+
+  /**
+   * Runs given updates so that consecutive {@link #update(String, Object...)} calls with the same
+   * SQL are collected and executed as JDBC batches of given size. Pending batch is executed before
+   * any other statement on this template, so reads made by updates see earlier writes. Batch size
+   * of one or less (or a batch already in progress) runs updates as is.
+   */
+  public void inBatches(int batchSize, Runnable updates) {
+    if (batchSize <= 1 || updateBatch.get() != null) {
+      updates.run();
+      return;
+    }
+
+    UpdateBatch batch = new UpdateBatch(batchSize);
+    updateBatch.set(batch);
+    try {
+      updates.run();
+      batch.flush();
+    } finally {
+      updateBatch.remove();
+    }
+  }
+
+  private void flushUpdateBatch() {
+    UpdateBatch batch = updateBatch.get();
+    if (batch != null) {
+      batch.flush();
+    }
   }
 
   public <T> Stream<T> queryForStream(String sql, RowMapper<T> rowMapper, Object... args)
@@ -51,6 +94,7 @@ public class StreamingJdbcTemplate {
 
   public <T> Stream<T> queryForStream(String sql, Object[] args, RowMapper<T> rowMapper)
       throws DataAccessException {
+    flushUpdateBatch();
 
     DataSource dataSource = requireNonNull(jdbcTemplate.getDataSource());
 
@@ -90,11 +134,49 @@ public class StreamingJdbcTemplate {
   }
 
   public <T> Optional<T> queryForOptional(String sql, Class<T> requiredType, Object... args) {
+    flushUpdateBatch();
     return Optional.ofNullable(jdbcTemplate.queryForObject(sql, requiredType, args));
   }
 
   public <T> Optional<T> queryForFirst(String sql, RowMapper<T> rowMapper, Object... args) {
+    flushUpdateBatch();
     return jdbcTemplate.query(sql, rowMapper, args).stream().findFirst();
   }
 
+  private class UpdateBatch {
+
+    private final int batchSize;
+
+    private String sql;
+    private List<Object[]> batchArgs = new ArrayList<>();
+
+    UpdateBatch(int batchSize) {
+      this.batchSize = batchSize;
+    }
+
+    void add(String sql, Object[] args) {
+      if (!sql.equals(this.sql)) {
+        flush();
+        this.sql = sql;
+      }
+
+      batchArgs.add(args);
+
+      if (batchArgs.size() >= batchSize) {
+        flush();
+      }
+    }
+
+    void flush() {
+      if (batchArgs.size() == 1) {
+        jdbcTemplate.update(sql, batchArgs.get(0));
+      } else if (!batchArgs.isEmpty()) {
+        log.trace("Executing batch of {} updates: {}", batchArgs.size(), sql);
+        jdbcTemplate.batchUpdate(sql, batchArgs);
+      }
+      batchArgs = new ArrayList<>();
+    }
+
+  }
+
 }
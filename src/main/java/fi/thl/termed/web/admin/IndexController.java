@@ -5,7 +5,6 @@ import static fi.thl.termed.util.query.AndSpecification.and;
 import static fi.thl.termed.util.query.Queries.matchAll;
 import static fi.thl.termed.util.query.Queries.query;
 import static fi.thl.termed.util.query.Queries.sqlQuery;
-import static org.springframework.http.HttpStatus.NO_CONTENT;
 
 import com.google.common.eventbus.EventBus;
 import fi.thl.termed.domain.AppRole;
@@ -13,28 +12,47 @@ import fi.thl.termed.domain.Graph;
 import fi.thl.termed.domain.GraphId;
 import fi.thl.termed.domain.Node;
 import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.ReindexJob;
 import fi.thl.termed.domain.User;
 import fi.thl.termed.domain.event.ReindexEvent;
+import fi.thl.termed.domain.event.ReindexJobEvent;
+import fi.thl.termed.domain.event.ReindexJobEvent.Operation;
+import fi.thl.termed.service.node.internal.IndexedNodeService;
 import fi.thl.termed.service.node.specification.NodesByGraphId;
 import fi.thl.termed.service.node.specification.NodesByTypeId;
+import fi.thl.termed.util.index.lucene.LuceneIndex;
 import fi.thl.termed.util.query.AndSpecification;
 import fi.thl.termed.util.query.OrSpecification;
+import fi.thl.termed.util.service.SequenceService;
 import fi.thl.termed.util.service.Service;
+import fi.thl.termed.util.spring.exception.BadRequestException;
+import fi.thl.termed.util.spring.exception.NotFoundException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 @RestController
 @RequestMapping("/api")
 public class IndexController {
 
+  private Logger log = LoggerFactory.getLogger(getClass());
+
   @Autowired
   private EventBus eventBus;
 
@@ -44,40 +62,125 @@ public class IndexController {
   @Autowired
   private Service<NodeId, Node> nodeService;
 
+  @Autowired
+  private IndexedNodeService indexedNodeService;
+
+  @Autowired
+  private LuceneIndex<NodeId, Node> nodeIndex;
+
+  @Autowired
+  private Service<Long, ReindexJob> nodeReindexJobService;
+
+  @Autowired
+  private SequenceService nodeReindexJobSeqService;
+
   @DeleteMapping("/index")
-  @ResponseStatus(NO_CONTENT)
-  public void reindex(@AuthenticationPrincipal User user) {
-    if (user.getAppRole() == AppRole.SUPERUSER) {
+  public ResponseEntity<ReindexJob> reindex(
+      @RequestParam(name = "rebuild", defaultValue = "false") boolean rebuild,
+      @AuthenticationPrincipal User user) {
+    if (user.getAppRole() == AppRole.SUPERUSER && rebuild) {
+      Long jobId = nodeReindexJobSeqService.getAndAdvance(user);
+      try {
+        return ResponseEntity.ok(indexedNodeService.startRebuildJob(jobId));
+      } catch (IllegalStateException e) {
+        throw new BadRequestException(e.getMessage());
+      }
+    } else if (user.getAppRole() == AppRole.SUPERUSER) {
       OrSpecification<NodeId, Node> nodesByAnyGraph = OrSpecification.or(toListAndClose(
           graphService.keys(matchAll(), user).map(id -> NodesByGraphId.of(id.getId()))));
 
-      eventBus.post(new ReindexEvent<>(() -> Stream.concat(
+      return ResponseEntity.ok(startReindexJob(() -> Stream.concat(
           nodeService.keys(sqlQuery(nodesByAnyGraph), user),
-          nodeService.keys(query(nodesByAnyGraph), user))));
+          nodeService.keys(query(nodesByAnyGraph), user)), user));
     } else {
       throw new AccessDeniedException("");
     }
   }
 
+  @GetMapping("/index/jobs")
+  public List<ReindexJob> getReindexJobs(@AuthenticationPrincipal User user) {
+    if (user.getAppRole() != AppRole.SUPERUSER) {
+      throw new AccessDeniedException("");
+    }
+    return toListAndClose(nodeReindexJobService.values(matchAll(), user));
+  }
+
+  @GetMapping("/index/jobs/{id}")
+  public ReindexJob getReindexJob(
+      @PathVariable("id") Long id,
+      @AuthenticationPrincipal User user) {
+    if (user.getAppRole() != AppRole.SUPERUSER) {
+      throw new AccessDeniedException("");
+    }
+    return nodeReindexJobService.get(id, user).orElseThrow(NotFoundException::new);
+  }
+
+  /**
+   * Pauses, resumes or cancels a reindex job. Running job stops after its current batch.
+   */
+  @PostMapping("/index/jobs/{id}/{operation:pause|resume|cancel}")
+  public ReindexJob controlReindexJob(
+      @PathVariable("id") Long id,
+      @PathVariable("operation") String operation,
+      @AuthenticationPrincipal User user) {
+    if (user.getAppRole() != AppRole.SUPERUSER) {
+      throw new AccessDeniedException("");
+    }
+    if (!nodeReindexJobService.exists(id, user)) {
+      throw new NotFoundException();
+    }
+
+    eventBus.post(new ReindexJobEvent(id, Operation.valueOf(operation.toUpperCase())));
+
+    return nodeReindexJobService.get(id, user).orElseThrow(NotFoundException::new);
+  }
+
+  // reindexing is run in the background as a job, returns the started job
+  private ReindexJob startReindexJob(Supplier<Stream<NodeId>> keys, User user) {
+    Long jobId = nodeReindexJobSeqService.getAndAdvance(user);
+    eventBus.post(new ReindexEvent<>(jobId, keys));
+    return nodeReindexJobService.get(jobId, user).orElseThrow(IllegalStateException::new);
+  }
+
+  /**
+   * Copies a consistent snapshot of the live node index to given server side directory. Returns
+   * index commit data of the snapshot, e.g. the revision up to which nodes are indexed. Restored
+   * copy is caught up with later revisions on startup.
+   */
+  @PostMapping("/index/backup")
+  public Map<String, String> backup(
+      @RequestParam("directory") String directory,
+      @AuthenticationPrincipal User user) {
+    if (user.getAppRole() != AppRole.SUPERUSER) {
+      throw new AccessDeniedException("");
+    }
+
+    log.info("Copying index to {} (user: {})", directory, user.getUsername());
+
+    try {
+      return nodeIndex.backup(Paths.get(directory));
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException(e.getMessage());
+    }
+  }
+
   @DeleteMapping("/graphs/{graphId}/index")
-  @ResponseStatus(NO_CONTENT)
-  public void reindexGraph(
+  public ReindexJob reindexGraph(
       @PathVariable("graphId") UUID graphId,
       @AuthenticationPrincipal User user) {
     if (user.getAppRole() == AppRole.SUPERUSER) {
       NodesByGraphId nodesByGraphId = NodesByGraphId.of(graphId);
 
-      eventBus.post(new ReindexEvent<>(() -> Stream.concat(
+      return startReindexJob(() -> Stream.concat(
           nodeService.keys(sqlQuery(nodesByGraphId), user),
-          nodeService.keys(query(nodesByGraphId), user))));
+          nodeService.keys(query(nodesByGraphId), user)), user);
     } else {
       throw new AccessDeniedException("");
     }
   }
 
   @DeleteMapping("/graphs/{graphId}/types/{id}/index")
-  @ResponseStatus(NO_CONTENT)
-  public void reindexType(
+  public ReindexJob reindexType(
       @PathVariable("graphId") UUID graphId,
       @PathVariable("id") String id,
       @AuthenticationPrincipal User user) {
@@ -86,9 +189,9 @@ public class IndexController {
           NodesByGraphId.of(graphId),
           NodesByTypeId.of(id));
 
-      eventBus.post(new ReindexEvent<>(() -> Stream.concat(
+      return startReindexJob(() -> Stream.concat(
           nodeService.keys(sqlQuery(nodesByTypeId), user),
-          nodeService.keys(query(nodesByTypeId), user))));
+          nodeService.keys(query(nodesByTypeId), user)), user);
     } else {
       throw new AccessDeniedException("");
     }
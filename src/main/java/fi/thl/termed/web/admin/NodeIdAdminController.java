@@ -4,8 +4,8 @@ import static fi.thl.termed.util.collect.StreamUtils.findFirstAndClose;
 import static fi.thl.termed.util.collect.StreamUtils.toImmutableListAndClose;
 import static fi.thl.termed.util.query.AndSpecification.and;
 import static fi.thl.termed.util.query.Queries.query;
-import static fi.thl.termed.util.query.Sorts.sort;
-import static fi.thl.termed.util.query.Sorts.sortDesc;
+import static fi.thl.termed.util.query.Sorts.sortLong;
+import static fi.thl.termed.util.query.Sorts.sortLongDesc;
 import static fi.thl.termed.util.service.WriteOptions.opts;
 import static java.util.stream.Collectors.toMap;
 import static org.springframework.http.HttpStatus.NO_CONTENT;
@@ -87,7 +87,7 @@ public class NodeIdAdminController {
       Specification<NodeId, Node> specification, int pageSize, User user) {
 
     Optional<Long> upperOptional = findFirstAndClose(
-        nodeService.values(query(specification, sortDesc("number"), 1), user))
+        nodeService.values(query(specification, sortLongDesc("number"), 1), user))
         .map(Node::getNumber);
 
     if (!upperOptional.isPresent()) {
@@ -103,7 +103,7 @@ public class NodeIdAdminController {
       protected List<Node> computeNext() {
         List<Node> nodes = toImmutableListAndClose(nodeService.values(query(
             and(specification, NodesByNumberRange.of(lowerNumber, upperNumber)),
-            sort("number"),
+            sortLong("number"),
             pageSize), user));
 
         OptionalLong lowestNumberOptional = nodes.stream()
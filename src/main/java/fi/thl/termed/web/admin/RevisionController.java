@@ -57,7 +57,7 @@ public class RevisionController {
   @Autowired
   private Service<Long, Revision> revisionService;
   @Autowired
-  private SequenceService revisionSeq;
+  private SequenceService revisionSeqService;
   @Autowired
   private Service<RevisionId<NodeId>, Tuple2<RevisionType, Node>> nodeRevisionService;
   @Autowired
@@ -146,7 +146,7 @@ public class RevisionController {
       // node revisions are cascaded when revisions are deleted
       revisionService.delete(revisionService.keys(Queries.matchAll(), user), defaultOpts(), user);
 
-      Long revision = revisionSeq.getAndAdvance(user);
+      Long revision = revisionSeqService.getAndAdvance(user);
 
       revisionService.save(
           Revision.of(revision, user.getUsername(), LocalDateTime.now()),
@@ -0,0 +1,52 @@
+package fi.thl.termed.web.node;
+
+import fi.thl.termed.domain.Node;
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.User;
+import fi.thl.termed.service.node.internal.NodePageService;
+import fi.thl.termed.util.query.Page;
+import fi.thl.termed.util.query.Query;
+import fi.thl.termed.util.query.Select;
+import fi.thl.termed.util.query.Sort;
+import fi.thl.termed.util.query.Specification;
+import fi.thl.termed.util.spring.exception.BadRequestException;
+import java.util.List;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Cursor based paging of node search results. Paging is started with cursor "*", cursor for the
+ * next page is returned in X-Next-Cursor header. Cursor is an opaque token holding the sort values
+ * of the last node of the previous page. Next page is searched after those values in requested
+ * sort order, ties are broken by node id. Position does not depend on the last node itself, so
+ * paging continues even if the node is updated or deleted. Paging ends when no cursor is returned.
+ */
+final class NodeCursors {
+
+  static final String START = "*";
+  static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+  private NodeCursors() {
+  }
+
+  static List<Node> page(NodePageService nodePageService, List<Select> selects,
+      Specification<NodeId, Node> spec, List<Sort> sorts, int max, String cursor, User user,
+      HttpServletResponse resp) {
+    if (max <= 0) {
+      throw new BadRequestException("Cursor paging requires positive max");
+    }
+
+    Page<Node> page;
+
+    try {
+      page = nodePageService.page(new Query<>(selects, spec, sorts, max),
+          START.equals(cursor) ? null : cursor, user);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException(e.getMessage());
+    }
+
+    page.getNext().ifPresent(next -> resp.setHeader(NEXT_CURSOR_HEADER, next));
+
+    return page.getValues();
+  }
+
+}
@@ -0,0 +1,103 @@
+package fi.thl.termed.web.node;
+
+import static fi.thl.termed.service.node.specification.NodeSpecifications.specifyByQuery;
+import static fi.thl.termed.util.collect.StreamUtils.toListAndClose;
+import static fi.thl.termed.util.spring.SpEL.EMPTY_LIST;
+
+import fi.thl.termed.domain.Graph;
+import fi.thl.termed.domain.GraphId;
+import fi.thl.termed.domain.Node;
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.Type;
+import fi.thl.termed.domain.TypeId;
+import fi.thl.termed.domain.User;
+import fi.thl.termed.service.node.internal.NodeFacetService;
+import fi.thl.termed.service.type.specification.TypesByGraphId;
+import fi.thl.termed.util.query.MatchAll;
+import fi.thl.termed.util.query.Query;
+import fi.thl.termed.util.query.Specification;
+import fi.thl.termed.util.service.Service;
+import fi.thl.termed.util.spring.annotation.GetJsonMapping;
+import fi.thl.termed.util.spring.exception.BadRequestException;
+import fi.thl.termed.util.spring.exception.NotFoundException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api")
+public class NodeFacetController {
+
+  @Autowired
+  private Service<GraphId, Graph> graphService;
+  @Autowired
+  private Service<TypeId, Type> typeService;
+  @Autowired
+  private NodeFacetService nodeFacetService;
+
+  @GetJsonMapping("/nodes/facets")
+  public Map<String, Map<String, Integer>> get(
+      @RequestParam(value = "where", defaultValue = EMPTY_LIST) List<String> where,
+      @RequestParam(value = "facet") List<String> facets,
+      @RequestParam(value = "max", defaultValue = "50") int max,
+      @AuthenticationPrincipal User user) {
+
+    List<Graph> graphs = toListAndClose(graphService.values(new Query<>(new MatchAll<>()), user));
+    List<Type> types = toListAndClose(typeService.values(new Query<>(new MatchAll<>()), user));
+
+    return facets(specifyByQuery(graphs, types, types, where), facets, max, user);
+  }
+
+  @GetJsonMapping("/graphs/{graphId}/nodes/facets")
+  public Map<String, Map<String, Integer>> get(
+      @PathVariable("graphId") UUID graphId,
+      @RequestParam(value = "where", defaultValue = EMPTY_LIST) List<String> where,
+      @RequestParam(value = "facet") List<String> facets,
+      @RequestParam(value = "max", defaultValue = "50") int max,
+      @AuthenticationPrincipal User user) {
+
+    if (!graphService.exists(new GraphId(graphId), user)) {
+      throw new NotFoundException();
+    }
+
+    List<Graph> graphs = toListAndClose(graphService.values(new Query<>(new MatchAll<>()), user));
+    List<Type> types = toListAndClose(typeService.values(new Query<>(new MatchAll<>()), user));
+    List<Type> anyDomain = toListAndClose(
+        typeService.values(new Query<>(new TypesByGraphId(graphId)), user));
+
+    return facets(specifyByQuery(graphs, types, anyDomain, where), facets, max, user);
+  }
+
+  @GetJsonMapping("/graphs/{graphId}/types/{typeId}/nodes/facets")
+  public Map<String, Map<String, Integer>> get(
+      @PathVariable("graphId") UUID graphId,
+      @PathVariable("typeId") String typeId,
+      @RequestParam(value = "where", defaultValue = EMPTY_LIST) List<String> where,
+      @RequestParam(value = "facet") List<String> facets,
+      @RequestParam(value = "max", defaultValue = "50") int max,
+      @AuthenticationPrincipal User user) {
+
+    List<Graph> graphs = toListAndClose(graphService.values(new Query<>(new MatchAll<>()), user));
+    List<Type> types = toListAndClose(typeService.values(new Query<>(new MatchAll<>()), user));
+    Type domain = typeService.get(new TypeId(typeId, graphId), user)
+        .orElseThrow(NotFoundException::new);
+
+    return facets(specifyByQuery(graphs, types, domain, where), facets, max, user);
+  }
+
+  private Map<String, Map<String, Integer>> facets(Specification<NodeId, Node> spec,
+      List<String> facets, int max, User user) {
+    try {
+      return nodeFacetService.facets(spec, facets, max, user);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestException(e.getMessage());
+    }
+  }
+
+}
@@ -4,6 +4,7 @@ import static fi.thl.termed.service.node.specification.NodeSpecifications.specif
 import static fi.thl.termed.util.collect.StreamUtils.toListAndClose;
 import static fi.thl.termed.util.query.OrSpecification.or;
 import static fi.thl.termed.util.spring.SpEL.EMPTY_LIST;
+import static java.util.Collections.singletonList;
 
 import fi.thl.termed.domain.Graph;
 import fi.thl.termed.domain.GraphId;
@@ -12,10 +13,12 @@ import fi.thl.termed.domain.NodeId;
 import fi.thl.termed.domain.Type;
 import fi.thl.termed.domain.TypeId;
 import fi.thl.termed.domain.User;
+import fi.thl.termed.service.node.internal.NodePageService;
 import fi.thl.termed.service.node.sort.NodeSorts;
 import fi.thl.termed.service.type.specification.TypesByGraphId;
 import fi.thl.termed.util.query.MatchAll;
 import fi.thl.termed.util.query.Query;
+import fi.thl.termed.util.query.SelectAll;
 import fi.thl.termed.util.query.Sort;
 import fi.thl.termed.util.query.Specification;
 import fi.thl.termed.util.service.Service;
@@ -24,6 +27,7 @@ import fi.thl.termed.util.spring.exception.NotFoundException;
 import java.util.List;
 import java.util.UUID;
 import java.util.stream.Stream;
+import javax.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -41,20 +45,24 @@ public class NodeReadController {
   private Service<TypeId, Type> typeService;
   @Autowired
   private Service<NodeId, Node> nodeService;
+  @Autowired
+  private NodePageService nodePageService;
 
   @GetJsonMapping("/nodes")
   public Stream<Node> get(
       @RequestParam(value = "query", defaultValue = "") String query,
       @RequestParam(value = "sort", defaultValue = EMPTY_LIST) List<String> sort,
       @RequestParam(value = "max", defaultValue = "50") int max,
-      @AuthenticationPrincipal User user) {
+      @RequestParam(value = "cursor", required = false) String cursor,
+      @AuthenticationPrincipal User user,
+      HttpServletResponse resp) {
 
     Specification<NodeId, Node> spec = or(toListAndClose(
         typeService.values(new Query<>(new MatchAll<>()), user)
             .map(type -> specifyByAnyPropertyPrefix(type, query))));
     List<Sort> sorts = NodeSorts.parse(sort);
 
-    return nodeService.values(new Query<>(spec, sorts, max), user);
+    return values(spec, sorts, max, cursor, user, resp);
   }
 
   @GetJsonMapping("/graphs/{graphId}/nodes")
@@ -63,7 +71,9 @@ public class NodeReadController {
       @RequestParam(value = "query", defaultValue = "") String query,
       @RequestParam(value = "sort", defaultValue = EMPTY_LIST) List<String> sort,
       @RequestParam(value = "max", defaultValue = "50") int max,
-      @AuthenticationPrincipal User user) {
+      @RequestParam(value = "cursor", required = false) String cursor,
+      @AuthenticationPrincipal User user,
+      HttpServletResponse resp) {
 
     if (!graphService.exists(new GraphId(graphId), user)) {
       throw new NotFoundException();
@@ -74,7 +84,7 @@ public class NodeReadController {
             .map(type -> specifyByAnyPropertyPrefix(type, query))));
     List<Sort> sorts = NodeSorts.parse(sort);
 
-    return nodeService.values(new Query<>(spec, sorts, max), user);
+    return values(spec, sorts, max, cursor, user, resp);
   }
 
   @GetJsonMapping("/graphs/{graphId}/types/{typeId}/nodes")
@@ -84,7 +94,9 @@ public class NodeReadController {
       @RequestParam(value = "query", defaultValue = "") String query,
       @RequestParam(value = "sort", defaultValue = EMPTY_LIST) List<String> sort,
       @RequestParam(value = "max", defaultValue = "50") int max,
-      @AuthenticationPrincipal User user) {
+      @RequestParam(value = "cursor", required = false) String cursor,
+      @AuthenticationPrincipal User user,
+      HttpServletResponse resp) {
 
     Type type = typeService.get(TypeId.of(typeId, graphId), user)
         .orElseThrow(NotFoundException::new);
@@ -92,7 +104,7 @@ public class NodeReadController {
     Specification<NodeId, Node> spec = specifyByAnyPropertyPrefix(type, query);
     List<Sort> sorts = NodeSorts.parse(sort);
 
-    return nodeService.values(new Query<>(spec, sorts, max), user);
+    return values(spec, sorts, max, cursor, user, resp);
   }
 
   @GetJsonMapping("/graphs/{graphId}/types/{typeId}/nodes/{id}")
@@ -106,4 +118,14 @@ public class NodeReadController {
         .orElseThrow(NotFoundException::new);
   }
 
+  private Stream<Node> values(Specification<NodeId, Node> spec, List<Sort> sorts, int max,
+      String cursor, User user, HttpServletResponse resp) {
+    if (cursor == null) {
+      return nodeService.values(new Query<>(spec, sorts, max), user);
+    }
+
+    return NodeCursors.page(nodePageService, singletonList(new SelectAll()), spec, sorts, max,
+        cursor, user, resp).stream();
+  }
+
 }
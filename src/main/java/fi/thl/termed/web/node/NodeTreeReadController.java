@@ -26,6 +26,7 @@ import fi.thl.termed.domain.NodeTree;
 import fi.thl.termed.domain.Type;
 import fi.thl.termed.domain.TypeId;
 import fi.thl.termed.domain.User;
+import fi.thl.termed.service.node.internal.NodePageService;
 import fi.thl.termed.service.node.select.NodeSelects;
 import fi.thl.termed.service.node.sort.NodeSorts;
 import fi.thl.termed.service.node.specification.NodesByGraphId;
@@ -66,6 +67,8 @@ public class NodeTreeReadController {
   private Service<TypeId, Type> typeService;
   @Autowired
   private Service<NodeId, Node> nodeService;
+  @Autowired
+  private NodePageService nodePageService;
 
   @GetJsonMapping("/node-trees")
   public void get(
@@ -73,6 +76,7 @@ public class NodeTreeReadController {
       @RequestParam(value = "where", defaultValue = EMPTY_LIST) List<String> where,
       @RequestParam(value = "sort", defaultValue = EMPTY_LIST) List<String> sort,
       @RequestParam(value = "max", defaultValue = "50") Integer max,
+      @RequestParam(value = "cursor", required = false) String cursor,
       @RequestParam(value = "pretty", defaultValue = "false") boolean pretty,
       @RequestParam(value = "htmlSafe", defaultValue = "true") boolean htmlSafe,
       @AuthenticationPrincipal User user,
@@ -88,7 +92,7 @@ public class NodeTreeReadController {
     resp.setContentType(APPLICATION_JSON_UTF8_VALUE);
     resp.setCharacterEncoding(UTF_8.toString());
 
-    try (Stream<Node> nodes = nodeService.values(new Query<>(selects, spec, sorts, max), user);
+    try (Stream<Node> nodes = values(selects, spec, sorts, max, cursor, user, resp);
         JsonWriter writer = JsonWriters.from(resp.getOutputStream(), pretty, htmlSafe)) {
       NodeTreeToJsonStream.toJson(toTrees(nodes, selects, user).iterator(), writer);
     }
@@ -101,6 +105,7 @@ public class NodeTreeReadController {
       @RequestParam(value = "where", defaultValue = EMPTY_LIST) List<String> where,
       @RequestParam(value = "sort", defaultValue = EMPTY_LIST) List<String> sort,
       @RequestParam(value = "max", defaultValue = "50") Integer max,
+      @RequestParam(value = "cursor", required = false) String cursor,
       @RequestParam(value = "pretty", defaultValue = "false") boolean pretty,
       @RequestParam(value = "htmlSafe", defaultValue = "true") boolean htmlSafe,
       @AuthenticationPrincipal User user,
@@ -122,7 +127,7 @@ public class NodeTreeReadController {
     resp.setContentType(APPLICATION_JSON_UTF8_VALUE);
     resp.setCharacterEncoding(UTF_8.toString());
 
-    try (Stream<Node> nodes = nodeService.values(new Query<>(selects, spec, sorts, max), user);
+    try (Stream<Node> nodes = values(selects, spec, sorts, max, cursor, user, resp);
         JsonWriter writer = JsonWriters.from(resp.getOutputStream(), pretty, htmlSafe)) {
       NodeTreeToJsonStream.toJson(toTrees(nodes, selects, user).iterator(), writer);
     }
@@ -136,6 +141,7 @@ public class NodeTreeReadController {
       @RequestParam(value = "where", defaultValue = EMPTY_LIST) List<String> where,
       @RequestParam(value = "sort", defaultValue = EMPTY_LIST) List<String> sort,
       @RequestParam(value = "max", defaultValue = "50") Integer max,
+      @RequestParam(value = "cursor", required = false) String cursor,
       @RequestParam(value = "pretty", defaultValue = "false") boolean pretty,
       @RequestParam(value = "htmlSafe", defaultValue = "true") boolean htmlSafe,
       @AuthenticationPrincipal User user,
@@ -153,7 +159,7 @@ public class NodeTreeReadController {
     resp.setContentType(APPLICATION_JSON_UTF8_VALUE);
     resp.setCharacterEncoding(UTF_8.toString());
 
-    try (Stream<Node> nodes = nodeService.values(new Query<>(selects, spec, sorts, max), user);
+    try (Stream<Node> nodes = values(selects, spec, sorts, max, cursor, user, resp);
         JsonWriter writer = JsonWriters.from(resp.getOutputStream(), pretty, htmlSafe)) {
       NodeTreeToJsonStream.toJson(toTrees(nodes, selects, user).iterator(), writer);
     }
@@ -196,6 +202,16 @@ public class NodeTreeReadController {
     }
   }
 
+  private Stream<Node> values(List<Select> selects, Specification<NodeId, Node> spec,
+      List<Sort> sorts, int max, String cursor, User user, HttpServletResponse resp) {
+    if (cursor == null) {
+      return nodeService.values(new Query<>(selects, spec, sorts, max), user);
+    }
+
+    return NodeCursors.page(nodePageService, selects, spec, sorts, max, cursor, user, resp)
+        .stream();
+  }
+
   private Stream<NodeTree> toTrees(Stream<Node> nodes, List<Select> selects, User user) {
     Cache<NodeId, Node> cache = CacheBuilder.newBuilder().softValues().build();
     return nodes.map(node -> toTree(node, selects, user, cache));
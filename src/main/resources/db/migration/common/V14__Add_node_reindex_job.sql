@@ -0,0 +1,12 @@
+
+CREATE SEQUENCE node_reindex_job_seq;
+
+CREATE TABLE node_reindex_job (
+  id bigint PRIMARY KEY,
+  node_indexing_queue_id bigint NOT NULL,
+  status varchar(20) NOT NULL,
+  total bigint NOT NULL,
+  done bigint NOT NULL,
+  created_date timestamp NOT NULL,
+  last_modified_date timestamp NOT NULL
+);
@@ -0,0 +1,2 @@
+
+ALTER TABLE node_reindex_job ADD COLUMN rebuild boolean DEFAULT false NOT NULL;
@@ -46,7 +46,7 @@ import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 @ExtendWith(SpringExtension.class)
 @TestInstance(Lifecycle.PER_CLASS)
-@SpringBootTest
+@SpringBootTest(properties = "fi.thl.termed.indexWaitForAllWrites=true")
 abstract class BaseNodeServiceIntegrationTest {
 
   protected User user;
@@ -0,0 +1,33 @@
+package fi.thl.termed.service.node;
+
+import static fi.thl.termed.util.service.SaveMode.INSERT;
+import static fi.thl.termed.util.service.WriteOptions.defaultOpts;
+import static fi.thl.termed.util.service.WriteOptions.opts;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import fi.thl.termed.domain.Node;
+import fi.thl.termed.domain.TypeId;
+import fi.thl.termed.service.node.specification.NodesByGraphId;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+/**
+ * Tests that async writes are indexed in the background and sync writes wait for earlier writes.
+ */
+@SpringBootTest(properties = {
+    "fi.thl.termed.indexAsync=true",
+    "fi.thl.termed.indexMaxBacklog=1"})
+class NodeAsyncIndexingIntegrationTest extends BaseNodeServiceIntegrationTest {
+
+  @Test
+  void shouldSeeEarlierAsyncWritesAfterSyncWrite() {
+    TypeId person = TypeId.of("Person", graphId);
+
+    nodeService.save(Node.builder().random(person).build(), INSERT, defaultOpts(), user);
+    nodeService.save(Node.builder().random(person).build(), INSERT, defaultOpts(), user);
+    nodeService.save(Node.builder().random(person).build(), INSERT, opts(true), user);
+
+    assertEquals(3, nodeService.count(NodesByGraphId.of(graphId), user));
+  }
+
+}
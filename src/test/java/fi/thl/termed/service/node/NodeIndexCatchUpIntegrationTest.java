@@ -0,0 +1,157 @@
+package fi.thl.termed.service.node;
+
+import static fi.thl.termed.util.collect.StreamUtils.findFirstAndClose;
+import static fi.thl.termed.util.query.AndSpecification.and;
+import static fi.thl.termed.util.query.Specifications.asLucene;
+import static fi.thl.termed.util.service.SaveMode.INSERT;
+import static fi.thl.termed.util.service.WriteOptions.defaultOpts;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.eventbus.EventBus;
+import fi.thl.termed.domain.Node;
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.RevisionId;
+import fi.thl.termed.domain.RevisionType;
+import fi.thl.termed.domain.event.ApplicationReadyEvent;
+import fi.thl.termed.service.node.specification.NodeRevisionsByGraphId;
+import fi.thl.termed.service.node.specification.NodeRevisionsById;
+import fi.thl.termed.service.node.specification.NodeRevisionsByTypeId;
+import fi.thl.termed.service.node.specification.NodesById;
+import fi.thl.termed.util.collect.Tuple2;
+import fi.thl.termed.util.index.lucene.LuceneIndex;
+import fi.thl.termed.util.query.Query;
+import fi.thl.termed.util.query.Specification;
+import fi.thl.termed.util.service.Service;
+import fi.thl.termed.util.spring.exception.ServiceUnavailableException;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Tests that index records the indexed revision and catches up with newer revisions on startup.
+ * An index of an old document format is rebuilt in the background.
+ */
+class NodeIndexCatchUpIntegrationTest extends BaseNodeServiceIntegrationTest {
+
+  private static final String INDEXED_REVISION_KEY = "termed.node.indexedRevision";
+  private static final String DOCUMENT_FORMAT_VERSION_KEY = "termed.node.documentFormatVersion";
+
+  @Autowired
+  private Service<RevisionId<NodeId>, Tuple2<RevisionType, Node>> nodeRevisionService;
+  @Autowired
+  private LuceneIndex<NodeId, Node> nodeIndex;
+  @Autowired
+  private EventBus eventBus;
+
+  @Test
+  void shouldRecordIndexedRevision() {
+    NodeId nodeId = NodeId.random("Person", graphId);
+    nodeService.save(Node.builder().id(nodeId).build(), INSERT, defaultOpts(), user);
+
+    long revision = latestRevision(nodeId);
+    long indexedRevision =
+        nodeIndex.getCommitData(INDEXED_REVISION_KEY).map(Long::valueOf).orElse(-1L);
+
+    assertTrue(indexedRevision >= revision);
+  }
+
+  @Test
+  void shouldIndexNodesChangedAfterIndexedRevisionOnStartup() {
+    NodeId nodeId = NodeId.random("Person", graphId);
+    nodeService.save(Node.builder().id(nodeId).build(), INSERT, defaultOpts(), user);
+
+    // simulate an index copied before the node was saved
+    nodeIndex.delete(nodeId);
+    nodeIndex.refreshBlocking();
+    nodeIndex.setCommitData(INDEXED_REVISION_KEY, Long.toString(latestRevision(nodeId) - 1));
+    assertEquals(0, nodeService.count(asLucene(NodesById.of(nodeId.getId())), user));
+
+    eventBus.post(new ApplicationReadyEvent());
+
+    assertEquals(1, nodeService.count(asLucene(NodesById.of(nodeId.getId())), user));
+  }
+
+  @Test
+  void shouldServeIndexQueriesFromIndexOfOldFormatWhileItIsRebuilt() throws InterruptedException {
+    NodeId indexedId = NodeId.random("Person", graphId);
+    nodeService.save(Node.builder().id(indexedId).build(), INSERT, defaultOpts(), user);
+    NodeId nodeId = NodeId.random("Person", graphId);
+    nodeService.save(Node.builder().id(nodeId).build(), INSERT, defaultOpts(), user);
+
+    String formatVersion = nodeIndex.getCommitData(DOCUMENT_FORMAT_VERSION_KEY)
+        .orElseThrow(IllegalStateException::new);
+
+    // simulate an index of the previous format missing the node
+    nodeIndex.delete(nodeId);
+    nodeIndex.refreshBlocking();
+    nodeIndex.setCommitData(DOCUMENT_FORMAT_VERSION_KEY,
+        Integer.toString(Integer.parseInt(formatVersion) - 1));
+
+    eventBus.post(new ApplicationReadyEvent());
+
+    // old index is searched until rebuilt index is swapped in
+    assertEquals(1, nodeService.count(asLucene(NodesById.of(indexedId.getId())), user));
+
+    awaitFormatVersion(formatVersion);
+
+    assertEquals(1, nodeService.count(asLucene(NodesById.of(nodeId.getId())), user));
+  }
+
+  @Test
+  void shouldRejectIndexQueriesWhileIndexOfUnreadableFormatIsRebuilt()
+      throws InterruptedException {
+    NodeId nodeId = NodeId.random("Person", graphId);
+    nodeService.save(Node.builder().id(nodeId).build(), INSERT, defaultOpts(), user);
+
+    String formatVersion = nodeIndex.getCommitData(DOCUMENT_FORMAT_VERSION_KEY)
+        .orElseThrow(IllegalStateException::new);
+
+    nodeIndex.setCommitData(DOCUMENT_FORMAT_VERSION_KEY, "1");
+
+    eventBus.post(new ApplicationReadyEvent());
+
+    try {
+      nodeService.count(asLucene(NodesById.of(nodeId.getId())), user);
+      // query is answered only if rebuilt index is already swapped in
+      assertEquals(Optional.of(formatVersion),
+          nodeIndex.getCommitData(DOCUMENT_FORMAT_VERSION_KEY));
+    } catch (ServiceUnavailableException e) {
+      // rebuild in progress
+    }
+
+    awaitFormatVersion(formatVersion);
+
+    assertEquals(1, awaitCount(asLucene(NodesById.of(nodeId.getId()))));
+  }
+
+  // rebuilt index is swapped in just before it is marked readable
+  private long awaitCount(Specification<NodeId, Node> spec) throws InterruptedException {
+    for (int i = 0; i < 100; i++) {
+      try {
+        return nodeService.count(spec, user);
+      } catch (ServiceUnavailableException e) {
+        Thread.sleep(100);
+      }
+    }
+    return nodeService.count(spec, user);
+  }
+
+  private void awaitFormatVersion(String formatVersion) throws InterruptedException {
+    for (int i = 0; i < 100 && !nodeIndex.getCommitData(DOCUMENT_FORMAT_VERSION_KEY)
+        .filter(formatVersion::equals).isPresent(); i++) {
+      Thread.sleep(100);
+    }
+    assertEquals(Optional.of(formatVersion), nodeIndex.getCommitData(DOCUMENT_FORMAT_VERSION_KEY));
+  }
+
+  private long latestRevision(NodeId nodeId) {
+    return findFirstAndClose(nodeRevisionService.keys(new Query<>(and(
+        NodeRevisionsById.of(nodeId.getId()),
+        NodeRevisionsByTypeId.of(nodeId.getTypeId()),
+        NodeRevisionsByGraphId.of(nodeId.getTypeGraphId()))), user))
+        .map(RevisionId::getRevision)
+        .orElseThrow(IllegalStateException::new);
+  }
+
+}
@@ -0,0 +1,132 @@
+package fi.thl.termed.service.node;
+
+import static fi.thl.termed.util.query.Queries.sqlQuery;
+import static fi.thl.termed.util.query.Specifications.asLucene;
+import static fi.thl.termed.util.service.SaveMode.INSERT;
+import static fi.thl.termed.util.service.WriteOptions.defaultOpts;
+import static java.util.Collections.emptyMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.eventbus.EventBus;
+import fi.thl.termed.domain.Node;
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.ReindexJob;
+import fi.thl.termed.domain.ReindexJob.Status;
+import fi.thl.termed.domain.TypeId;
+import fi.thl.termed.domain.event.ReindexEvent;
+import fi.thl.termed.domain.event.ReindexJobEvent;
+import fi.thl.termed.domain.event.ReindexJobEvent.Operation;
+import fi.thl.termed.service.node.internal.IndexedNodeService;
+import fi.thl.termed.service.node.specification.NodesByGraphId;
+import fi.thl.termed.util.index.lucene.LuceneIndex;
+import fi.thl.termed.util.service.SequenceService;
+import fi.thl.termed.util.service.Service;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Tests that reindex jobs index their nodes in the background and record their progress.
+ */
+class NodeReindexJobIntegrationTest extends BaseNodeServiceIntegrationTest {
+
+  @Autowired
+  private Service<Long, ReindexJob> nodeReindexJobService;
+  @Autowired
+  private SequenceService nodeReindexJobSeqService;
+  @Autowired
+  private LuceneIndex<NodeId, Node> nodeIndex;
+  @Autowired
+  private IndexedNodeService indexedNodeService;
+  @Autowired
+  private EventBus eventBus;
+
+  @Test
+  void shouldReindexNodesInBackground() throws InterruptedException {
+    TypeId person = TypeId.of("Person", graphId);
+    Node node = Node.builder().random(person).build();
+
+    nodeService.save(Stream.of(
+        node,
+        Node.builder().random(person).build(),
+        Node.builder().random(person).build()), INSERT, defaultOpts(), user);
+
+    nodeIndex.delete(node.identifier());
+    nodeIndex.refreshBlocking();
+    assertEquals(2, nodeService.count(asLucene(NodesByGraphId.of(graphId)), user));
+
+    Long jobId = nodeReindexJobSeqService.getAndAdvance(user);
+    eventBus.post(new ReindexEvent<>(jobId,
+        () -> nodeService.keys(sqlQuery(NodesByGraphId.of(graphId)), user)));
+
+    ReindexJob job = awaitFinished(jobId);
+    nodeIndex.refreshBlocking();
+
+    assertEquals(Status.DONE, job.getStatus());
+    assertEquals(3, job.getTotal());
+    assertEquals(3, job.getDone());
+    assertEquals(3, nodeService.count(asLucene(NodesByGraphId.of(graphId)), user));
+
+    // finished job can't be resumed or cancelled
+    eventBus.post(new ReindexJobEvent(jobId, Operation.CANCEL));
+    assertEquals(Status.DONE, getJob(jobId).getStatus());
+  }
+
+  @Test
+  void shouldRebuildIndexInBackground() throws InterruptedException {
+    TypeId person = TypeId.of("Person", graphId);
+    Node node = Node.builder().random(person).build();
+
+    nodeService.save(Stream.of(
+        node,
+        Node.builder().random(person).build()), INSERT, defaultOpts(), user);
+
+    nodeIndex.delete(node.identifier());
+    nodeIndex.refreshBlocking();
+    assertEquals(1, nodeService.count(asLucene(NodesByGraphId.of(graphId)), user));
+
+    Long jobId = nodeReindexJobSeqService.getAndAdvance(user);
+    ReindexJob started = indexedNodeService.startRebuildJob(jobId);
+    assertEquals(jobId, started.getId());
+
+    ReindexJob job = awaitFinished(jobId);
+
+    assertEquals(Status.DONE, job.getStatus());
+    assertTrue(job.isRebuild());
+    assertEquals(job.getTotal(), job.getDone());
+    assertFalse(nodeIndex.isRebuilding());
+    assertEquals(2, nodeService.count(asLucene(NodesByGraphId.of(graphId)), user));
+  }
+
+  @Test
+  void shouldNotStartRebuildJobWhileIndexIsRebuilt() {
+    nodeIndex.startRebuild(emptyMap());
+
+    try {
+      Long jobId = nodeReindexJobSeqService.getAndAdvance(user);
+      assertThrows(IllegalStateException.class, () -> indexedNodeService.startRebuildJob(jobId));
+      assertFalse(nodeReindexJobService.exists(jobId, user));
+    } finally {
+      nodeIndex.cancelRebuild();
+    }
+  }
+
+  private ReindexJob awaitFinished(Long jobId) throws InterruptedException {
+    for (int i = 0; i < 100; i++) {
+      ReindexJob job = getJob(jobId);
+      if (job.getStatus() != Status.RUNNING) {
+        return job;
+      }
+      Thread.sleep(100);
+    }
+    throw new AssertionError("Reindex job did not finish");
+  }
+
+  private ReindexJob getJob(Long jobId) {
+    return nodeReindexJobService.get(jobId, user).orElseThrow(AssertionError::new);
+  }
+
+}
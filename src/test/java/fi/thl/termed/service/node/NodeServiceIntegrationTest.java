@@ -4,24 +4,45 @@ import static fi.thl.termed.util.service.SaveMode.INSERT;
 import static fi.thl.termed.util.service.SaveMode.UPDATE;
 import static fi.thl.termed.util.service.SaveMode.UPSERT;
 import static fi.thl.termed.util.service.WriteOptions.defaultOpts;
+import static fi.thl.termed.util.service.WriteOptions.opts;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
 import fi.thl.termed.domain.Node;
 import fi.thl.termed.domain.NodeId;
 import fi.thl.termed.domain.StrictLangValue;
 import fi.thl.termed.domain.TypeId;
+import fi.thl.termed.service.node.internal.NodePageService;
+import fi.thl.termed.service.node.sort.NodeSorts;
+import fi.thl.termed.service.node.specification.NodesByGraphId;
+import fi.thl.termed.service.node.specification.NodesById;
+import fi.thl.termed.service.node.specification.NodesByReferrer;
+import fi.thl.termed.util.query.Page;
+import fi.thl.termed.util.query.Queries;
+import fi.thl.termed.util.query.Query;
 import fi.thl.termed.util.query.Specifications;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.DuplicateKeyException;
 
 class NodeServiceIntegrationTest extends BaseNodeServiceIntegrationTest {
 
+  @Autowired
+  private NodePageService nodePageService;
+
   @Test
   void shouldInsertNode() {
     NodeId nodeId = NodeId.random("Person", graphId);
@@ -65,6 +86,79 @@ class NodeServiceIntegrationTest extends BaseNodeServiceIntegrationTest {
     assertTrue(nodeService.exists(nodeId, user));
   }
 
+  @Test
+  void shouldUpsertBatchOfNewAndExistingNodes() {
+    Node john = Node.builder().random(TypeId.of("Person", graphId))
+        .addProperty("name", "John")
+        .build();
+    Node jack = Node.builder().random(TypeId.of("Person", graphId))
+        .addProperty("name", "Jack")
+        .build();
+
+    nodeService.save(john, INSERT, defaultOpts(), user);
+
+    Node johnRenamed = Node.builderFromCopyOf(john)
+        .replaceProperty("name", "Johnny")
+        .build();
+
+    nodeService.save(Stream.of(johnRenamed, jack), UPSERT, defaultOpts(), user);
+
+    assertEquals(ImmutableList.of("Johnny"), propertyValues(
+        nodeService.get(john.identifier(), user).orElseThrow(AssertionError::new), "name"));
+    assertEquals(ImmutableList.of("Jack"), propertyValues(
+        nodeService.get(jack.identifier(), user).orElseThrow(AssertionError::new), "name"));
+  }
+
+  @Test
+  void shouldUpdateBatchOfNodes() {
+    NodeId johnId = NodeId.random("Person", graphId);
+    NodeId jackId = NodeId.random("Person", graphId);
+    NodeId maryId = NodeId.random("Person", graphId);
+
+    Node john = Node.builder().id(johnId)
+        .addProperty("name", "John")
+        .addProperty("email", "john@example.org")
+        .addReference("knows", maryId)
+        .build();
+    Node jack = Node.builder().id(jackId)
+        .addProperty("name", "Jack")
+        .build();
+    Node mary = Node.builder().id(maryId)
+        .addProperty("name", "Mary")
+        .build();
+
+    nodeService.save(Stream.of(mary, john, jack), INSERT, defaultOpts(), user);
+
+    Node johnUpdated = Node.builder().id(johnId)
+        .addProperty("name", "Johnny")
+        .addReference("knows", jackId)
+        .build();
+    Node jackUpdated = Node.builder().id(jackId)
+        .addProperty("name", "Jack")
+        .addProperty("email", "jack@example.org")
+        .addReference("knows", maryId)
+        .build();
+
+    nodeService.save(Stream.of(johnUpdated, jackUpdated), UPDATE, defaultOpts(), user);
+
+    Node dbJohn = nodeService.get(johnId, user).orElseThrow(AssertionError::new);
+    assertEquals(ImmutableList.of("Johnny"), propertyValues(dbJohn, "name"));
+    assertTrue(dbJohn.getProperties().get("email").isEmpty());
+    assertEquals(ImmutableList.of(jackId),
+        ImmutableList.copyOf(dbJohn.getReferences().get("knows")));
+
+    Node dbJack = nodeService.get(jackId, user).orElseThrow(AssertionError::new);
+    assertEquals(ImmutableList.of("jack@example.org"), propertyValues(dbJack, "email"));
+    assertEquals(ImmutableList.of(maryId),
+        ImmutableList.copyOf(dbJack.getReferences().get("knows")));
+    assertEquals(ImmutableList.of(johnId),
+        ImmutableList.copyOf(dbJack.getReferrers().get("knows")));
+
+    Node dbMary = nodeService.get(maryId, user).orElseThrow(AssertionError::new);
+    assertEquals(ImmutableList.of(jackId),
+        ImmutableList.copyOf(dbMary.getReferrers().get("knows")));
+  }
+
   @Test
   void shouldInsertNodeWithProperties() {
     NodeId nodeId = NodeId.random("Person", graphId);
@@ -230,6 +324,197 @@ class NodeServiceIntegrationTest extends BaseNodeServiceIntegrationTest {
     assertFalse(reSaved.getFirstReferenceValue("knows").isPresent());
   }
 
+  @Test
+  void shouldReindexNodesWhoseReferrersChange() {
+    NodeId johnId = NodeId.random("Person", graphId);
+    NodeId jackId = NodeId.random("Person", graphId);
+    NodeId maryId = NodeId.random("Person", graphId);
+
+    Node john = Node.builder().id(johnId)
+        .addReference("knows", jackId)
+        .build();
+    Node jack = Node.builder().id(jackId).build();
+    Node mary = Node.builder().id(maryId).build();
+
+    nodeService.save(Stream.of(john, jack, mary), INSERT, opts(true), user);
+
+    assertEquals(ImmutableList.of(jackId), referredBy(johnId));
+
+    nodeService.save(Node.builderFromCopyOf(john)
+        .references(ImmutableMultimap.of("knows", maryId)).build(), UPDATE, opts(true), user);
+
+    assertEquals(ImmutableList.of(maryId), referredBy(johnId));
+
+    nodeService.delete(johnId, opts(true), user);
+
+    assertEquals(ImmutableList.of(), referredBy(johnId));
+  }
+
+  @Test
+  void shouldReindexReferenceTargetWhenOneOfRepeatedReferencesIsRemoved() {
+    NodeId johnId = NodeId.random("Person", graphId);
+    NodeId jackId = NodeId.random("Person", graphId);
+
+    Node john = Node.builder().id(johnId)
+        .addReference("knows", jackId)
+        .addReference("knows", jackId)
+        .build();
+    Node jack = Node.builder().id(jackId).build();
+
+    nodeService.save(Stream.of(john, jack), INSERT, opts(true), user);
+
+    assertEquals(2, indexedReferrers(jackId).size());
+
+    nodeService.save(Node.builderFromCopyOf(john)
+        .references(ImmutableMultimap.of("knows", jackId)).build(), UPDATE, opts(true), user);
+
+    assertEquals(ImmutableList.of(johnId), indexedReferrers(jackId));
+  }
+
+  private List<NodeId> indexedReferrers(NodeId nodeId) {
+    try (Stream<Node> nodes = nodeService.values(
+        Queries.query(Specifications.asLucene(NodesById.of(nodeId.getId()))), user)) {
+      Node node = nodes.findFirst().orElseThrow(AssertionError::new);
+      return ImmutableList.copyOf(node.getReferrers().get("knows"));
+    }
+  }
+
+  @Test
+  void shouldIndexNodeQueuedInManyBatchesOfWrite() {
+    NodeId johnId = NodeId.random("Person", graphId);
+    nodeService.save(Node.builder().id(johnId).build(), INSERT, defaultOpts(), user);
+
+    // referrers of john change in each batch of the write
+    nodeService.save(IntStream.range(0, 2500)
+        .mapToObj(i -> Node.builder().random(TypeId.of("Person", graphId))
+            .addReference("knows", johnId)
+            .build()), INSERT, opts(true), user);
+
+    try (Stream<Node> nodes = nodeService.values(
+        Queries.query(Specifications.asLucene(NodesById.of(johnId.getId()))), user)) {
+      Node john = nodes.findFirst().orElseThrow(AssertionError::new);
+      assertEquals(2500, john.getReferrers().get("knows").size());
+    }
+  }
+
+  @Test
+  void shouldIndexConcurrentWrites() {
+    List<Node> people = IntStream.range(0, 20)
+        .mapToObj(i -> Node.builder().random(TypeId.of("Person", graphId)).build())
+        .collect(toList());
+
+    people.parallelStream().forEach(p -> nodeService.save(p, INSERT, opts(true), user));
+
+    assertEquals(people.size(), nodeService.count(NodesByGraphId.of(graphId), user));
+  }
+
+  @Test
+  void shouldPageIndexQueryResults() {
+    List<NodeId> people = IntStream.range(0, 3)
+        .mapToObj(i -> NodeId.random("Person", graphId))
+        .collect(toList());
+    nodeService.save(people.stream().map(id -> Node.builder().id(id).build()),
+        INSERT, opts(true), user);
+
+    Query<NodeId, Node> query = new Query<>(
+        Specifications.asLucene(NodesByGraphId.of(graphId)), NodeSorts.parse("number"), 2);
+
+    Page<Node> first = nodePageService.page(query, null, user);
+    assertEquals(2, first.getValues().size());
+    assertTrue(first.getNext().isPresent());
+
+    Page<Node> second = nodePageService.page(query, first.getNext().get(), user);
+    assertEquals(1, second.getValues().size());
+    assertTrue(second.getNext().isPresent());
+
+    Page<Node> third = nodePageService.page(query, second.getNext().get(), user);
+    assertTrue(third.getValues().isEmpty());
+    assertFalse(third.getNext().isPresent());
+
+    assertEquals(ImmutableSet.copyOf(people),
+        Stream.concat(first.getValues().stream(), second.getValues().stream())
+            .map(Node::identifier)
+            .collect(toSet()));
+  }
+
+  @Test
+  void shouldNotPageNonIndexQuery() {
+    Query<NodeId, Node> query = new Query<>(
+        Specifications.asSql(NodesByGraphId.of(graphId)), NodeSorts.parse("number"), 2);
+
+    assertThrows(IllegalArgumentException.class, () -> nodePageService.page(query, null, user));
+  }
+
+  private List<NodeId> referredBy(NodeId referrerId) {
+    try (Stream<NodeId> keys = nodeService.keys(
+        Queries.query(new NodesByReferrer("knows", referrerId.getId())), user)) {
+      return keys.collect(toList());
+    }
+  }
+
+  @Test
+  void shouldPopulateAllValuesOfNodesReadFromDatabase() {
+    NodeId johnId = NodeId.random("Person", graphId);
+    NodeId jackId = NodeId.random("Person", graphId);
+    NodeId maryId = NodeId.random("Person", graphId);
+    NodeId groupId = NodeId.random("Group", graphId);
+
+    Node john = Node.builder().id(johnId)
+        .addProperty("name", "John")
+        .addProperty("email", "john@example.org")
+        .addReference("knows", jackId)
+        .addReference("knows", maryId)
+        .build();
+    Node jack = Node.builder().id(jackId)
+        .addProperty("name", "Jack")
+        .addReference("knows", maryId)
+        .build();
+    Node mary = Node.builder().id(maryId)
+        .addProperty("name", "Mary")
+        .build();
+    Node group = Node.builder().id(groupId)
+        .addProperty("name", "Group")
+        .addReference("member", johnId)
+        .addReference("member", maryId)
+        .build();
+
+    nodeService.save(Stream.of(john, jack, mary, group), INSERT, defaultOpts(), user);
+
+    Map<NodeId, Node> dbNodes;
+    try (Stream<Node> nodes = nodeService.values(
+        Queries.sqlQuery(new NodesByGraphId(graphId)), user)) {
+      dbNodes = nodes.collect(toMap(Node::identifier, n -> n));
+    }
+
+    assertEquals(4, dbNodes.size());
+
+    Node dbJohn = dbNodes.get(johnId);
+    assertEquals(ImmutableList.of("John"), propertyValues(dbJohn, "name"));
+    assertEquals(ImmutableList.of("john@example.org"), propertyValues(dbJohn, "email"));
+    assertEquals(ImmutableList.of(jackId, maryId),
+        ImmutableList.copyOf(dbJohn.getReferences().get("knows")));
+    assertEquals(ImmutableList.of(groupId),
+        ImmutableList.copyOf(dbJohn.getReferrers().get("member")));
+
+    Node dbMary = dbNodes.get(maryId);
+    assertTrue(dbMary.getReferences().isEmpty());
+    assertEquals(ImmutableSet.of(johnId, jackId),
+        ImmutableSet.copyOf(dbMary.getReferrers().get("knows")));
+    assertEquals(ImmutableList.of(groupId),
+        ImmutableList.copyOf(dbMary.getReferrers().get("member")));
+
+    Node dbGroup = dbNodes.get(groupId);
+    assertEquals(ImmutableList.of(johnId, maryId),
+        ImmutableList.copyOf(dbGroup.getReferences().get("member")));
+    assertTrue(dbGroup.getReferrers().isEmpty());
+  }
+
+  private List<String> propertyValues(Node node, String property) {
+    return node.getProperties().get(property).stream()
+        .map(StrictLangValue::getValue)
+        .collect(toList());
+  }
+
   @Test
   void shouldDeleteNodesWithCircularReferences() {
     NodeId johnId = NodeId.random("Person", graphId);
@@ -255,6 +540,28 @@ class NodeServiceIntegrationTest extends BaseNodeServiceIntegrationTest {
     assertFalse(nodeService.exists(jackId, user));
   }
 
+  @Test
+  void shouldDeleteNodesWithValuesInBatch() {
+    NodeId johnId = NodeId.random("Person", graphId);
+
+    List<Node> people = IntStream.range(0, 1500)
+        .mapToObj(i -> Node.builder().random(TypeId.of("Person", graphId))
+            .addProperty("name", "Person " + i)
+            .addReference("knows", johnId)
+            .build())
+        .collect(toList());
+
+    nodeService.save(Node.builder().id(johnId).build(), INSERT, defaultOpts(), user);
+    nodeService.save(people.stream(), INSERT, defaultOpts(), user);
+
+    nodeService.delete(Stream.concat(
+        people.stream().map(Node::identifier),
+        Stream.of(johnId)), defaultOpts(), user);
+
+    assertFalse(nodeService.exists(johnId, user));
+    assertTrue(people.stream().noneMatch(p -> nodeService.exists(p.identifier(), user)));
+  }
+
   @Test
   void shouldFailToDeleteReferencedNode() {
     NodeId johnId = NodeId.random("Person", graphId);
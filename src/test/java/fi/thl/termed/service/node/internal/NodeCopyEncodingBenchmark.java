@@ -0,0 +1,95 @@
+package fi.thl.termed.service.node.internal;
+
+import static fi.thl.termed.util.postgresql.CopyManagerUtils.writeCsv;
+
+import com.google.common.collect.Iterators;
+import com.google.common.io.ByteStreams;
+import fi.thl.termed.domain.Node;
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.TypeId;
+import fi.thl.termed.util.dao.MemoryBasedSystemDao;
+import fi.thl.termed.util.postgresql.BinaryCopyWriter;
+import fi.thl.termed.util.postgresql.CopyFormat;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * Compares encoding node rows for COPY FROM STDIN in CSV and binary formats. Rows are written to
+ * a discarding stream, so only client side encoding cost is measured. Not run as a part of the
+ * test suite, run e.g. from IDE with main method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NodeCopyEncodingBenchmark {
+
+  private final OutputStream out = ByteStreams.nullOutputStream();
+
+  private JdbcPostgresNodeDao nodeDao;
+  private List<Node> nodes;
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(NodeCopyEncodingBenchmark.class.getSimpleName())
+        .addProfiler("gc")
+        .build()).run();
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    nodeDao = new JdbcPostgresNodeDao(new MemoryBasedSystemDao<>(),
+        new DriverManagerDataSource(), CopyFormat.BINARY);
+
+    TypeId type = TypeId.of("Concept", UUID.randomUUID());
+    nodes = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      nodes.add(Node.builder().random(type)
+          .code("concept-" + i)
+          .uri("http://example.org/concept-" + i)
+          .number((long) i)
+          .createdBy("admin")
+          .createdDate(LocalDateTime.now())
+          .lastModifiedBy("admin")
+          .lastModifiedDate(LocalDateTime.now())
+          .build());
+    }
+  }
+
+  @Benchmark
+  public void csv() throws IOException {
+    writeCsv(Iterators.transform(nodes.iterator(), n -> nodeDao.toRow(n.identifier(), n)), out);
+  }
+
+  @Benchmark
+  public void binary() throws IOException {
+    BinaryCopyWriter writer = new BinaryCopyWriter(out);
+    for (Node node : nodes) {
+      nodeDao.writeRow(node.identifier(), node, writer);
+    }
+    writer.finish();
+  }
+
+}
@@ -0,0 +1,122 @@
+package fi.thl.termed.service.node.internal;
+
+import fi.thl.termed.domain.Node;
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.TypeId;
+import fi.thl.termed.util.index.lucene.LowerCaseWhitespaceAnalyzer;
+import fi.thl.termed.util.index.lucene.TermedCodec;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares decoding nodes from stored fields via {@link DocumentToNode} and via {@link
+ * NodeDocumentVisitor}. Not run as a part of the test suite, run e.g. from IDE with main method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NodeDocumentDecodingBenchmark {
+
+  @Param({"0", "20"})
+  private int referenceCount;
+
+  private Directory directory;
+  private DirectoryReader reader;
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+        .include(NodeDocumentDecodingBenchmark.class.getSimpleName())
+        .addProfiler("gc")
+        .build()).run();
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    TypeId type = TypeId.of("Concept", UUID.randomUUID());
+    NodeToDocument nodeToDocument = new NodeToDocument();
+
+    directory = new RAMDirectory();
+    try (IndexWriter writer = new IndexWriter(directory,
+        new IndexWriterConfig(new LowerCaseWhitespaceAnalyzer()).setCodec(new TermedCodec()))) {
+      for (int i = 0; i < 1000; i++) {
+        writer.addDocument(nodeToDocument.apply(exampleNode(type, i)));
+      }
+    }
+    reader = DirectoryReader.open(directory);
+  }
+
+  private Node exampleNode(TypeId type, int i) {
+    List<NodeId> references = new ArrayList<>();
+    for (int j = 0; j < referenceCount; j++) {
+      references.add(NodeId.random(type));
+    }
+
+    return Node.builder().random(type)
+        .code("concept-" + i)
+        .uri("http://example.org/concept-" + i)
+        .number((long) i)
+        .createdBy("admin")
+        .createdDate(LocalDateTime.now())
+        .lastModifiedBy("admin")
+        .lastModifiedDate(LocalDateTime.now())
+        .addProperty("prefLabel", "fi", "Käsite " + i)
+        .addProperty("prefLabel", "en", "Concept " + i)
+        .addProperty("definition", "en", "Example definition of concept " + i)
+        .addReference("related", references)
+        .addReferrer("broader", references)
+        .build();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    reader.close();
+    directory.close();
+  }
+
+  @Benchmark
+  public void documentToNode(Blackhole blackhole) throws IOException {
+    DocumentToNode documentToNode = new DocumentToNode();
+    for (int doc = 0; doc < reader.maxDoc(); doc++) {
+      blackhole.consume(documentToNode.apply(reader.document(doc)));
+    }
+  }
+
+  @Benchmark
+  public void nodeDocumentVisitor(Blackhole blackhole) throws IOException {
+    for (int doc = 0; doc < reader.maxDoc(); doc++) {
+      NodeDocumentVisitor visitor = new NodeDocumentVisitor();
+      reader.document(doc, visitor);
+      blackhole.consume(visitor.build());
+    }
+  }
+
+}
@@ -0,0 +1,92 @@
+package fi.thl.termed.service.node.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import fi.thl.termed.domain.Node;
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.StrictLangValue;
+import fi.thl.termed.domain.TypeId;
+import fi.thl.termed.util.index.lucene.LowerCaseWhitespaceAnalyzer;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.jupiter.api.Test;
+
+class NodeDocumentVisitorTest {
+
+  private final UUID graphId = UUID.randomUUID();
+  private final TypeId typeId = TypeId.of("Concept", graphId);
+
+  private final Node node = Node.builder().random(typeId)
+      .code("concept-1")
+      .uri("http://example.org/concept-1")
+      .number(1L)
+      .createdBy("admin")
+      .createdDate(LocalDateTime.of(2019, 1, 1, 12, 0))
+      .lastModifiedBy("admin")
+      .lastModifiedDate(LocalDateTime.of(2019, 1, 2, 12, 0))
+      .addProperty("prefLabel", "fi", "Koira")
+      .addProperty("prefLabel", "en", "Dog")
+      .addProperty("altLabel", new StrictLangValue("en", "Hound, \"the\" dog", "^.*$"))
+      .addReference("broader", NodeId.random(typeId), NodeId.random(typeId))
+      .addReferrer("related", ImmutableList.of(NodeId.random(typeId)))
+      .build();
+
+  @Test
+  void shouldBuildSameNodeAsDocumentToNode() throws IOException {
+    try (Directory directory = index(node);
+        DirectoryReader reader = DirectoryReader.open(directory)) {
+
+      Node fromDocument = new DocumentToNode().apply(reader.document(0));
+
+      NodeDocumentVisitor visitor = new NodeDocumentVisitor();
+      reader.document(0, visitor);
+      Node fromVisitor = visitor.build();
+
+      assertEquals(node, fromVisitor);
+      assertEquals(node.getReferrers(), fromVisitor.getReferrers());
+      assertEquals(fromDocument, fromVisitor);
+      assertEquals(fromDocument.getReferrers(), fromVisitor.getReferrers());
+    }
+  }
+
+  @Test
+  void shouldLoadOnlyRequestedFields() throws IOException {
+    try (Directory directory = index(node);
+        DirectoryReader reader = DirectoryReader.open(directory)) {
+
+      String prefLabelField = graphId + ".Concept.properties.prefLabel";
+
+      NodeDocumentVisitor visitor = new NodeDocumentVisitor(
+          ImmutableSet.of("id", "type.id", "type.graph.id", prefLabelField));
+      reader.document(0, visitor);
+      Node fromVisitor = visitor.build();
+
+      assertEquals(node.identifier(), fromVisitor.identifier());
+      assertEquals(node.getProperties().get("prefLabel"),
+          fromVisitor.getProperties().get("prefLabel"));
+      assertTrue(fromVisitor.getProperties().get("altLabel").isEmpty());
+      assertTrue(fromVisitor.getReferences().isEmpty());
+      assertNull(fromVisitor.getNumber());
+    }
+  }
+
+  private Directory index(Node node) throws IOException {
+    Directory directory = new RAMDirectory();
+    try (IndexWriter writer = new IndexWriter(directory,
+        new IndexWriterConfig(new LowerCaseWhitespaceAnalyzer()))) {
+      writer.addDocument(new NodeToDocument().apply(node));
+    }
+    return directory;
+  }
+
+}
@@ -0,0 +1,79 @@
+package fi.thl.termed.service.node.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultimap;
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.StrictLangValue;
+import fi.thl.termed.domain.TypeId;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+class NodeStoredFieldsTest {
+
+  @Test
+  void shouldEncodeAndDecodeProperties() {
+    List<StrictLangValue> values = ImmutableList.of(
+        new StrictLangValue("fi", "Koira"),
+        new StrictLangValue("en", "Dog"),
+        new StrictLangValue("en", "Hound, \"the\" dog", "^.*$"),
+        new StrictLangValue("", "ääkköset ☃"));
+
+    ImmutableMultimap.Builder<String, StrictLangValue> decoded = ImmutableMultimap.builder();
+    NodeStoredFields.decodeProperties("prefLabel",
+        NodeStoredFields.encodeProperties(values), decoded);
+
+    assertEquals(values, decoded.build().get("prefLabel").asList());
+  }
+
+  @Test
+  void shouldEncodeAndDecodeNodeIds() {
+    TypeId concept = TypeId.of("Concept", UUID.randomUUID());
+    TypeId collection = TypeId.of("Collection", UUID.randomUUID());
+
+    List<NodeId> nodeIds = ImmutableList.of(
+        NodeId.random(concept),
+        NodeId.random(collection),
+        NodeId.random(concept));
+
+    ImmutableMultimap.Builder<String, NodeId> decoded = ImmutableMultimap.builder();
+    NodeStoredFields.decodeNodeIds("broader", NodeStoredFields.encodeNodeIds(nodeIds), decoded);
+
+    assertEquals(nodeIds, decoded.build().get("broader").asList());
+  }
+
+  @Test
+  void shouldEncodeNodeIdsMoreCompactlyThanStrings() {
+    TypeId concept = TypeId.of("Concept", UUID.randomUUID());
+
+    List<NodeId> nodeIds = ImmutableList.of(
+        NodeId.random(concept),
+        NodeId.random(concept),
+        NodeId.random(concept));
+
+    // one type entry (16 + 8 bytes) and 17 bytes per id instead of ~82 chars per id
+    assertTrue(NodeStoredFields.encodeNodeIds(nodeIds).length < 100);
+  }
+
+  @Test
+  void shouldRejectUnknownVersion() {
+    assertThrows(IllegalStateException.class, () -> NodeStoredFields.decodeNodeIds("broader",
+        new byte[]{99, 0, 0}, ImmutableMultimap.builder()));
+  }
+
+  @Test
+  void shouldReadDocumentFormatsWithCurrentStoredFieldEncoding() {
+    assertFalse(NodeStoredFields.isReadableDocumentFormat(Optional.empty()));
+    assertFalse(NodeStoredFields.isReadableDocumentFormat(Optional.of("1")));
+    assertTrue(NodeStoredFields.isReadableDocumentFormat(Optional.of("2")));
+    assertTrue(NodeStoredFields.isReadableDocumentFormat(
+        Optional.of(NodeStoredFields.DOCUMENT_FORMAT_VERSION)));
+  }
+
+}
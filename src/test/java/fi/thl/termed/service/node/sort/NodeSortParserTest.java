@@ -1,6 +1,7 @@
 package fi.thl.termed.service.node.sort;
 
 import static fi.thl.termed.util.query.Sorts.sort;
+import static fi.thl.termed.util.query.Sorts.sortLong;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import com.google.common.collect.ImmutableList;
@@ -14,7 +15,7 @@ class NodeSortParserTest {
 
   @Test
   void shouldParseSortByNumber() {
-    List<Sort> sortPrefLabelDesc = ImmutableList.of(sort("number"));
+    List<Sort> sortPrefLabelDesc = ImmutableList.of(sortLong("number"));
 
     assertEquals(sortPrefLabelDesc, sp.apply("n"));
     assertEquals(sortPrefLabelDesc, sp.apply("n asc"));
@@ -32,7 +33,7 @@ class NodeSortParserTest {
 
   @Test
   void shouldParseSortByNumberDesc() {
-    List<Sort> sortPrefLabelDesc = ImmutableList.of(sort("number", true));
+    List<Sort> sortPrefLabelDesc = ImmutableList.of(sortLong("number", true));
 
     assertEquals(sortPrefLabelDesc, sp.apply("n desc"));
     assertEquals(sortPrefLabelDesc, sp.apply("n+desc"));
@@ -46,7 +47,7 @@ class NodeSortParserTest {
 
   @Test
   void shouldParseSortByCreatedDate() {
-    List<Sort> sortPrefLabelDesc = ImmutableList.of(sort("createdDate"));
+    List<Sort> sortPrefLabelDesc = ImmutableList.of(sortLong("createdDate"));
 
     assertEquals(sortPrefLabelDesc, sp.apply("createdDate"));
     assertEquals(sortPrefLabelDesc, sp.apply("createdDate.sortable"));
@@ -54,7 +55,7 @@ class NodeSortParserTest {
 
   @Test
   void shouldParseSortByCreatedDateDesc() {
-    List<Sort> sortPrefLabelDesc = ImmutableList.of(sort("createdDate", true));
+    List<Sort> sortPrefLabelDesc = ImmutableList.of(sortLong("createdDate", true));
 
     assertEquals(sortPrefLabelDesc, sp.apply("createdDate desc"));
     assertEquals(sortPrefLabelDesc, sp.apply("createdDate+desc"));
@@ -64,7 +65,7 @@ class NodeSortParserTest {
 
   @Test
   void shouldParseSortByLastModifiedDate() {
-    List<Sort> sortPrefLabelDesc = ImmutableList.of(sort("lastModifiedDate"));
+    List<Sort> sortPrefLabelDesc = ImmutableList.of(sortLong("lastModifiedDate"));
 
     assertEquals(sortPrefLabelDesc, sp.apply("lastModifiedDate"));
     assertEquals(sortPrefLabelDesc, sp.apply("lastModifiedDate.sortable"));
@@ -72,7 +73,7 @@ class NodeSortParserTest {
 
   @Test
   void shouldParseSortByLastModifiedDateDesc() {
-    List<Sort> sortPrefLabelDesc = ImmutableList.of(sort("lastModifiedDate", true));
+    List<Sort> sortPrefLabelDesc = ImmutableList.of(sortLong("lastModifiedDate", true));
 
     assertEquals(sortPrefLabelDesc, sp.apply("lastModifiedDate desc"));
     assertEquals(sortPrefLabelDesc, sp.apply("lastModifiedDate+desc"));
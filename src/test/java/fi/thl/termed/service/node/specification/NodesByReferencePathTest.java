@@ -0,0 +1,66 @@
+package fi.thl.termed.service.node.specification;
+
+import static fi.thl.termed.util.query.AndSpecification.and;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fi.thl.termed.domain.GraphId;
+import fi.thl.termed.domain.Node;
+import fi.thl.termed.domain.NodeId;
+import fi.thl.termed.domain.TypeId;
+import fi.thl.termed.util.query.Specification;
+import fi.thl.termed.util.query.Specifications;
+import fi.thl.termed.util.query.UnresolvedSpecificationException;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+class NodesByReferencePathTest {
+
+  private TypeId type = TypeId.of("Concept", GraphId.random());
+
+  private Node broader = Node.builder().random(type).build();
+  private Node narrower = Node.builder().random(type)
+      .addReference("broader", broader.identifier())
+      .build();
+  private Node other = Node.builder().random(type).build();
+
+  @Test
+  void shouldTestAgainstResolvedValueNodeIds() {
+    NodesByReferencePath spec = new NodesByReferencePath("broader", NodesById.of(broader.getId()));
+
+    spec.resolve(s -> Stream.of(broader, narrower, other)
+        .filter(n -> s.test(n.identifier(), n))
+        .map(Node::identifier));
+
+    assertTrue(spec.test(narrower.identifier(), narrower));
+    assertFalse(spec.test(broader.identifier(), broader));
+    assertFalse(spec.test(other.identifier(), other));
+  }
+
+  @Test
+  void shouldResolveNestedReferencePaths() {
+    Node narrowest = Node.builder().random(type)
+        .addReference("broader", narrower.identifier())
+        .build();
+
+    Specification<NodeId, Node> spec = and(new NodesByReferencePath("broader",
+        new NodesByReferencePath("broader", NodesById.of(broader.getId()))));
+
+    Specifications.resolve(spec, s -> Stream.of(broader, narrower, narrowest)
+        .filter(n -> s.test(n.identifier(), n))
+        .map(Node::identifier));
+
+    assertTrue(spec.test(narrowest.identifier(), narrowest));
+    assertFalse(spec.test(narrower.identifier(), narrower));
+  }
+
+  @Test
+  void shouldNotTestUnresolved() {
+    NodesByReferencePath spec = new NodesByReferencePath("broader", NodesById.of(broader.getId()));
+
+    assertThrows(UnresolvedSpecificationException.class,
+        () -> spec.test(narrower.identifier(), narrower));
+  }
+
+}
@@ -46,7 +46,7 @@ import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 @TestInstance(Lifecycle.PER_CLASS)
 @ExtendWith(SpringExtension.class)
-@SpringBootTest
+@SpringBootTest(properties = "fi.thl.termed.indexWaitForAllWrites=true")
 class TypeServiceIntegrationTest {
 
   @Autowired
@@ -0,0 +1,99 @@
+package fi.thl.termed.util.index;
+
+import static java.util.Collections.emptyMap;
+import static java.util.stream.Collectors.toMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ParallelIndexerTest {
+
+  private ParallelIndexer<Integer, String> indexer = new ParallelIndexer<>("test", 4, 10);
+
+  @AfterEach
+  void tearDown() {
+    indexer.close();
+  }
+
+  @Test
+  void shouldIndexAllKeysInBatches() {
+    Map<Integer, Optional<String>> written = new ConcurrentHashMap<>();
+    AtomicInteger loadCount = new AtomicInteger();
+
+    indexer.index(IntStream.range(0, 1000).boxed(), 1000,
+        keys -> {
+          loadCount.incrementAndGet();
+          // odd keys are missing
+          return keys.stream()
+              .filter(k -> k % 2 == 0)
+              .collect(toMap(Function.identity(), k -> "value-" + k));
+        },
+        written::put,
+        false);
+
+    assertEquals(1000, written.size());
+    assertEquals(100, loadCount.get());
+    assertEquals(Optional.of("value-10"), written.get(10));
+    assertEquals(Optional.empty(), written.get(11));
+  }
+
+  @Test
+  void shouldIndexInCallingThreadIfRequested() {
+    Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+    indexer.index(IntStream.range(0, 100).boxed(), -1,
+        keys -> keys.stream().collect(toMap(Function.identity(), String::valueOf)),
+        (k, v) -> threads.add(Thread.currentThread()),
+        true);
+
+    assertEquals(1, threads.size());
+    assertTrue(threads.contains(Thread.currentThread()));
+  }
+
+  @Test
+  void shouldFailWithBatchError() {
+    AtomicInteger closeCount = new AtomicInteger();
+
+    assertThrows(IllegalStateException.class, () ->
+        indexer.index(IntStream.range(0, 1000).boxed().onClose(closeCount::incrementAndGet), -1,
+            keys -> {
+              if (keys.contains(500)) {
+                throw new IllegalStateException();
+              }
+              return keys.stream().collect(toMap(Function.identity(), String::valueOf));
+            },
+            (k, v) -> {
+            },
+            false));
+
+    assertEquals(1, closeCount.get());
+  }
+
+  @Test
+  void shouldIndexNothingForEmptyStream() {
+    AtomicInteger loadCount = new AtomicInteger();
+
+    indexer.index(Stream.empty(), 0,
+        keys -> {
+          loadCount.incrementAndGet();
+          return emptyMap();
+        },
+        (k, v) -> {
+        },
+        false);
+
+    assertEquals(0, loadCount.get());
+  }
+
+}
@@ -1,13 +1,30 @@
 package fi.thl.termed.util.index.lucene;
 
 import static fi.thl.termed.util.collect.StreamUtils.findFirstAndClose;
+import static fi.thl.termed.util.collect.StreamUtils.toListAndClose;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static java.util.Collections.singletonList;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.google.gson.Gson;
+import fi.thl.termed.util.index.lucene.LuceneIndex.Generation;
+import fi.thl.termed.util.query.LuceneSortField;
 import fi.thl.termed.util.query.LuceneSpecification;
 import fi.thl.termed.util.query.Specification;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -64,6 +81,155 @@ class LuceneIndexTest {
     assertEquals(0, index.count(term("body", "horses")));
   }
 
+  @Test
+  void shouldSeeWritesAfterWaitingForGeneration() {
+    Generation generation = index
+        .indexAndGetGeneration(4, new TestObject(4, "Fourth", "This is an example body about cows"));
+
+    assertFalse(generation.isEmpty());
+
+    index.waitForGeneration(generation);
+
+    assertEquals(1, index.count(term("body", "cows")));
+
+    index.waitForGeneration(index.deleteAndGetGeneration(4));
+
+    assertEquals(0, index.count(term("body", "cows")));
+  }
+
+  @Test
+  void shouldSeeWritesAfterWaitingForMergedGenerations() {
+    Generation generation = index
+        .indexAndGetGeneration(4, new TestObject(4, "Fourth", "This is an example body about cows"))
+        .merge(index.indexAndGetGeneration(5, new TestObject(5, "Fifth", "About more cows")));
+
+    index.waitForGeneration(generation);
+
+    assertEquals(2, index.count(term("body", "cows")));
+  }
+
+  @Test
+  void shouldBackupToDirectory() throws IOException {
+    Path backupDirectory = Files.createTempDirectory("termed-index-backup");
+
+    index.setCommitData("version", "1");
+    assertEquals("1", index.backup(backupDirectory).get("version"));
+
+    // writes after backup are not in backup
+    index.index(4, new TestObject(4, "Fourth", "This is an example body about cows"));
+
+    LuceneIndex<Integer, TestObject> restored = new LuceneIndex<>(
+        backupDirectory.toString(),
+        new JsonStringConverter<>(Integer.class),
+        new JsonDocumentConverter<>(new Gson(), TestObject.class));
+
+    try {
+      assertEquals(1, restored.count(term("body", "cats")));
+      assertEquals(0, restored.count(term("body", "cows")));
+      assertEquals(Optional.of("1"), restored.getCommitData("version"));
+    } finally {
+      restored.close();
+      try (Stream<Path> paths = Files.walk(backupDirectory)) {
+        paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+      }
+    }
+  }
+
+  @Test
+  void shouldServeOldIndexUntilRebuildIsFinished() {
+    index.startRebuild(singletonMap("version", "2"));
+
+    index.rebuild(1, new TestObject(1, "First", "Rebuilt body about dogs"));
+    index.rebuild(2, new TestObject(2, "Second", "Rebuilt body about cats"));
+    // written during rebuild, rebuilt value may be older and is skipped
+    index.index(3, new TestObject(3, "Third", "Updated body about horses"));
+    index.rebuild(3, new TestObject(3, "Third", "Stale body about horses"));
+    index.refreshBlocking();
+
+    assertEquals(0, index.count(term("body", "rebuilt")));
+    assertEquals(1, index.count(term("body", "updated")));
+
+    index.finishRebuild();
+    index.refreshBlocking();
+
+    assertEquals(2, index.count(term("body", "rebuilt")));
+    assertEquals(1, index.count(term("body", "updated")));
+    assertEquals(0, index.count(term("body", "stale")));
+    assertEquals(Optional.of("2"), index.getCommitData("version"));
+  }
+
+  @Test
+  void shouldDeleteReplacedIndexWhenSearchesOfItAreDone() throws IOException {
+    Path directory = Files.createTempDirectory("termed-index");
+    Path oldDirectory = directory.resolveSibling(directory.getFileName() + ".old");
+
+    LuceneIndex<Integer, TestObject> fsIndex = new LuceneIndex<>(
+        directory.toString(),
+        new JsonStringConverter<>(Integer.class),
+        new JsonDocumentConverter<>(new Gson(), TestObject.class));
+
+    try {
+      fsIndex.index(1, new TestObject(1, "First", "This is an example body about dogs"));
+      fsIndex.index(2, new TestObject(2, "Second", "This is an example body about cats"));
+      fsIndex.refreshBlocking();
+
+      try (Stream<TestObject> results = fsIndex.get(term("body", "example"), null, -1)) {
+        fsIndex.startRebuild(emptyMap());
+        fsIndex.rebuild(1, new TestObject(1, "First", "Rebuilt body about dogs"));
+        fsIndex.finishRebuild();
+
+        // search started before the swap still reads the replaced index
+        assertTrue(Files.exists(oldDirectory));
+        assertEquals(2, results.count());
+      }
+
+      assertFalse(Files.exists(oldDirectory));
+      assertEquals(1, fsIndex.count(term("body", "rebuilt")));
+    } finally {
+      fsIndex.close();
+      try (Stream<Path> paths = Files.walk(directory)) {
+        paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+      }
+    }
+  }
+
+  @Test
+  void shouldKeepOldIndexIfRebuildIsCancelled() {
+    index.startRebuild(emptyMap());
+    index.rebuild(1, new TestObject(1, "First", "Rebuilt body about dogs"));
+    index.cancelRebuild();
+    index.refreshBlocking();
+
+    assertEquals(3, index.count(term("body", "example")));
+    assertEquals(0, index.count(term("body", "rebuilt")));
+  }
+
+  @Test
+  void shouldReturnSortedResultsInSortOrder() {
+    for (int i = 4; i <= 2500; i++) {
+      index.index(i, new TestObject(i, "Title " + i, "This is an example body"));
+    }
+    index.refreshBlocking();
+
+    LuceneSortField reverseIndexOrder = () -> new SortField(null, SortField.Type.DOC, true);
+
+    List<Integer> ids = toListAndClose(
+        index.get(term("body", "example"), singletonList(reverseIndexOrder), -1).map(o -> o.id));
+
+    assertEquals(2500, ids.size());
+    for (int i = 0; i < ids.size(); i++) {
+      assertEquals(new Integer(2500 - i), ids.get(i));
+    }
+  }
+
+  @Test
+  void shouldReturnUnsortedResultsInIndexOrder() {
+    List<Integer> ids = toListAndClose(
+        index.get(term("body", "example"), null, -1).map(o -> o.id));
+
+    assertEquals(asList(1, 2, 3), ids);
+  }
+
   private <K extends Serializable, V> Specification<K, V> term(String field, String value) {
     return new RawLuceneSpecification<>(new TermQuery(new Term(field, value)));
   }
@@ -0,0 +1,94 @@
+package fi.thl.termed.util.index.lucene;
+
+import static fi.thl.termed.util.collect.StreamUtils.toListAndClose;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.gson.Gson;
+import fi.thl.termed.util.query.LuceneSpecification;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.TermQuery;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ParallelSearcherFactoryTest {
+
+  private Timer sliceTimer;
+  private ParallelSearcherFactory searcherFactory;
+  private LuceneIndex<Integer, TestObject> index;
+
+  @BeforeEach
+  void setUp() {
+    sliceTimer = Timer.builder("test.slice").register(new SimpleMeterRegistry());
+    searcherFactory = new ParallelSearcherFactory(4, 100, 2, sliceTimer);
+    index = new LuceneIndex<>(
+        "",
+        new JsonStringConverter<>(Integer.class),
+        new JsonDocumentConverter<>(new Gson(), TestObject.class),
+        1.0, 0.1,
+        searcherFactory,
+        null,
+        null);
+
+    // refresh after each batch to write several small segments
+    for (int i = 0; i < 1000; i++) {
+      index.index(i, new TestObject(i, i % 2 == 0 ? "even" : "odd"));
+      if (i % 100 == 99) {
+        index.refreshBlocking();
+      }
+    }
+  }
+
+  @AfterEach
+  void tearDown() {
+    index.close();
+    searcherFactory.close();
+  }
+
+  @Test
+  void shouldCountAcrossSlices() {
+    assertEquals(500, index.count(term("parity", "even")));
+  }
+
+  @Test
+  void shouldReturnUnsortedResultsInIndexOrderAcrossSlices() {
+    List<Integer> ids = toListAndClose(index.get(term("parity", "odd"), null, -1).map(o -> o.id));
+
+    assertEquals(IntStream.range(0, 1000).filter(i -> i % 2 == 1).boxed()
+        .collect(Collectors.toList()), ids);
+    assertTrue(sliceTimer.count() > 1);
+  }
+
+  private LuceneSpecification<Integer, TestObject> term(String field, String value) {
+    return new LuceneSpecification<Integer, TestObject>() {
+      @Override
+      public org.apache.lucene.search.Query luceneQuery() {
+        return new TermQuery(new Term(field, value));
+      }
+
+      @Override
+      public boolean test(Integer k, TestObject v) {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  private class TestObject {
+
+    private Integer id;
+    private String parity;
+
+    TestObject(Integer id, String parity) {
+      this.id = id;
+      this.parity = parity;
+    }
+
+  }
+
+}
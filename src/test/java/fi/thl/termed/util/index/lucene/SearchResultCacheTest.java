@@ -0,0 +1,93 @@
+package fi.thl.termed.util.index.lucene;
+
+import static fi.thl.termed.util.collect.StreamUtils.toListAndClose;
+import static java.util.Arrays.asList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.gson.Gson;
+import fi.thl.termed.util.query.LuceneSpecification;
+import java.util.List;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.TermQuery;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SearchResultCacheTest {
+
+  private SearchResultCache resultCache;
+  private LuceneIndex<Integer, TestObject> index;
+
+  @BeforeEach
+  void setUp() {
+    resultCache = new SearchResultCache(1000);
+    index = new LuceneIndex<>(
+        "",
+        new JsonStringConverter<>(Integer.class),
+        new JsonDocumentConverter<>(new Gson(), TestObject.class),
+        1.0, 0.1,
+        new SearcherFactory(),
+        null,
+        resultCache);
+
+    index.index(1, new TestObject(1, "cats"));
+    index.index(2, new TestObject(2, "dogs"));
+    index.index(3, new TestObject(3, "cats"));
+    index.refreshBlocking();
+  }
+
+  @AfterEach
+  void tearDown() {
+    index.close();
+  }
+
+  @Test
+  void shouldReuseResultsOfSameSearcher() {
+    assertEquals(asList(1, 3), ids("cats"));
+    assertEquals(asList(1, 3), ids("cats"));
+
+    assertEquals(1, resultCache.getCache().stats().missCount());
+    assertEquals(1, resultCache.getCache().stats().hitCount());
+  }
+
+  @Test
+  void shouldDropResultsWhenSearcherIsRefreshed() {
+    assertEquals(asList(1, 3), ids("cats"));
+
+    index.index(4, new TestObject(4, "cats"));
+    index.refreshBlocking();
+
+    assertEquals(asList(1, 3, 4), ids("cats"));
+    assertEquals(2, resultCache.getCache().stats().missCount());
+    assertEquals(1, resultCache.getCache().size());
+  }
+
+  private List<Integer> ids(String body) {
+    LuceneSpecification<Integer, TestObject> spec = new LuceneSpecification<Integer, TestObject>() {
+      @Override
+      public org.apache.lucene.search.Query luceneQuery() {
+        return new TermQuery(new Term("body", body));
+      }
+
+      @Override
+      public boolean test(Integer k, TestObject v) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    return toListAndClose(index.get(spec, null, -1).map(o -> o.id));
+  }
+
+  private class TestObject {
+
+    private Integer id;
+    private String body;
+
+    TestObject(Integer id, String body) {
+      this.id = id;
+      this.body = body;
+    }
+
+  }
+
+}
@@ -0,0 +1,223 @@
+package fi.thl.termed.util.index.lucene;
+
+import static fi.thl.termed.util.collect.StreamUtils.toListAndClose;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+import fi.thl.termed.util.query.LuceneSpecification;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.TermQuery;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ShardedLuceneIndexTest {
+
+  private TermQuerySharding<String> sharding =
+      new TermQuerySharding<>("group", key -> key.substring(0, key.indexOf('.')));
+
+  private Path directory;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    directory = Files.createTempDirectory("termed-index-test");
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Test
+  void shouldPruneShardsByRequiredTerm() {
+    Query group = new TermQuery(new Term("group", "a"));
+    Query title = new TermQuery(new Term("title", "x"));
+
+    assertEquals(Optional.of(ImmutableSet.of("a")), sharding.shards(group));
+    assertEquals(Optional.empty(), sharding.shards(title));
+    assertEquals(Optional.empty(), sharding.shards(new MatchAllDocsQuery()));
+
+    assertEquals(Optional.of(ImmutableSet.of("a")), sharding.shards(new BooleanQuery.Builder()
+        .add(group, Occur.MUST)
+        .add(title, Occur.MUST).build()));
+    assertEquals(Optional.of(ImmutableSet.of("a", "b")), sharding.shards(new BooleanQuery.Builder()
+        .add(group, Occur.SHOULD)
+        .add(new TermQuery(new Term("group", "b")), Occur.SHOULD).build()));
+    assertEquals(Optional.empty(), sharding.shards(new BooleanQuery.Builder()
+        .add(group, Occur.SHOULD)
+        .add(title, Occur.SHOULD).build()));
+  }
+
+  @Test
+  void shouldSearchAcrossShards() {
+    LuceneIndex<String, TestObject> index = newIndex();
+
+    index.index("a.1", new TestObject("a.1", "a", "First"));
+    index.index("a.2", new TestObject("a.2", "a", "Second"));
+    index.index("b.1", new TestObject("b.1", "b", "First"));
+    index.refreshBlocking();
+
+    assertEquals(3, index.count(spec(new MatchAllDocsQuery())));
+    assertEquals(2, index.count(spec(new TermQuery(new Term("title", "first")))));
+    assertEquals(2, index.count(spec(new TermQuery(new Term("group", "a")))));
+    assertEquals(0, index.count(spec(new TermQuery(new Term("group", "c")))));
+    assertEquals("Second", index.get("a.2").map(o -> o.title).orElse(null));
+    assertEquals(3, toListAndClose(index.getKeys(spec(new MatchAllDocsQuery()), null, -1)).size());
+
+    index.delete("a.1");
+    index.refreshBlocking();
+
+    assertEquals(1, index.count(spec(new TermQuery(new Term("group", "a")))));
+
+    index.close();
+
+    assertTrue(Files.isDirectory(directory.resolve("shards").resolve("a")));
+    assertTrue(Files.isDirectory(directory.resolve("shards").resolve("b")));
+  }
+
+  @Test
+  void shouldReopenShardsWithCommitData() {
+    LuceneIndex<String, TestObject> index = newIndex();
+    assertTrue(index.isEmpty());
+
+    index.setCommitData("version", "1");
+    index.index("a.1", new TestObject("a.1", "a", "First"));
+    index.index("b.1", new TestObject("b.1", "b", "First"));
+    index.commit();
+    index.close();
+
+    LuceneIndex<String, TestObject> reopened = newIndex();
+
+    assertFalse(reopened.isEmpty());
+    assertEquals(2, reopened.count(spec(new MatchAllDocsQuery())));
+    assertEquals(Optional.of("1"), reopened.getCommitData("version"));
+
+    reopened.close();
+  }
+
+  @Test
+  void shouldBackupShards() {
+    LuceneIndex<String, TestObject> index = newIndex();
+
+    index.index("a.1", new TestObject("a.1", "a", "First"));
+    index.index("b.1", new TestObject("b.1", "b", "First"));
+
+    Path backup = directory.resolve("backup");
+    index.backup(backup);
+    index.close();
+
+    LuceneIndex<String, TestObject> restored = newIndex(backup);
+
+    assertEquals(2, restored.count(spec(new MatchAllDocsQuery())));
+    assertEquals(1, restored.count(spec(new TermQuery(new Term("group", "b")))));
+
+    restored.close();
+  }
+
+  @Test
+  void shouldSwapRebuiltShards() {
+    LuceneIndex<String, TestObject> index = newIndex();
+
+    index.index("a.1", new TestObject("a.1", "a", "First"));
+    index.index("b.1", new TestObject("b.1", "b", "First"));
+
+    index.startRebuild(ImmutableMap.of("version", "2"));
+    index.rebuild("a.1", new TestObject("a.1", "a", "Rebuilt"));
+    index.rebuild("c.1", new TestObject("c.1", "c", "Rebuilt"));
+    index.delete("b.1");
+    index.finishRebuild();
+    index.close();
+
+    assertFalse(Files.exists(rebuildDirectory()));
+
+    LuceneIndex<String, TestObject> reopened = newIndex();
+
+    assertEquals(2, reopened.count(spec(new TermQuery(new Term("title", "rebuilt")))));
+    assertEquals(0, reopened.count(spec(new TermQuery(new Term("group", "b")))));
+    assertEquals(Optional.of("2"), reopened.getCommitData("version"));
+
+    reopened.close();
+  }
+
+  @Test
+  void shouldDeleteUnfinishedRebuildOnOpen() {
+    LuceneIndex<String, TestObject> index = newIndex();
+
+    index.index("a.1", new TestObject("a.1", "a", "First"));
+    index.startRebuild(ImmutableMap.of());
+    index.rebuild("a.1", new TestObject("a.1", "a", "Rebuilt"));
+    index.close();
+
+    LuceneIndex<String, TestObject> reopened = newIndex();
+
+    assertFalse(Files.exists(rebuildDirectory()));
+    assertEquals(1, reopened.count(spec(new TermQuery(new Term("title", "first")))));
+
+    reopened.close();
+  }
+
+  private Path rebuildDirectory() {
+    return directory.resolveSibling(directory.getFileName() + ".rebuild");
+  }
+
+  private LuceneIndex<String, TestObject> newIndex() {
+    return newIndex(directory);
+  }
+
+  private LuceneIndex<String, TestObject> newIndex(Path directory) {
+    return new LuceneIndex<>(
+        directory.toString(),
+        new JsonStringConverter<>(String.class),
+        new JsonDocumentConverter<>(new Gson(), TestObject.class),
+        1.0, 0.1,
+        new SearcherFactory(),
+        sharding,
+        null);
+  }
+
+  private LuceneSpecification<String, TestObject> spec(Query query) {
+    return new LuceneSpecification<String, TestObject>() {
+      @Override
+      public Query luceneQuery() {
+        return query;
+      }
+
+      @Override
+      public boolean test(String k, TestObject v) {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  private class TestObject {
+
+    private String id;
+    private String group;
+    private String title;
+
+    TestObject(String id, String group, String title) {
+      this.id = id;
+      this.group = group;
+      this.title = title;
+    }
+
+  }
+
+}
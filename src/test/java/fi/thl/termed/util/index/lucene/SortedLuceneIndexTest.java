@@ -0,0 +1,162 @@
+package fi.thl.termed.util.index.lucene;
+
+import static fi.thl.termed.util.collect.StreamUtils.toListAndClose;
+import static fi.thl.termed.util.query.Sorts.sortLong;
+import static fi.thl.termed.util.query.Sorts.sortLongDesc;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.gson.Gson;
+import fi.thl.termed.util.query.LuceneSpecification;
+import fi.thl.termed.util.query.Sort;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SortedLuceneIndexTest {
+
+  private org.apache.lucene.search.Sort indexSort = new org.apache.lucene.search.Sort(
+      new SortField("group.sortable", SortField.Type.STRING),
+      new SortField("n.long", SortField.Type.LONG));
+
+  private Path directory;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    directory = Files.createTempDirectory("termed-index-test");
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Test
+  void shouldSortByNumberWithinGroup() {
+    LuceneIndex<Integer, TestObject> index = newIndex(indexSort);
+    indexTestObjects(index);
+
+    assertEquals(asList(4, 2), ids(index, group("a"), singletonList(sortLong("n")), 2));
+    assertEquals(asList(1, 2), ids(index, group("a"), singletonList(sortLongDesc("n")), 2));
+    assertEquals(asList(5, 4, 2), ids(index, all(), singletonList(sortLong("n")), 3));
+
+    index.close();
+  }
+
+  @Test
+  void shouldOpenUnsortedIndexWithIndexSort() {
+    LuceneIndex<Integer, TestObject> unsorted = newIndex(null);
+    indexTestObjects(unsorted);
+    unsorted.close();
+
+    LuceneIndex<Integer, TestObject> index = newIndex(indexSort);
+    index.index(6, new TestObject(6, "a", 0));
+    index.refreshBlocking();
+
+    assertEquals(asList(6, 4, 2), ids(index, group("a"), singletonList(sortLong("n")), 3));
+
+    index.close();
+  }
+
+  private void indexTestObjects(LuceneIndex<Integer, TestObject> index) {
+    index.index(1, new TestObject(1, "a", 30));
+    index.index(2, new TestObject(2, "a", 20));
+    index.index(3, new TestObject(3, "b", 25));
+    index.index(4, new TestObject(4, "a", 10));
+    index.index(5, new TestObject(5, "b", 5));
+    index.refreshBlocking();
+  }
+
+  private LuceneIndex<Integer, TestObject> newIndex(org.apache.lucene.search.Sort indexSort) {
+    return new LuceneIndex<>(
+        directory.toString(),
+        new JsonStringConverter<>(Integer.class),
+        new SortableDocumentConverter(),
+        1.0, 0.1,
+        new SearcherFactory(),
+        null,
+        null,
+        indexSort);
+  }
+
+  private List<Integer> ids(LuceneIndex<Integer, TestObject> index, Query query, List<Sort> sort,
+      int max) {
+    return toListAndClose(index.get(spec(query), sort, max).map(o -> o.id));
+  }
+
+  private Query group(String group) {
+    return new BooleanQuery.Builder()
+        .add(new TermQuery(new Term("group", group)), Occur.MUST)
+        .build();
+  }
+
+  private Query all() {
+    return new MatchAllDocsQuery();
+  }
+
+  private LuceneSpecification<Integer, TestObject> spec(Query query) {
+    return new LuceneSpecification<Integer, TestObject>() {
+      @Override
+      public Query luceneQuery() {
+        return query;
+      }
+
+      @Override
+      public boolean test(Integer k, TestObject v) {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  private class SortableDocumentConverter extends JsonDocumentConverter<TestObject> {
+
+    SortableDocumentConverter() {
+      super(new Gson(), TestObject.class);
+    }
+
+    @Override
+    public Document apply(TestObject o) {
+      Document doc = super.apply(o);
+      doc.add(new SortedDocValuesField("group.sortable", new BytesRef(o.group)));
+      doc.add(new NumericDocValuesField("n.long", o.n));
+      return doc;
+    }
+
+  }
+
+  private class TestObject {
+
+    private Integer id;
+    private String group;
+    private long n;
+
+    TestObject(Integer id, String group, long n) {
+      this.id = id;
+      this.group = group;
+      this.n = n;
+    }
+
+  }
+
+}
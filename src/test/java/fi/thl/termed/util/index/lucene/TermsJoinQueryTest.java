@@ -0,0 +1,95 @@
+package fi.thl.termed.util.index.lucene;
+
+import static fi.thl.termed.util.collect.StreamUtils.toListAndClose;
+import static fi.thl.termed.util.index.lucene.LuceneConstants.DOCUMENT_ID_SORTABLE;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.gson.Gson;
+import fi.thl.termed.util.query.LuceneSpecification;
+import java.util.List;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TermsJoinQueryTest {
+
+  private LuceneIndex<Integer, TestObject> index;
+
+  @BeforeEach
+  void setUp() {
+    index = new LuceneIndex<>(
+        "",
+        new JsonStringConverter<>(Integer.class),
+        new JsonDocumentConverter<>(new Gson(), TestObject.class));
+
+    index.index(1, new TestObject(1, null, "root"));
+    index.index(2, new TestObject(2, 1, "child"));
+    index.index(3, new TestObject(3, 1, "child"));
+    index.index(4, new TestObject(4, 2, "grandchild"));
+    index.index(5, new TestObject(5, null, "other"));
+    index.refreshBlocking();
+  }
+
+  @AfterEach
+  void tearDown() {
+    index.close();
+  }
+
+  @Test
+  void shouldJoinFromMatchingDocuments() {
+    assertEquals(asList(2, 3), ids(childrenOf(new TermQuery(new Term("name", "root")))));
+    assertEquals(singletonList(4), ids(childrenOf(new TermQuery(new Term("id", "2")))));
+    assertEquals(emptyList(), ids(childrenOf(new TermQuery(new Term("name", "other")))));
+    assertEquals(emptyList(), ids(childrenOf(new TermQuery(new Term("name", "missing")))));
+  }
+
+  @Test
+  void shouldJoinNestedJoins() {
+    Query grandchildrenOfRoot = childrenOf(childrenOf(new TermQuery(new Term("name", "root"))));
+    assertEquals(singletonList(4), ids(grandchildrenOfRoot));
+    assertEquals(1, index.count(spec(grandchildrenOfRoot)));
+  }
+
+  private Query childrenOf(Query parentQuery) {
+    return new TermsJoinQuery(DOCUMENT_ID_SORTABLE, parentQuery, "parent");
+  }
+
+  private List<Integer> ids(Query query) {
+    return toListAndClose(index.getKeys(spec(query), emptyList(), -1));
+  }
+
+  private LuceneSpecification<Integer, TestObject> spec(Query query) {
+    return new LuceneSpecification<Integer, TestObject>() {
+      @Override
+      public Query luceneQuery() {
+        return query;
+      }
+
+      @Override
+      public boolean test(Integer k, TestObject v) {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  private class TestObject {
+
+    private Integer id;
+    private Integer parent;
+    private String name;
+
+    TestObject(Integer id, Integer parent, String name) {
+      this.id = id;
+      this.parent = parent;
+      this.name = name;
+    }
+
+  }
+
+}
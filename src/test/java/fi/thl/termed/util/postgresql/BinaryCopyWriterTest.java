@@ -0,0 +1,67 @@
+package fi.thl.termed.util.postgresql;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+class BinaryCopyWriterTest {
+
+  @Test
+  void shouldWriteRowsInBinaryCopyFormat() throws IOException {
+    UUID uuid = UUID.fromString("00112233-4455-6677-8899-aabbccddeeff");
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BinaryCopyWriter writer = new BinaryCopyWriter(bytes);
+    writer.startRow(6);
+    writer.writeUuid(uuid);
+    writer.writeText("käsite");
+    writer.writeInt(7);
+    writer.writeLong(8L);
+    writer.writeTimestamp(LocalDateTime.of(2000, 1, 1, 0, 0, 1));
+    writer.writeText(null);
+    writer.finish();
+
+    ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+
+    byte[] signature = new byte[11];
+    buffer.get(signature);
+    assertArrayEquals(new byte[]{'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0},
+        signature);
+    assertEquals(0, buffer.getInt());
+    assertEquals(0, buffer.getInt());
+
+    assertEquals(6, buffer.getShort());
+
+    assertEquals(16, buffer.getInt());
+    assertEquals(uuid.getMostSignificantBits(), buffer.getLong());
+    assertEquals(uuid.getLeastSignificantBits(), buffer.getLong());
+
+    byte[] text = "käsite".getBytes(UTF_8);
+    assertEquals(text.length, buffer.getInt());
+    byte[] actualText = new byte[text.length];
+    buffer.get(actualText);
+    assertArrayEquals(text, actualText);
+
+    assertEquals(4, buffer.getInt());
+    assertEquals(7, buffer.getInt());
+
+    assertEquals(8, buffer.getInt());
+    assertEquals(8L, buffer.getLong());
+
+    assertEquals(8, buffer.getInt());
+    assertEquals(1_000_000L, buffer.getLong());
+
+    assertEquals(-1, buffer.getInt());
+
+    assertEquals(-1, buffer.getShort());
+    assertEquals(0, buffer.remaining());
+  }
+
+}
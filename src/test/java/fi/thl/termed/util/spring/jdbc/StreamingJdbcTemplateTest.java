@@ -0,0 +1,68 @@
+package fi.thl.termed.util.spring.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+class StreamingJdbcTemplateTest {
+
+  private StreamingJdbcTemplate jdbcTemplate;
+
+  @BeforeEach
+  void setUp() {
+    DriverManagerDataSource dataSource = new DriverManagerDataSource(
+        "jdbc:h2:mem:streaming_jdbc_template_test;DB_CLOSE_DELAY=-1", "SA", "");
+    jdbcTemplate = new StreamingJdbcTemplate(dataSource);
+    jdbcTemplate.update("drop table if exists item");
+    jdbcTemplate.update("create table item (id int primary key, name varchar(20))");
+  }
+
+  @Test
+  void shouldExecuteUpdatesInBatches() {
+    jdbcTemplate.inBatches(3, () -> {
+      for (int i = 0; i < 10; i++) {
+        jdbcTemplate.update("insert into item (id, name) values (?, ?)", i, "item" + i);
+      }
+      jdbcTemplate.update("update item set name = ? where id = ?", "first", 0);
+    });
+
+    assertEquals(Optional.of(10L),
+        jdbcTemplate.queryForOptional("select count(*) from item", Long.class));
+    assertEquals(Optional.of("first"),
+        jdbcTemplate.queryForOptional("select name from item where id = ?", String.class, 0));
+  }
+
+  @Test
+  void shouldFlushPendingUpdatesBeforeQueries() {
+    jdbcTemplate.inBatches(100, () -> {
+      jdbcTemplate.update("insert into item (id, name) values (?, ?)", 1, "one");
+      jdbcTemplate.update("insert into item (id, name) values (?, ?)", 2, "two");
+
+      assertEquals(Optional.of(2L),
+          jdbcTemplate.queryForOptional("select count(*) from item", Long.class));
+
+      jdbcTemplate.update("delete from item where id = ?", 1);
+    });
+
+    assertEquals(Optional.of(1L),
+        jdbcTemplate.queryForOptional("select count(*) from item", Long.class));
+  }
+
+  @Test
+  void shouldDropPendingUpdatesOnFailure() {
+    assertThrows(IllegalStateException.class, () -> jdbcTemplate.inBatches(100, () -> {
+      jdbcTemplate.update("insert into item (id, name) values (?, ?)", 1, "one");
+      throw new IllegalStateException();
+    }));
+
+    jdbcTemplate.update("insert into item (id, name) values (?, ?)", 2, "two");
+
+    assertEquals(Optional.of(1L),
+        jdbcTemplate.queryForOptional("select count(*) from item", Long.class));
+  }
+
+}
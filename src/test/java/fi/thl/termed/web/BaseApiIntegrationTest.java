@@ -35,7 +35,8 @@ import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 @ExtendWith(SpringExtension.class)
 @TestInstance(Lifecycle.PER_CLASS)
-@SpringBootTest(webEnvironment = RANDOM_PORT)
+@SpringBootTest(webEnvironment = RANDOM_PORT,
+    properties = "fi.thl.termed.indexWaitForAllWrites=true")
 public abstract class BaseApiIntegrationTest {
 
   protected RequestSpecification userAuthorizedRequest;
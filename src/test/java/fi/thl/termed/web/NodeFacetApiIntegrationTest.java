@@ -0,0 +1,216 @@
+package fi.thl.termed.web;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static fi.thl.termed.domain.User.newSuperuser;
+import static fi.thl.termed.util.io.ResourceUtils.resourceToString;
+import static fi.thl.termed.util.service.SaveMode.UPSERT;
+import static fi.thl.termed.util.service.WriteOptions.defaultOpts;
+import static io.restassured.RestAssured.given;
+import static java.util.Collections.singletonList;
+import static uk.co.datumedge.hamcrest.json.SameJSONAs.sameJSONAs;
+
+import fi.thl.termed.domain.AppRole;
+import fi.thl.termed.domain.GraphId;
+import fi.thl.termed.domain.GraphRole;
+import fi.thl.termed.domain.User;
+import fi.thl.termed.util.service.Service;
+import java.util.Base64;
+import java.util.UUID;
+import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+class NodeFacetApiIntegrationTest extends BaseApiIntegrationTest {
+
+  private String graphId = UUID.randomUUID().toString();
+
+  // graph where visitors can read concepts, but not secrets or comments
+  private UUID restrictedGraphId = UUID.randomUUID();
+  private String visitorUsername = "facet-visitor";
+  private String visitorPassword = "facet-visitor";
+
+  private String secretId = "c5b5d4b8-3c36-4c9e-9e5c-0b1ff3e6c2f1";
+  private String catsId = "0d2a3d52-4d47-4e0e-a6c4-52d4bb0c0c40";
+  private String animalsId = "e4a3c8c6-1d3f-4d0e-8b45-7a1c3f0d5b9e";
+
+  @Autowired
+  private Service<String, User> users;
+
+  @Autowired
+  private PasswordEncoder encoder;
+
+  @BeforeEach
+  void insertTestData() {
+    given(adminAuthorizedJsonSaveRequest)
+        .body(resourceToString("examples/termed/animals-graph.json"))
+        .put("/api/graphs/{graphId}?mode=insert", graphId)
+        .then()
+        .statusCode(HttpStatus.SC_OK);
+    given(adminAuthorizedJsonSaveRequest)
+        .body(resourceToString("examples/termed/animals-types.json"))
+        .post("/api/graphs/{graphId}/types?batch=true&mode=insert", graphId)
+        .then()
+        .statusCode(HttpStatus.SC_NO_CONTENT);
+    given(adminAuthorizedJsonSaveRequest)
+        .body(resourceToString("examples/termed/animals-nodes.json"))
+        .post("/api/graphs/{graphId}/types/Concept/nodes?batch=true&mode=insert", graphId)
+        .then()
+        .statusCode(HttpStatus.SC_NO_CONTENT);
+
+    given(adminAuthorizedJsonSaveRequest)
+        .body("{ 'roles': ['visitor'], 'permissions': { 'visitor': ['READ'] } }")
+        .put("/api/graphs/{graphId}?mode=insert", restrictedGraphId)
+        .then()
+        .statusCode(HttpStatus.SC_OK);
+    given(adminAuthorizedJsonSaveRequest)
+        .body("["
+            + "  {"
+            + "    'id': 'Concept',"
+            + "    'permissions': { 'visitor': ['READ'] },"
+            + "    'textAttributes': ["
+            + "      { 'id': 'prefLabel', 'permissions': { 'visitor': ['READ'] } },"
+            + "      { 'id': 'comment' }"
+            + "    ],"
+            + "    'referenceAttributes': ["
+            + "      {"
+            + "        'id': 'broader', 'range': { 'id': 'Concept' },"
+            + "        'permissions': { 'visitor': ['READ'] }"
+            + "      },"
+            + "      {"
+            + "        'id': 'related', 'range': { 'id': 'Secret' },"
+            + "        'permissions': { 'visitor': ['READ'] }"
+            + "      }"
+            + "    ]"
+            + "  },"
+            + "  { 'id': 'Secret' }"
+            + "]")
+        .post("/api/graphs/{graphId}/types?batch=true&mode=insert", restrictedGraphId)
+        .then()
+        .statusCode(HttpStatus.SC_NO_CONTENT);
+    given(adminAuthorizedJsonSaveRequest)
+        .body("["
+            + "  { 'id': '" + secretId + "', 'type': { 'id': 'Secret' } },"
+            + "  {"
+            + "    'id': '" + animalsId + "', 'type': { 'id': 'Concept' },"
+            + "    'properties': {"
+            + "      'prefLabel': [ { 'value': 'Animals' } ],"
+            + "      'comment': [ { 'value': 'Draft' } ]"
+            + "    },"
+            + "    'references': { 'related': [ { 'id': '" + secretId + "' } ] }"
+            + "  },"
+            + "  {"
+            + "    'id': '" + catsId + "', 'type': { 'id': 'Concept' },"
+            + "    'properties': { 'prefLabel': [ { 'value': 'Cats' } ] },"
+            + "    'references': { 'broader': [ { 'id': '" + animalsId + "' } ] }"
+            + "  }"
+            + "]")
+        .post("/api/graphs/{graphId}/nodes?batch=true&mode=insert", restrictedGraphId)
+        .then()
+        .statusCode(HttpStatus.SC_NO_CONTENT);
+
+    users.save(new User(visitorUsername, encoder.encode(visitorPassword), AppRole.USER,
+            singletonList(new GraphRole(new GraphId(restrictedGraphId), "visitor"))),
+        UPSERT, defaultOpts(), newSuperuser("test-initializer"));
+  }
+
+  @AfterEach
+  void removeTestData() {
+    given(adminAuthorizedRequest).delete("/api/graphs/{graphId}/nodes", graphId);
+    given(adminAuthorizedRequest).delete("/api/graphs/{graphId}/types", graphId);
+    given(adminAuthorizedRequest).delete("/api/graphs/{graphId}", graphId);
+
+    users.delete(visitorUsername, defaultOpts(), newSuperuser("test-cleaner"));
+
+    given(adminAuthorizedRequest).delete("/api/graphs/{graphId}/nodes", restrictedGraphId);
+    given(adminAuthorizedRequest).delete("/api/graphs/{graphId}/types", restrictedGraphId);
+    given(adminAuthorizedRequest).delete("/api/graphs/{graphId}", restrictedGraphId);
+  }
+
+  @Test
+  void shouldCountFacets() {
+    given(adminAuthorizedJsonGetRequest)
+        .param("facet", "type")
+        .param("facet", "references.broader")
+        .param("facet", "properties.prefLabel")
+        .param("max", 2)
+        .get("/api/graphs/{graphId}/nodes/facets", graphId)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .body(sameJSONAs("{"
+            + "  'type': { 'Concept': 9 },"
+            + "  'references.broader': {"
+            + "    '" + graphId + ".Concept.26e6d6e4-6189-4c83-b2d9-637044fbdb65': 3,"
+            + "    '" + graphId + ".Concept.194a6da0-9e1a-4f4c-be21-0fcfd44e81e8': 2"
+            + "  },"
+            + "  'properties.prefLabel': { 'Animals': 1, 'Beavers': 1 }"
+            + "}"));
+  }
+
+  @Test
+  void shouldCountFacetsOfMatchingNodes() {
+    given(adminAuthorizedJsonGetRequest)
+        .param("facet", "references.broader")
+        .param("where", "references.broader.id:26e6d6e4-6189-4c83-b2d9-637044fbdb65")
+        .get("/api/graphs/{graphId}/types/Concept/nodes/facets", graphId)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .body(sameJSONAs("{"
+            + "  'references.broader': {"
+            + "    '" + graphId + ".Concept.26e6d6e4-6189-4c83-b2d9-637044fbdb65': 3"
+            + "  }"
+            + "}"));
+  }
+
+  @Test
+  void shouldCountOnlyReadableFacetValues() {
+    given(adminAuthorizedJsonGetRequest)
+        .param("facet", "type")
+        .param("facet", "properties.comment")
+        .param("facet", "references.related")
+        .get("/api/graphs/{graphId}/nodes/facets", restrictedGraphId)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .body(sameJSONAs("{"
+            + "  'type': { 'Concept': 2, 'Secret': 1 },"
+            + "  'properties.comment': { 'Draft': 1 },"
+            + "  'references.related': {"
+            + "    '" + restrictedGraphId + ".Secret." + secretId + "': 1"
+            + "  }"
+            + "}"));
+
+    given()
+        .header("Authorization", "Basic " + Base64.getEncoder()
+            .encodeToString((visitorUsername + ":" + visitorPassword).getBytes(UTF_8)))
+        .accept("application/json")
+        .param("facet", "type")
+        .param("facet", "properties.prefLabel")
+        .param("facet", "properties.comment")
+        .param("facet", "references.broader")
+        .param("facet", "references.related")
+        .get("/api/graphs/{graphId}/nodes/facets", restrictedGraphId)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .body(sameJSONAs("{"
+            + "  'type': { 'Concept': 2 },"
+            + "  'properties.prefLabel': { 'Animals': 1, 'Cats': 1 },"
+            + "  'properties.comment': {},"
+            + "  'references.broader': {"
+            + "    '" + restrictedGraphId + ".Concept." + animalsId + "': 1"
+            + "  },"
+            + "  'references.related': {}"
+            + "}"));
+  }
+
+  @Test
+  void shouldRejectUnknownFacet() {
+    given(adminAuthorizedJsonGetRequest)
+        .param("facet", "foo")
+        .get("/api/graphs/{graphId}/nodes/facets", graphId)
+        .then()
+        .statusCode(HttpStatus.SC_BAD_REQUEST);
+  }
+
+}
@@ -1,16 +1,34 @@
 package fi.thl.termed.web;
 
+import static fi.thl.termed.domain.User.newSuperuser;
 import static fi.thl.termed.util.io.ResourceUtils.resourceToString;
+import static fi.thl.termed.util.service.SaveMode.INSERT;
+import static fi.thl.termed.util.service.WriteOptions.defaultOpts;
 import static io.restassured.RestAssured.given;
+import static java.util.Collections.singletonList;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static uk.co.datumedge.hamcrest.json.SameJSONAs.sameJSONAs;
 
+import fi.thl.termed.domain.AppRole;
+import fi.thl.termed.domain.GraphId;
+import fi.thl.termed.domain.GraphRole;
+import fi.thl.termed.domain.User;
+import fi.thl.termed.util.service.Service;
+import java.util.Base64;
 import java.util.UUID;
 import org.apache.http.HttpStatus;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.crypto.password.PasswordEncoder;
 
 class NodeSaveApiIntegrationTest extends BaseApiIntegrationTest {
 
+  @Autowired
+  private Service<String, User> users;
+
+  @Autowired
+  private PasswordEncoder encoder;
+
   @Test
   void shouldSaveAndGetTrivialResource() {
     String graphId = UUID.randomUUID().toString();
@@ -80,4 +98,76 @@ class NodeSaveApiIntegrationTest extends BaseApiIntegrationTest {
     given(adminAuthorizedRequest).delete("/api/graphs/" + graphId);
   }
 
+  // Values written by a non-admin user are read through permission checking DAOs, e.g. on
+  // Postgres these read rows while bulk inserts of the same write are in progress
+  @Test
+  void shouldSaveNodesAsUserWithGraphRole() {
+    String graphId = UUID.randomUUID().toString();
+    String username = "node-save-editor";
+    String password = "node-save-editor";
+    String auth = "Basic " + Base64.getEncoder()
+        .encodeToString((username + ":" + password).getBytes());
+
+    given(adminAuthorizedJsonSaveRequest)
+        .body("{ 'roles': ['editor'], 'permissions': { 'editor': ['READ'] } }")
+        .put("/api/graphs/{graphId}?mode=insert", graphId)
+        .then()
+        .statusCode(HttpStatus.SC_OK);
+    given(adminAuthorizedJsonSaveRequest)
+        .body("{"
+            + "  'id': 'Concept',"
+            + "  'permissions': { 'editor': ['READ', 'INSERT', 'UPDATE', 'DELETE'] },"
+            + "  'textAttributes': ["
+            + "    { 'id': 'prefLabel', 'permissions': { 'editor': ['READ', 'INSERT'] } }"
+            + "  ],"
+            + "  'referenceAttributes': ["
+            + "    {"
+            + "      'id': 'broader', 'range': { 'id': 'Concept' },"
+            + "      'permissions': { 'editor': ['READ', 'INSERT'] }"
+            + "    }"
+            + "  ]"
+            + "}")
+        .post("/api/graphs/{graphId}/types?mode=insert", graphId)
+        .then()
+        .statusCode(HttpStatus.SC_OK);
+
+    users.save(new User(username, encoder.encode(password), AppRole.USER,
+            singletonList(new GraphRole(new GraphId(UUID.fromString(graphId)), "editor"))),
+        INSERT, defaultOpts(), newSuperuser("test-initializer"));
+
+    String animalsId = UUID.randomUUID().toString();
+    String catsId = UUID.randomUUID().toString();
+
+    given()
+        .header("Authorization", auth)
+        .header("Content-type", "application/json")
+        .body("["
+            + "  {"
+            + "    'id': '" + animalsId + "',"
+            + "    'properties': { 'prefLabel': [ { 'value': 'Animals' } ] }"
+            + "  },"
+            + "  {"
+            + "    'id': '" + catsId + "',"
+            + "    'properties': { 'prefLabel': [ { 'value': 'Cats' } ] },"
+            + "    'references': { 'broader': [ { 'id': '" + animalsId + "' } ] }"
+            + "  }"
+            + "]")
+        .post("/api/graphs/{graphId}/types/Concept/nodes?batch=true&mode=insert", graphId)
+        .then()
+        .statusCode(HttpStatus.SC_NO_CONTENT);
+
+    given(adminAuthorizedJsonGetRequest)
+        .get("/api/graphs/{graphId}/types/Concept/nodes/{id}", graphId, catsId)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .body("properties.prefLabel[0].value", equalTo("Cats"))
+        .body("references.broader[0].id", equalTo(animalsId));
+
+    // clean up
+    given(adminAuthorizedRequest).delete("/api/graphs/" + graphId + "/nodes");
+    given(adminAuthorizedRequest).delete("/api/graphs/" + graphId + "/types");
+    given(adminAuthorizedRequest).delete("/api/graphs/" + graphId);
+    users.delete(username, defaultOpts(), newSuperuser("test-cleaner"));
+  }
+
 }
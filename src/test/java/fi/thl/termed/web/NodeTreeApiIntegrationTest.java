@@ -2,10 +2,17 @@ package fi.thl.termed.web;
 
 import static fi.thl.termed.util.io.ResourceUtils.resourceToString;
 import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.everyItem;
 import static org.hamcrest.Matchers.hasKey;
 import static uk.co.datumedge.hamcrest.json.SameJSONAs.sameJSONAs;
 
+import io.restassured.response.Response;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import org.apache.http.HttpStatus;
@@ -127,4 +134,90 @@ class NodeTreeApiIntegrationTest extends BaseApiIntegrationTest {
             .allowingAnyArrayOrdering());
   }
 
+  @Test
+  void shouldPageWithCursor() {
+    List<String> allCodes = given(adminAuthorizedJsonGetRequest)
+        .get("/api/graphs/{graphId}/node-trees?select=code&sort=createdDate&max=-1", graphId)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .extract().jsonPath().getList("code");
+
+    List<String> pagedCodes = new ArrayList<>();
+    String cursor = "*";
+
+    while (cursor != null) {
+      Response page = given(adminAuthorizedJsonGetRequest)
+          .param("select", "code")
+          .param("sort", "createdDate")
+          .param("max", 2)
+          .param("cursor", cursor)
+          .get("/api/graphs/{graphId}/node-trees", graphId);
+
+      page.then().statusCode(HttpStatus.SC_OK);
+
+      List<String> codes = page.jsonPath().getList("code");
+      assertTrue(codes.size() <= 2);
+      pagedCodes.addAll(codes);
+
+      cursor = page.getHeader("X-Next-Cursor");
+    }
+
+    assertEquals(allCodes.size(), pagedCodes.size());
+    assertEquals(new HashSet<>(allCodes), new HashSet<>(pagedCodes));
+  }
+
+  @Test
+  void shouldContinuePagingAfterLastNodeOfPageIsDeleted() {
+    List<String> allIds = given(adminAuthorizedJsonGetRequest)
+        .get("/api/graphs/{graphId}/types/Concept/node-trees?select=id&sort=number&max=-1",
+            graphId)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .extract().jsonPath().getList("id");
+
+    Response firstPage = given(adminAuthorizedJsonGetRequest)
+        .get("/api/graphs/{graphId}/types/Concept/node-trees"
+            + "?select=id&sort=number&max=2&cursor=*", graphId);
+    firstPage.then().statusCode(HttpStatus.SC_OK);
+    assertEquals(allIds.subList(0, 2), firstPage.jsonPath().getList("id"));
+
+    given(adminAuthorizedRequest)
+        .delete("/api/graphs/{graphId}/types/Concept/nodes/{id}?disconnect=true&sync=true",
+            graphId, allIds.get(1))
+        .then()
+        .statusCode(HttpStatus.SC_NO_CONTENT);
+
+    given(adminAuthorizedJsonGetRequest)
+        .param("select", "id")
+        .param("sort", "number")
+        .param("max", 2)
+        .param("cursor", firstPage.getHeader("X-Next-Cursor"))
+        .get("/api/graphs/{graphId}/types/Concept/node-trees", graphId)
+        .then()
+        .statusCode(HttpStatus.SC_OK)
+        .body("id", equalTo(allIds.subList(2, 4)));
+  }
+
+  @Test
+  void shouldRejectCursorOfAnotherSort() {
+    Response firstPage = given(adminAuthorizedJsonGetRequest)
+        .get("/api/graphs/{graphId}/node-trees?select=id&sort=number&max=2&cursor=*", graphId);
+    firstPage.then().statusCode(HttpStatus.SC_OK);
+
+    given(adminAuthorizedJsonGetRequest)
+        .param("max", 2)
+        .param("cursor", firstPage.getHeader("X-Next-Cursor"))
+        .get("/api/graphs/{graphId}/node-trees", graphId)
+        .then()
+        .statusCode(HttpStatus.SC_BAD_REQUEST);
+  }
+
+  @Test
+  void shouldRejectMalformedCursor() {
+    given(adminAuthorizedJsonGetRequest)
+        .get("/api/graphs/{graphId}/node-trees?max=2&cursor=foo", graphId)
+        .then()
+        .statusCode(HttpStatus.SC_BAD_REQUEST);
+  }
+
 }
@@ -64,6 +64,23 @@ class AdminApiDocumentingIntegrationTest extends BaseApiDocumentingIntegrationTe
         .statusCode(HttpStatus.SC_FORBIDDEN);
   }
 
+  @Test
+  void documentBackupIndex() {
+    given(adminAuthorizedRequest).filter(
+        document("backup-index",
+            operationIntro("Post request to index backup copies a snapshot of the node index "
+                + "to given server side directory. Response contains index commit data, e.g. "
+                + "`termed.node.indexedRevision` telling the revision up to which nodes are "
+                + "indexed in the copy."),
+            requestParameters(
+                parameterWithName("directory")
+                    .description("Empty or non-existing directory on the server"))))
+        .when()
+        .post("/api/index/backup?directory=/var/backups/termed-index")
+        .then()
+        .statusCode(HttpStatus.SC_FORBIDDEN);
+  }
+
   @Test
   void documentDeleteCaches() {
     given(adminAuthorizedRequest).filter(